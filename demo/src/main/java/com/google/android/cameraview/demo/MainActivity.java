@@ -20,11 +20,8 @@ import android.Manifest;
 import android.app.Dialog;
 import android.content.DialogInterface;
 import android.content.pm.PackageManager;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
 import android.support.design.widget.FloatingActionButton;
@@ -46,9 +43,7 @@ import com.google.android.cameraview.AspectRatio;
 import com.google.android.cameraview.CameraView;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Set;
 
 
@@ -88,15 +83,15 @@ public class MainActivity extends AppCompatActivity implements
 
     private CameraView mCameraView;
 
-    private Handler mBackgroundHandler;
-
     private View.OnClickListener mOnClickListener = new View.OnClickListener() {
         @Override
         public void onClick(View v) {
             switch (v.getId()) {
                 case R.id.take_picture:
                     if (mCameraView != null) {
-                        mCameraView.takePicture();
+                        mCameraView.takePicture(new File(
+                                getExternalFilesDir(Environment.DIRECTORY_PICTURES),
+                                "picture.jpg"), mPictureSaveCallback);
                     }
                     break;
             }
@@ -129,7 +124,7 @@ public class MainActivity extends AppCompatActivity implements
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
                 == PackageManager.PERMISSION_GRANTED && ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO)
                 == PackageManager.PERMISSION_GRANTED) {
-            mCameraView.start();
+            mCameraView.startAsync(null);
         } else {
             ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO},
                     REQUEST_CAMERA_PERMISSION);
@@ -142,19 +137,6 @@ public class MainActivity extends AppCompatActivity implements
         super.onPause();
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (mBackgroundHandler != null) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                mBackgroundHandler.getLooper().quitSafely();
-            } else {
-                mBackgroundHandler.getLooper().quit();
-            }
-            mBackgroundHandler = null;
-        }
-    }
-
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
             @NonNull int[] grantResults) {
@@ -218,15 +200,6 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
-    private Handler getBackgroundHandler() {
-        if (mBackgroundHandler == null) {
-            HandlerThread thread = new HandlerThread("background");
-            thread.start();
-            mBackgroundHandler = new Handler(thread.getLooper());
-        }
-        return mBackgroundHandler;
-    }
-
     private CameraView.Callback mCallback
             = new CameraView.Callback() {
 
@@ -240,34 +213,22 @@ public class MainActivity extends AppCompatActivity implements
             Log.d(TAG, "onCameraClosed");
         }
 
+    };
+
+    private CameraView.PictureSaveCallback mPictureSaveCallback
+            = new CameraView.PictureSaveCallback() {
+
         @Override
-        public void onPictureTaken(CameraView cameraView, final byte[] data) {
-            Log.d(TAG, "onPictureTaken " + data.length);
+        public void onPictureSaved(CameraView cameraView, File file, long captureTime,
+                long saveTime) {
+            Log.d(TAG, "onPictureSaved " + file + " in " + captureTime + " + " + saveTime + " ms");
             Toast.makeText(cameraView.getContext(), R.string.picture_taken, Toast.LENGTH_SHORT)
                     .show();
-            getBackgroundHandler().post(new Runnable() {
-                @Override
-                public void run() {
-                    File file = new File(getExternalFilesDir(Environment.DIRECTORY_PICTURES),
-                            "picture.jpg");
-                    OutputStream os = null;
-                    try {
-                        os = new FileOutputStream(file);
-                        os.write(data);
-                        os.close();
-                    } catch (IOException e) {
-                        Log.w(TAG, "Cannot write to " + file, e);
-                    } finally {
-                        if (os != null) {
-                            try {
-                                os.close();
-                            } catch (IOException e) {
-                                // Ignore
-                            }
-                        }
-                    }
-                }
-            });
+        }
+
+        @Override
+        public void onPictureSaveFailed(CameraView cameraView, File file, IOException e) {
+            Log.w(TAG, "Cannot write to " + file, e);
         }
 
     };
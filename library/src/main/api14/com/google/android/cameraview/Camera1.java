@@ -22,6 +22,10 @@ import android.hardware.Camera;
 import android.media.CamcorderProfile;
 import android.media.MediaRecorder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.util.SparseArrayCompat;
 import android.text.TextUtils;
 import android.util.Log;
@@ -29,20 +33,45 @@ import android.view.SurfaceHolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 import extension.record.RecorderStatus;
 
 
+/**
+ * The camera on {@link Camera}. The camera is opened on a thread of its own, which also
+ * receives the callbacks of the camera, and all the operations are serialized on it; the
+ * methods called from the view post them there. Setters return right away, and the getters
+ * return the value last passed to the setter without waiting for the camera thread to apply it;
+ * when the open camera does not support a flash or focus mode, it falls back to a mode it has,
+ * but the getter keeps returning the requested one. {@link #start()} and {@link #stop()} wait
+ * for the operations before them.
+ *
+ * <p>{@link Callback#onCameraOpened()}, {@link Callback#onCameraClosed()} and the callbacks of
+ * the video recording are posted to the main thread. Pictures are delivered on the camera
+ * thread, like Camera2 delivers them on its background thread.</p>
+ */
 @SuppressWarnings("deprecation")
 class Camera1 extends CameraViewImpl {
     private static final String TAG = "Camera_v2";
 
     private static final int INVALID_CAMERA_ID = -1;
 
+    /**
+     * Number of preview callback buffers cycled between the camera and the frame processors.
+     */
+    private static final int PREVIEW_BUFFER_COUNT = 3;
+
     private static final SparseArrayCompat<String> FLASH_MODES = new SparseArrayCompat<>();
 
     static {
@@ -55,28 +84,145 @@ class Camera1 extends CameraViewImpl {
 
     private int mCameraId;
 
-    private final AtomicBoolean isPictureCaptureInProgress = new AtomicBoolean(false);
+    /** The maximum number of picture requests waiting behind the one being taken. */
+    private static final int PICTURE_QUEUE_CAPACITY = 8;
+
+    /** How long the focus of a picture is reused for the next queued one, in milliseconds. */
+    private static final long FOCUS_REUSE_TIMEOUT = 2000;
+
+    private final PictureQueue mPictureQueue = new PictureQueue(PICTURE_QUEUE_CAPACITY);
+
+    /** The request of the picture being taken, if any. */
+    private PictureRequest mPictureRequest;
+
+    /** Whether the focus is still locked from the previous picture. */
+    private boolean mFocusLocked;
+
+    /** When the focus was locked, in uptime milliseconds. */
+    private long mFocusLockTime;
+
+    /** When the last picture was requested from the camera, in uptime milliseconds. */
+    private long mLastPictureTime;
 
-    Camera mCamera;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The thread of the camera while it is started, or {@code null}. */
+    private HandlerThread mCameraThread;
+
+    private volatile Handler mCameraHandler;
+
+    volatile Camera mCamera;
 
     private Camera.Parameters mCameraParameters;
 
     private final Camera.CameraInfo mCameraInfo = new Camera.CameraInfo();
 
+    /**
+     * The snapshot entry the current camera was configured from, until it is checked against
+     * the camera; {@code null} if the camera was queried.
+     */
+    private CapabilitySnapshot.Camera mSnapshotCamera;
+
+    private final Runnable mRevalidateCapabilities = new Runnable() {
+        @Override
+        public void run() {
+            revalidateCapabilities();
+        }
+    };
+
     private final SizeMap mPreviewSizes = new SizeMap();
 
     private final SizeMap mPictureSizes = new SizeMap();
 
-    private AspectRatio mAspectRatio;
+    /** Read by the view for the layout, so it is not read on the camera thread only. */
+    private volatile AspectRatio mAspectRatio;
 
     private boolean mShowingPreview;
 
+    /**
+     * The aspect ratios of both preview and picture sizes of the open camera, for the view to
+     * read without waiting for the camera thread.
+     */
+    private volatile Set<AspectRatio> mSupportedAspectRatios = Collections.emptySet();
+
+    /** The auto-focus applied on the camera thread. */
     private boolean mAutoFocus;
 
+    /** The flash mode applied on the camera thread. */
     private int mFlash;
 
+    /** The values last passed to the setters, returned by the getters. */
+    private volatile int mRequestedFacing = Constants.FACING_BACK;
+
+    private volatile boolean mRequestedAutoFocus;
+
+    private volatile int mRequestedFlash;
+
+    /** The desired length of the longer side of the embedded thumbnails, or 0. */
+    private int mThumbnailSize;
+
+    private PictureSizePolicy mPictureSizePolicy = PictureSizePolicy.LARGEST;
+
     private int mDisplayOrientation;
 
+    /**
+     * The callback buffers currently handed to the camera, or {@code null} when preview frames
+     * are not requested.
+     */
+    private volatile Nv21Frame[] mPreviewFrames;
+
+    private final Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            final Nv21Frame frame = findPreviewFrame(data);
+            if (frame == null) { // A buffer of a previous preview size
+                return;
+            }
+            // Camera1 has no sensor timestamps; this is as close to the exposure as it gets
+            frame.setTimestamp(System.nanoTime());
+            frame.setRotation(calcFrameRotation(mDisplayOrientation));
+            frame.getMetadata().setFacing(mFacing);
+            mFrameDispatcher.dispatch(frame);
+        }
+    };
+
+    /** The preview frames that the frame processors are done with; guarded by itself. */
+    private final ArrayDeque<Nv21Frame> mReturnedFrames = new ArrayDeque<>();
+
+    private final Nv21Frame.Recycler mFrameRecycler = new Nv21Frame.Recycler() {
+        @Override
+        public void recycle(Nv21Frame frame) {
+            // This is called on the frame dispatcher thread; the buffers are handed back to the
+            // camera on its own thread
+            final boolean post;
+            synchronized (mReturnedFrames) {
+                post = mReturnedFrames.isEmpty();
+                mReturnedFrames.add(frame);
+            }
+            if (post) {
+                runOnCameraThread(mReturnPreviewBuffers);
+            }
+        }
+    };
+
+    private final Runnable mReturnPreviewBuffers = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final Nv21Frame frame;
+                synchronized (mReturnedFrames) {
+                    frame = mReturnedFrames.poll();
+                }
+                if (frame == null) {
+                    return;
+                }
+                if (mCamera != null && findPreviewFrame(frame.getData()) == frame) {
+                    mCamera.addCallbackBuffer(frame.getData());
+                }
+            }
+        }
+    };
+
     private int mFps;//帧率
     private MediaRecorder mMediaRecorder;
 //    private RecordCallback mRecordCallback;
@@ -89,16 +235,50 @@ class Camera1 extends CameraViewImpl {
         preview.setCallback(new PreviewImpl.Callback() {
             @Override
             public void onSurfaceChanged() {
-                if (mCamera != null) {
-                    setUpPreview();
-                    adjustCameraParameters();
-                }
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCamera != null) {
+                            setUpPreview();
+                            adjustCameraParameters();
+                        }
+                    }
+                });
             }
         });
     }
 
     @Override
     boolean start() {
+        startCameraThread();
+        runOnCameraThreadAndWait(new Runnable() {
+            @Override
+            public void run() {
+                startInternal();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    boolean startAsync(final StartCallback callback) {
+        startCameraThread();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                RuntimeException error = null;
+                try {
+                    startInternal();
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                callback.onStartFinished(error);
+            }
+        });
+        return true;
+    }
+
+    private void startInternal() {
         chooseCamera();
         openCamera();
         if (mPreview.isReady()) {
@@ -106,11 +286,20 @@ class Camera1 extends CameraViewImpl {
         }
         mShowingPreview = true;
         mCamera.startPreview();
-        return true;
     }
 
     @Override
     void stop() {
+        runOnCameraThreadAndWait(new Runnable() {
+            @Override
+            public void run() {
+                stopInternal();
+            }
+        });
+        stopCameraThread();
+    }
+
+    private void stopInternal() {
         if (mCamera != null) {
             mCamera.stopPreview();
         }
@@ -118,13 +307,87 @@ class Camera1 extends CameraViewImpl {
         releaseCamera();
     }
 
+    private void startCameraThread() {
+        if (mCameraThread == null) {
+            mCameraThread = new HandlerThread("CameraBackground");
+            mCameraThread.start();
+            mCameraHandler = new Handler(mCameraThread.getLooper());
+        }
+    }
+
+    /**
+     * Ends the camera thread. The camera must already be released on it.
+     */
+    private void stopCameraThread() {
+        if (mCameraThread != null) {
+            mCameraThread.quit();
+            mCameraThread = null;
+            mCameraHandler = null;
+        }
+    }
+
+    /**
+     * Runs a task on the camera thread after the ones posted before it. Without a camera thread,
+     * i.e. while the camera is stopped, the task runs right away.
+     */
+    private void runOnCameraThread(Runnable task) {
+        final Handler handler = mCameraHandler;
+        if (handler == null || handler.getLooper() == Looper.myLooper() || !handler.post(task)) {
+            task.run();
+        }
+    }
+
+    private void runOnCameraThreadAndWait(Runnable task) {
+        callOnCameraThread(Executors.callable(task));
+    }
+
+    /**
+     * Runs a task like {@link #runOnCameraThread(Runnable)} and waits for it.
+     *
+     * @return The result of the task.
+     */
+    private <T> T callOnCameraThread(Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<>(task);
+        runOnCameraThread(future);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the camera thread", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
     @Override
-    void setVideoSavePath(String path) {
-        mSaveVideoPath = path;
+    void setVideoSavePath(final String path) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                mSaveVideoPath = path;
+            }
+        });
     }
 
     @Override
     boolean startRecord() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                startRecordInternal();
+            }
+        });
+        return false;
+    }
+
+    private void startRecordInternal() {
         setCameraVideoParameter(mCamera);
         mCamera.unlock();
         initMediaRecorder();
@@ -134,22 +397,37 @@ class Camera1 extends CameraViewImpl {
             mIsRecordingVideo = true;
         } catch (IOException e) {
             Log.e(TAG, "start record error: " + e.getMessage());
-            if (mCallback != null) {
-                mCallback.onRecordError(e.getMessage());
-            }
+            dispatchRecordError(e.getMessage());
         }
-        return false;
     }
 
     @Override
     void stopRecord() {
-        if (mIsRecordingVideo && mMediaRecorder != null) {
-            mIsRecordingVideo = false;
-            mMediaRecorder.stop();
-            if (mCallback != null) {
-                mCallback.onRecordFinished(mSaveVideoPath);
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsRecordingVideo && mMediaRecorder != null) {
+                    mIsRecordingVideo = false;
+                    mMediaRecorder.stop();
+                    final String path = mSaveVideoPath;
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mCallback.onRecordFinished(path);
+                        }
+                    });
+                }
             }
-        }
+        });
+    }
+
+    private void dispatchRecordError(final String message) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onRecordError(message);
+            }
+        });
     }
 
     // Suppresses Camera#setPreviewTexture
@@ -179,48 +457,62 @@ class Camera1 extends CameraViewImpl {
     }
 
     @Override
-    void setFacing(int facing) {
-        if (mFacing == facing) {
-            return;
-        }
-        mFacing = facing;
-        if (isCameraOpened()) {
-            stop();
-            start();
-        }
+    void setFacing(final int facing) {
+        mRequestedFacing = facing;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mFacing == facing) {
+                    return;
+                }
+                mFacing = facing;
+                if (isCameraOpened()) {
+                    stopInternal();
+                    startInternal();
+                }
+            }
+        });
     }
 
     @Override
     int getFacing() {
-        return mFacing;
+        return mRequestedFacing;
     }
 
     @Override
     Set<AspectRatio> getSupportedAspectRatios() {
+        return mSupportedAspectRatios;
+    }
+
+    /**
+     * Drops the preview sizes of the aspect ratios that have no picture sizes, and publishes the
+     * remaining ratios to {@link #mSupportedAspectRatios}.
+     */
+    private void updateSupportedAspectRatios() {
         SizeMap idealAspectRatios = mPreviewSizes;
-        for (AspectRatio aspectRatio : idealAspectRatios.ratios()) {
+        for (AspectRatio aspectRatio : new ArrayList<>(idealAspectRatios.ratios())) {
             if (mPictureSizes.sizes(aspectRatio) == null) {
                 idealAspectRatios.remove(aspectRatio);
             }
         }
-        return idealAspectRatios.ratios();
+        mSupportedAspectRatios = Collections.unmodifiableSet(
+                new HashSet<>(idealAspectRatios.ratios()));
     }
 
     @Override
-    boolean setAspectRatio(AspectRatio ratio) {
+    boolean setAspectRatio(final AspectRatio ratio) {
+        // Checked against the published state, so that the caller does not wait for the camera
+        // thread; the preview picks the ratio up the next time it is configured
         if (mAspectRatio == null || !isCameraOpened()) {
             // Handle this later when camera is opened
             mAspectRatio = ratio;
             return true;
         } else if (!mAspectRatio.equals(ratio)) {
-            final Set<Size> sizes = mPreviewSizes.sizes(ratio);
-            if (sizes == null) {
+            if (!mSupportedAspectRatios.contains(ratio)) {
                 throw new UnsupportedOperationException(ratio + " is not supported");
-            } else {
-                mAspectRatio = ratio;
-//                adjustCameraParameters();
-                return true;
             }
+            mAspectRatio = ratio;
+            return true;
         }
         return false;
     }
@@ -231,74 +523,267 @@ class Camera1 extends CameraViewImpl {
     }
 
     @Override
-    void setAutoFocus(boolean autoFocus) {
-        if (mAutoFocus == autoFocus) {
-            return;
-        }
-        if (setAutoFocusInternal(autoFocus)) {
-            mCamera.setParameters(mCameraParameters);
-        }
+    void setAutoFocus(final boolean autoFocus) {
+        mRequestedAutoFocus = autoFocus;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mAutoFocus == autoFocus) {
+                    return;
+                }
+                if (setAutoFocusInternal(autoFocus)) {
+                    mCamera.setParameters(mCameraParameters);
+                }
+            }
+        });
     }
 
     @Override
     boolean getAutoFocus() {
-        if (!isCameraOpened()) {
-            return mAutoFocus;
-        }
-        String focusMode = mCameraParameters.getFocusMode();
-        return focusMode != null && focusMode.contains("continuous");
+        return mRequestedAutoFocus;
     }
 
     @Override
-    void setFlash(int flash) {
-        if (flash == mFlash) {
-            return;
-        }
-        if (setFlashInternal(flash)) {
-            mCamera.setParameters(mCameraParameters);
-        }
+    void setFlash(final int flash) {
+        mRequestedFlash = flash;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (flash == mFlash) {
+                    return;
+                }
+                if (setFlashInternal(flash)) {
+                    mCamera.setParameters(mCameraParameters);
+                }
+            }
+        });
     }
 
     @Override
     int getFlash() {
-        return mFlash;
+        return mRequestedFlash;
+    }
+
+    @Override
+    void setZeroShutterLag(int mode) {
+        // The preview callback only delivers preview-sized frames, so pictures are always taken
+        // with Camera#takePicture
     }
 
     @Override
-    void takePicture() {
-        if (!isCameraOpened()) {
+    int getZeroShutterLag() {
+        return Constants.ZSL_OFF;
+    }
+
+    @Override
+    void setPictureSizePolicy(final PictureSizePolicy policy) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mPictureSizePolicy.equals(policy)) {
+                    return;
+                }
+                mPictureSizePolicy = policy;
+                if (isCameraOpened()) {
+                    adjustCameraParameters();
+                }
+            }
+        });
+    }
+
+    @Override
+    void setThumbnailSize(final int maxSize) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mThumbnailSize == maxSize) {
+                    return;
+                }
+                mThumbnailSize = maxSize;
+                if (isCameraOpened() && setThumbnailSizeInternal()) {
+                    mCamera.setParameters(mCameraParameters);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} if {@link #mCameraParameters} was changed.
+     */
+    private boolean setThumbnailSizeInternal() {
+        if (mThumbnailSize == 0) {
+            return false;
+        }
+        final List<Size> sizes = new ArrayList<>();
+        for (Camera.Size size : mCameraParameters.getSupportedJpegThumbnailSizes()) {
+            sizes.add(new Size(size.width, size.height));
+        }
+        final Size size = JpegThumbnail.chooseSize(sizes, mAspectRatio, mThumbnailSize);
+        if (size == null) {
+            return false;
+        }
+        mCameraParameters.setJpegThumbnailSize(size.getWidth(), size.getHeight());
+        return true;
+    }
+
+    @Override
+    void takePicture(final PictureRequest request) {
+        if (mCameraHandler == null) {
             throw new IllegalStateException(
                     "Camera is not ready. Call start() before takePicture().");
         }
-        if (getAutoFocus()) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                takePictureOnCameraThread(request);
+            }
+        });
+    }
+
+    private void takePictureOnCameraThread(PictureRequest request) {
+        if (!isCameraOpened()) { // Failed to open, or closed before this was run
+            mCallback.onPictureFailed(request);
+            return;
+        }
+        if (!mPictureQueue.offer(request)) {
+            Log.w(TAG, "Too many pictures requested at once; dropping one.");
+            mCallback.onPictureFailed(request);
+            return;
+        }
+        if (mPictureRequest == null) {
+            takeNextRequest();
+        }
+    }
+
+    @Override
+    PictureStats getPictureStats() {
+        return mPictureQueue.getStats();
+    }
+
+    /**
+     * Starts taking the next queued request, focusing first unless the focus is still locked
+     * from the previous picture.
+     */
+    private void takeNextRequest() {
+        final PictureRequest request = mPictureQueue.poll();
+        if (request == null) {
+            return;
+        }
+        mPictureRequest = request;
+        if (getAutoFocus() && !(mFocusLocked
+                && SystemClock.uptimeMillis() - mFocusLockTime < FOCUS_REUSE_TIMEOUT)) {
             mCamera.cancelAutoFocus();
             mCamera.autoFocus(new Camera.AutoFocusCallback() {
                 @Override
                 public void onAutoFocus(boolean success, Camera camera) {
-                    takePictureInternal();
+                    request.mark(CaptureTiming.EVENT_FOCUS_LOCKED);
+                    mFocusLocked = true;
+                    mFocusLockTime = SystemClock.uptimeMillis();
+                    startPictureSequence();
                 }
             });
         } else {
-            takePictureInternal();
+            startPictureSequence();
         }
     }
 
-    void takePictureInternal() {
-        if (!isPictureCaptureInProgress.getAndSet(true)) {
-            mCamera.takePicture(null, null, null, new Camera.PictureCallback() {
-                @Override
-                public void onPictureTaken(byte[] data, Camera camera) {
-                    isPictureCaptureInProgress.set(false);
-                    mCallback.onPictureTaken(data);
+    private void startPictureSequence() {
+        final PictureRequest request = mPictureRequest;
+        if (request == null || mCamera == null) { // Released while focusing
+            return;
+        }
+        if (request.isBurst()) {
+            // Keep the exposure of the first picture for the whole burst
+            setAutoExposureLockInternal(true);
+        }
+        takePictureInternal();
+    }
+
+    private void takePictureInternal() {
+        mLastPictureTime = SystemClock.uptimeMillis();
+        mCamera.takePicture(null, mRawCallback, null, mJpegCallback);
+    }
+
+    /**
+     * Only marks the end of the exposure; the raw data is not requested, so it is always
+     * {@code null}.
+     */
+    private final Camera.PictureCallback mRawCallback = new Camera.PictureCallback() {
+        @Override
+        public void onPictureTaken(byte[] data, Camera camera) {
+            final PictureRequest request = mPictureRequest;
+            if (request != null) {
+                request.mark(CaptureTiming.EVENT_CAPTURE_COMPLETED);
+            }
+        }
+    };
+
+    private final Camera.PictureCallback mJpegCallback = new Camera.PictureCallback() {
+        @Override
+        public void onPictureTaken(byte[] data, Camera camera) {
+            final PictureRequest request = mPictureRequest;
+            if (request != null) {
+                request.mark(CaptureTiming.EVENT_IMAGE_AVAILABLE);
+            }
+            final boolean last = request == null || request.onPictureDone(true);
+            if (last) {
+                mPictureRequest = null;
+                if (request != null) {
+                    mPictureQueue.onDone(request);
+                }
+            }
+            mCallback.onPictureTaken(new PictureBuffer.ByteArray(data),
+                    request != null ? request : new PictureRequest());
+            if (last) {
+                if (request != null && request.isBurst()) {
+                    setAutoExposureLockInternal(false);
+                }
+                // Keep the focus for the next request if there is one right behind
+                if (mPictureQueue.isEmpty()) {
                     camera.cancelAutoFocus();
-                    camera.startPreview();
+                    mFocusLocked = false;
                 }
-            });
+            }
+            // Camera#takePicture stops the preview, and the next picture needs it
+            camera.startPreview();
+            if (!last) {
+                // The next picture of the burst; the focus and the exposure are still locked
+                final long delay = mLastPictureTime + request.mBurstInterval
+                        - SystemClock.uptimeMillis();
+                mCameraHandler.postDelayed(mTakeNextPicture, Math.max(0, delay));
+            } else if (mCamera != null) {
+                takeNextRequest();
+            }
+        }
+    };
+
+    private final Runnable mTakeNextPicture = new Runnable() {
+        @Override
+        public void run() {
+            if (mPictureRequest != null && mCamera != null) {
+                takePictureInternal();
+            }
+        }
+    };
+
+    private void setAutoExposureLockInternal(boolean lock) {
+        if (mCameraParameters.isAutoExposureLockSupported()) {
+            mCameraParameters.setAutoExposureLock(lock);
+            mCamera.setParameters(mCameraParameters);
         }
     }
 
     @Override
-    void setDisplayOrientation(int displayOrientation) {
+    void setDisplayOrientation(final int displayOrientation) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                setDisplayOrientationInternal(displayOrientation);
+            }
+        });
+    }
+
+    private void setDisplayOrientationInternal(int displayOrientation) {
         if (mDisplayOrientation == displayOrientation) {
             return;
         }
@@ -317,10 +802,30 @@ class Camera1 extends CameraViewImpl {
         }
     }
 
+    @Override
+    void updateFrameStream() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    setUpPreviewCallback();
+                }
+            }
+        });
+    }
+
     /**
      * This rewrites {@link #mCameraId} and {@link #mCameraInfo}.
      */
     private void chooseCamera() {
+        mSnapshotCamera = mCapabilitySnapshot == null ? null
+                : mCapabilitySnapshot.find(CapabilitySnapshot.API_CAMERA1, mFacing);
+        if (mSnapshotCamera != null) {
+            mCameraId = Integer.parseInt(mSnapshotCamera.mId);
+            mCameraInfo.facing = mSnapshotCamera.mFacing;
+            mCameraInfo.orientation = mSnapshotCamera.mOrientation;
+            return;
+        }
         for (int i = 0, count = Camera.getNumberOfCameras(); i < count; i++) {
             Camera.getCameraInfo(i, mCameraInfo);
             if (mCameraInfo.facing == mFacing) {
@@ -337,23 +842,91 @@ class Camera1 extends CameraViewImpl {
         }
         mCamera = Camera.open(mCameraId);
         mCameraParameters = mCamera.getParameters();
-        // Supported preview sizes
-        mPreviewSizes.clear();
-        for (Camera.Size size : mCameraParameters.getSupportedPreviewSizes()) {
-            mPreviewSizes.add(new Size(size.width, size.height));
-        }
-        // Supported picture sizes;
-        mPictureSizes.clear();
-        for (Camera.Size size : mCameraParameters.getSupportedPictureSizes()) {
-            mPictureSizes.add(new Size(size.width, size.height));
+        if (mSnapshotCamera != null) {
+            // Listing the sizes takes long; they are checked once the preview is running
+            CapabilitySnapshot.fill(mPreviewSizes, mSnapshotCamera.mPreviewSizes);
+            CapabilitySnapshot.fill(mPictureSizes, mSnapshotCamera.mPictureSizes);
+            mCameraHandler.post(mRevalidateCapabilities);
+        } else {
+            collectSizes(mPreviewSizes, mPictureSizes);
+            recordCapabilities();
         }
+        updateSupportedAspectRatios();
         // AspectRatio
         if (mAspectRatio == null) {
             mAspectRatio = Constants.DEFAULT_ASPECT_RATIO;
         }
         adjustCameraParameters();
         mCamera.setDisplayOrientation(calcDisplayOrientation(mDisplayOrientation));
-        mCallback.onCameraOpened();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onCameraOpened();
+            }
+        });
+    }
+
+    private void collectSizes(SizeMap previewSizes, SizeMap pictureSizes) {
+        // Supported preview sizes
+        previewSizes.clear();
+        for (Camera.Size size : mCameraParameters.getSupportedPreviewSizes()) {
+            previewSizes.add(new Size(size.width, size.height));
+        }
+        // Supported picture sizes;
+        pictureSizes.clear();
+        for (Camera.Size size : mCameraParameters.getSupportedPictureSizes()) {
+            pictureSizes.add(new Size(size.width, size.height));
+        }
+    }
+
+    /**
+     * Records the current camera in {@link #mCapabilitySnapshot}.
+     */
+    private void recordCapabilities() {
+        if (mCapabilitySnapshot == null) {
+            return;
+        }
+        mCapabilitySnapshot.put(newSnapshotCamera(mPreviewSizes, mPictureSizes));
+        mCapabilitySnapshot.saveInBackground();
+    }
+
+    private CapabilitySnapshot.Camera newSnapshotCamera(SizeMap previewSizes,
+            SizeMap pictureSizes) {
+        return new CapabilitySnapshot.Camera(CapabilitySnapshot.API_CAMERA1,
+                String.valueOf(mCameraId), mCameraInfo.facing, mCameraInfo.orientation, false,
+                CapabilitySnapshot.flatten(previewSizes),
+                CapabilitySnapshot.flatten(pictureSizes), new Size[0]);
+    }
+
+    /**
+     * Checks the snapshot entry the camera was configured from against the camera. If it was
+     * wrong, the snapshot is corrected and the camera is restarted with the real capabilities.
+     */
+    private void revalidateCapabilities() {
+        final CapabilitySnapshot.Camera cached = mSnapshotCamera;
+        if (cached == null || mCamera == null) {
+            return;
+        }
+        mSnapshotCamera = null;
+        final SizeMap previewSizes = new SizeMap();
+        final SizeMap pictureSizes = new SizeMap();
+        collectSizes(previewSizes, pictureSizes);
+        Camera.getCameraInfo(mCameraId, mCameraInfo);
+        final CapabilitySnapshot.Camera actual = newSnapshotCamera(previewSizes, pictureSizes);
+        if (actual.equals(cached)) {
+            return;
+        }
+        Log.w(TAG, "The cached capabilities of camera " + mCameraId + " were wrong.");
+        if (actual.mFacing == mFacing) {
+            mCapabilitySnapshot.put(actual);
+        } else {
+            mCapabilitySnapshot.remove(CapabilitySnapshot.API_CAMERA1, actual.mId);
+        }
+        mCapabilitySnapshot.saveInBackground();
+        if (mShowingPreview) {
+            stopInternal();
+            startInternal();
+        }
     }
 
     private AspectRatio chooseAspectRatio() {
@@ -376,22 +949,65 @@ class Camera1 extends CameraViewImpl {
         Size size = chooseOptimalSize(sizes);
 
         // Always re-apply camera parameters
-        // Largest picture size in this ratio
-        final Size pictureSize = mPictureSizes.sizes(mAspectRatio).last();
+        // The JPEG data of one picture at a time is delivered in an array
+        final Size pictureSize = mPictureSizePolicy.choose(mPictureSizes.sizes(mAspectRatio), 1);
         if (mShowingPreview) {
             mCamera.stopPreview();
         }
         mCameraParameters.setPreviewSize(size.getWidth(), size.getHeight());
         mCameraParameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+        setThumbnailSizeInternal();
         mCameraParameters.setRotation(calcCameraRotation(mDisplayOrientation));
         setAutoFocusInternal(mAutoFocus);
         setFlashInternal(mFlash);
         mCamera.setParameters(mCameraParameters);
+        setUpPreviewCallback();
         if (mShowingPreview) {
             mCamera.startPreview();
         }
     }
 
+    /**
+     * <p>Installs or removes the preview callback depending on {@link #isFrameStreamEnabled()}.</p>
+     * <p>The callback buffers are only reallocated when the preview size changes; after that,
+     * each buffer is handed back to the camera once the frame processors are done with it.</p>
+     */
+    private void setUpPreviewCallback() {
+        if (!isFrameStreamEnabled()) {
+            if (mPreviewFrames != null) {
+                mPreviewFrames = null;
+                mCamera.setPreviewCallbackWithBuffer(null);
+            }
+            return;
+        }
+        final Camera.Size size = mCameraParameters.getPreviewSize();
+        if (mPreviewFrames != null && mPreviewFrames[0].getWidth() == size.width
+                && mPreviewFrames[0].getHeight() == size.height) {
+            return;
+        }
+        mPreviewFrames = new Nv21Frame[PREVIEW_BUFFER_COUNT];
+        for (int i = 0; i < PREVIEW_BUFFER_COUNT; i++) {
+            mPreviewFrames[i] = new Nv21Frame(size.width, size.height, mFrameRecycler);
+        }
+        // This drops the buffers queued for the previous size
+        mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+        for (Nv21Frame frame : mPreviewFrames) {
+            mCamera.addCallbackBuffer(frame.getData());
+        }
+    }
+
+    private Nv21Frame findPreviewFrame(byte[] data) {
+        final Nv21Frame[] frames = mPreviewFrames;
+        if (frames != null) {
+            for (Nv21Frame frame : frames) {
+                if (frame.getData() == data) {
+                    return frame;
+                }
+            }
+        }
+        return null;
+    }
+
     @SuppressWarnings("SuspiciousNameCombination")
     private Size chooseOptimalSize(SortedSet<Size> sizes) {
         if (!mPreview.isReady()) { // Not yet laid out
@@ -421,9 +1037,30 @@ class Camera1 extends CameraViewImpl {
 
     private void releaseCamera() {
         if (mCamera != null) {
+            mPreviewFrames = null;
+            if (mFrameDispatcher != null) {
+                mFrameDispatcher.flush();
+            }
             mCamera.release();
             mCamera = null;
-            mCallback.onCameraClosed();
+            mCameraHandler.removeCallbacks(mTakeNextPicture);
+            mCameraHandler.removeCallbacks(mRevalidateCapabilities);
+            mFocusLocked = false;
+            if (mPictureRequest != null) { // The camera will never call back
+                final PictureRequest request = mPictureRequest;
+                mPictureRequest = null;
+                mPictureQueue.onDone(request);
+                mCallback.onPictureFailed(request);
+            }
+            for (PictureRequest request : mPictureQueue.clear()) {
+                mCallback.onPictureFailed(request);
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onCameraClosed();
+                }
+            });
         }
     }
 
@@ -466,6 +1103,23 @@ class Camera1 extends CameraViewImpl {
         }
     }
 
+    /**
+     * Calculate preview frame rotation
+     *
+     * Preview frames are delivered in the sensor orientation and are not mirrored, whatever the
+     * display orientation.
+     *
+     * @param screenOrientationDegrees Screen orientation in degrees
+     * @return Number of degrees to rotate a preview frame clockwise for it to view correctly.
+     */
+    private int calcFrameRotation(int screenOrientationDegrees) {
+        if (mCameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            return (mCameraInfo.orientation + screenOrientationDegrees) % 360;
+        } else {  // back-facing
+            return (mCameraInfo.orientation - screenOrientationDegrees + 360) % 360;
+        }
+    }
+
     /**
      * Test if the supplied orientation is in landscape.
      *
@@ -657,9 +1311,7 @@ class Camera1 extends CameraViewImpl {
             } catch (Exception e) {
                 Log.e(TAG, e.getMessage());
             } finally {
-                if (mCallback != null) {
-                    mCallback.onRecordError("media record error: " + what);
-                }
+                dispatchRecordError("media record error: " + what);
             }
         }
     };
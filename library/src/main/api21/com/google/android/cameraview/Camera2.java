@@ -19,16 +19,18 @@ package com.google.android.cameraview;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
+import android.graphics.YuvImage;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
-import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.CamcorderProfile;
 import android.media.Image;
 import android.media.ImageReader;
@@ -36,22 +38,26 @@ import android.media.MediaRecorder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseIntArray;
 import android.view.Surface;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import extension.record.RecorderStatus;
 
@@ -80,8 +86,47 @@ class Camera2 extends CameraViewImpl {
      */
     private static final int MAX_PREVIEW_HEIGHT = 1080;
 
+    /**
+     * Number of preview frames that can be held by the frame processors at the same time
+     */
+    private static final int FRAME_READER_MAX_IMAGES = 3;
+
+    /** The default number of JPEG images that can be held at once. */
+    static final int PICTURE_READER_DEPTH = 2;
+
+    /** The maximum number of JPEG images held at once during a burst. */
+    private static final int MAX_BURST_DEPTH = 8;
+
+    /** The number of recent full-resolution frames kept for zero shutter lag. */
+    private static final int ZSL_RING_SIZE = 4;
+
+    /**
+     * How long to wait for a frame newer than the shutter press before making the picture of
+     * the frames at hand, in milliseconds.
+     */
+    private static final long ZSL_WAIT_TIMEOUT = 200;
+
+    private static final int ZSL_JPEG_QUALITY = 95;
+
+    /**
+     * The default longest time from the shutter until a picture is delivered, in milliseconds.
+     * The request fails after that, whatever state the camera is in.
+     */
+    private static final long DEFAULT_PICTURE_TIMEOUT = 4000;
+
+    /** The additional time allowed for each further picture of a burst, in milliseconds. */
+    private static final long BURST_PICTURE_TIMEOUT = 1000;
+
+    /**
+     * How many still captures in a row have to fail alongside the preview before the preview is
+     * stopped for all the captures; a single failure can be a glitch.
+     */
+    private static final int PAUSE_PREVIEW_AFTER_FAILURES = 3;
+
     private final CameraManager mCameraManager;
 
+    private final CameraCapabilityCache mCapabilityCache;
+
     private final CameraDevice.StateCallback mCameraDeviceCallback
             = new CameraDevice.StateCallback() {
 
@@ -122,21 +167,45 @@ class Camera2 extends CameraViewImpl {
                 return;
             }
             mCaptureSession = session;
+            mPreviewPaused = false;
+            mPreviewStallMeter.reset();
             updateAutoFocus();
             updateFlash();
+            mRepeatingCallback = mPreviewCaptureCallback;
             try {
-                mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                        mCaptureCallback, null);
+                setRepeatingRequest();
             } catch (CameraAccessException e) {
                 Log.e(TAG, "Failed to start camera preview because it couldn't access camera", e);
             } catch (IllegalStateException e) {
                 Log.e(TAG, "Failed to start camera preview.", e);
             }
+            if (mStartPictureOnConfigured) {
+                mStartPictureOnConfigured = false;
+                startPictureSequence();
+            }
         }
 
         @Override
         public void onConfigureFailed(@NonNull CameraCaptureSession session) {
             Log.e(TAG, "Failed to configure capture session.");
+            if (mStartPictureOnConfigured) {
+                mStartPictureOnConfigured = false;
+                failPictureRequest();
+            }
+            if (mFrameReader != null) {
+                // The frames are given up first, then zero shutter lag
+                Log.w(TAG, "Preview frames are not supported with this configuration.");
+                mFrameStreamUnsupported = true;
+                closeFrameReader();
+                mCallback.onFrameStreamFailed();
+                startPreviewSession();
+            } else if (isZeroShutterLagActive()) {
+                // The camera cannot stream full-resolution frames along with the other outputs
+                Log.w(TAG, "Zero shutter lag is not supported with this configuration.");
+                mZslUnsupported = true;
+                failPictureRequest();
+                startPreviewSession();
+            }
         }
 
         @Override
@@ -148,6 +217,25 @@ class Camera2 extends CameraViewImpl {
 
     };
 
+    /**
+     * The callback of the repeating preview request while no picture is being taken. It only
+     * feeds the preview metrics, so it costs little on every frame.
+     */
+    private final CameraCaptureSession.CaptureCallback mPreviewCaptureCallback
+            = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            onPreviewCaptureCompleted(result);
+        }
+
+    };
+
+    /**
+     * Runs the auto-focus and auto-exposure state machine of a picture. It is only attached to
+     * the repeating request from {@link #lockFocus()} until {@link #unlockFocus()}.
+     */
     PictureCaptureCallback mCaptureCallback = new PictureCaptureCallback() {
 
         @Override
@@ -164,35 +252,303 @@ class Camera2 extends CameraViewImpl {
             }
         }
 
+        @Override
+        public void onFocusLocked() {
+            final PictureRequest request = mPictureRequest;
+            if (request != null) {
+                request.mark(CaptureTiming.EVENT_FOCUS_LOCKED);
+            }
+        }
+
         @Override
         public void onReady() {
+            final PictureRequest request = mPictureRequest;
+            if (request != null) {
+                request.mark(CaptureTiming.EVENT_PRECAPTURE_DONE);
+            }
             captureStillPicture();
         }
 
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            super.onCaptureCompleted(session, request, result);
+            onPreviewCaptureCompleted(result);
+        }
+
     };
 
+    /** The callback of the current repeating request. */
+    private CameraCaptureSession.CaptureCallback mRepeatingCallback = mPreviewCaptureCallback;
+
+    private final CaptureResultHistory mCaptureResultHistory = new CaptureResultHistory();
+
+    private final PreviewStallMeter mPreviewStallMeter = new PreviewStallMeter();
+
+    /**
+     * Records the metrics of a preview frame. This is called on the background thread.
+     */
+    private void onPreviewCaptureCompleted(TotalCaptureResult result) {
+        final Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (timestamp == null) {
+            return;
+        }
+        mPreviewStallMeter.onPreviewFrame(timestamp);
+        if (isFrameStreamEnabled()) {
+            final Long exposureTime = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+            if (exposureTime != null) {
+                mCaptureResultHistory.record(timestamp, exposureTime);
+            }
+        }
+    }
+
+    /**
+     * Whether the repeating preview request has to be stopped for still captures. This is only
+     * set once {@link #PAUSE_PREVIEW_AFTER_FAILURES} still captures in a row issued alongside
+     * the preview fail on the current camera.
+     */
+    private boolean mPausePreviewForCapture;
+
+    /** The still captures in a row that failed alongside the preview. */
+    private int mConcurrentCaptureFailures;
+
+    /** Whether to stop the preview for the next still capture only, to retry a failed one. */
+    private boolean mPausePreviewForRetry;
+
+    /** Whether the repeating request was stopped for the picture being taken. */
+    private boolean mPreviewPaused;
+
+    /** The request of the picture being taken, if any. */
+    private volatile PictureRequest mPictureRequest;
+
+    /** The longest time from the shutter until a picture is delivered, or 0 for no limit. */
+    private volatile long mPictureTimeout = DEFAULT_PICTURE_TIMEOUT;
+
+    /** The number of JPEG images the camera can hand over before they are closed. */
+    private int mImageReaderDepth = PICTURE_READER_DEPTH;
+
+    /**
+     * The pictures of {@link #mImageReader} that were handed over and are not closed yet. The
+     * reader is not replaced with a shallower one while any of them is held.
+     */
+    private final AtomicInteger mPicturesHeld = new AtomicInteger();
+
+    /** Whether to start taking {@link #mPictureRequest} once the session is reconfigured. */
+    private boolean mStartPictureOnConfigured;
+
+    /** The capture request repeated for each picture of a burst. */
+    private CaptureRequest mBurstRequest;
+
+    private long mBurstInterval;
+
+    private int mBurstPicturesLeft;
+
+    private long mLastBurstPictureTime;
+
     private final ImageReader.OnImageAvailableListener mOnImageAvailableListener
             = new ImageReader.OnImageAvailableListener() {
 
         @Override
         public void onImageAvailable(ImageReader reader) {
-            try (Image image = reader.acquireNextImage()) {
-                Image.Plane[] planes = image.getPlanes();
-                if (planes.length > 0) {
-                    ByteBuffer buffer = planes[0].getBuffer();
-                    byte[] data = new byte[buffer.remaining()];
-                    buffer.get(data);
-                    mCallback.onPictureTaken(data);
+            final Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Earlier pictures are still held; close their PictureBuffer.", e);
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+            final PictureRequest request = mPictureRequest;
+            if (request == null) {
+                // The request was given up on, or the camera is closing
+                Log.w(TAG, "Dropping a picture that arrived too late.");
+                image.close();
+                return;
+            }
+            if (image.getPlanes().length > 0) {
+                request.mark(CaptureTiming.EVENT_IMAGE_AVAILABLE);
+                if (request.onPictureDone(true)) {
+                    mPictureRequest = null;
+                    if (mCaptureCallback.mTimer.finish(System.nanoTime()) >= 0
+                            && Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Picture taken: " + mCaptureCallback.mTimer);
+                    }
+                }
+                // The JPEG stays in the Image until the callbacks are done with it
+                mPicturesHeld.incrementAndGet();
+                mCallback.onPictureTaken(new ImagePictureBuffer(image, mOnPictureClosed),
+                        request);
+            } else {
+                image.close();
+                onPictureLost(request);
+            }
+        }
+
+    };
+
+    private final Runnable mOnPictureClosed = new Runnable() {
+        @Override
+        public void run() {
+            if (mPicturesHeld.decrementAndGet() == 0) {
+                final Handler handler = mBackgroundHandler;
+                if (handler != null) {
+                    handler.post(mRestoreImageReaderDepth);
                 }
             }
         }
+    };
+
+    private final Runnable mRestoreImageReaderDepth = new Runnable() {
+        @Override
+        public void run() {
+            restoreImageReaderDepth();
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener mOnZslImageAvailableListener
+            = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            final Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // A picture is still being encoded and the ring is full; skip this frame
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+            mZslRing.add(image, System.nanoTime());
+            if (mZslWaiting) {
+                serveZeroShutterLagPicture();
+            }
+        }
 
     };
 
+    /**
+     * Hands the images of a frame reader to the frame processors, counting them in the
+     * {@link DeferredCloser} of that reader.
+     */
+    private class FrameAvailableListener implements ImageReader.OnImageAvailableListener {
+
+        private final DeferredCloser mReaderCloser;
+
+        FrameAvailableListener(DeferredCloser readerCloser) {
+            mReaderCloser = readerCloser;
+        }
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            if (!mReaderCloser.acquire()) {
+                // The reader is being closed and waits for the frames still out
+                return;
+            }
+            final Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // All the images are still held by the frame processors; the camera drops frames
+                mReaderCloser.release();
+                mFrameDispatcher.onFrameDropped();
+                return;
+            }
+            if (image == null) {
+                mReaderCloser.release();
+                return;
+            }
+            ImageFrame frame;
+            synchronized (mFramePool) {
+                frame = mFramePool.poll();
+            }
+            if (frame == null || !isFrameStreamEnabled()) {
+                image.close();
+                mReaderCloser.release();
+                if (frame != null) {
+                    mFrameRecycler.recycle(frame);
+                } else {
+                    mFrameDispatcher.onFrameDropped();
+                }
+                return;
+            }
+            frame.setImage(image, mReaderCloser);
+            frame.getMetadata().setFacing(mFacing);
+            frame.getMetadata().setExposureTime(
+                    mCaptureResultHistory.findExposureTime(image.getTimestamp()));
+            frame.setRotation((mSensorOrientation +
+                    mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) +
+                    360) % 360);
+            mFrameDispatcher.dispatch(frame);
+        }
+
+    }
+
+    private final ImageFrame.Recycler mFrameRecycler = new ImageFrame.Recycler() {
+
+        @Override
+        public void recycle(ImageFrame frame) {
+            synchronized (mFramePool) {
+                mFramePool.offer(frame);
+            }
+        }
+
+    };
+
+    private final ArrayDeque<ImageFrame> mFramePool = new ArrayDeque<>();
+
+    private int mZslMode = Constants.ZSL_OFF;
+
+    /** Whether the current camera failed to configure a session with {@link #mZslReader}. */
+    private boolean mZslUnsupported;
+
+    /**
+     * Whether a session with the frame reader failed to configure, so that preview frames are
+     * not streamed until the camera is started again.
+     */
+    private boolean mFrameStreamUnsupported;
+
+    private final ZslRingBuffer mZslRing = new ZslRingBuffer(ZSL_RING_SIZE);
+
+    /** Whether {@link #mPictureRequest} waits for a frame newer than the shutter press. */
+    private boolean mZslWaiting;
+
+    /** Wraps the image being encoded; only used on {@link #mZslHandler}. */
+    private final ImageFrame mZslFrame = new ImageFrame(new ImageFrame.Recycler() {
+        @Override
+        public void recycle(ImageFrame frame) {
+        }
+    });
+
+    /** The NV21 copy of the frame being encoded; only used on {@link #mZslHandler}. */
+    private byte[] mZslNv21;
+
+    /** Receives the JPEG being encoded; only used on {@link #mZslHandler}. */
+    private final JpegOutputStream mZslJpeg = new JpegOutputStream();
 
     private String mCameraId;
 
-    private CameraCharacteristics mCameraCharacteristics;
+    /**
+     * The cached capabilities of {@link #mCameraId}, or {@code null} until they are needed if the
+     * camera was configured from {@link #mCapabilitySnapshot}; see {@link #getCapabilities()}.
+     */
+    private volatile CameraCapabilityCache.Capabilities mCapabilities;
+
+    /**
+     * The snapshot entry the current camera was configured from, until it is checked against
+     * the camera; {@code null} if the camera was queried.
+     */
+    private volatile CapabilitySnapshot.Camera mSnapshotCamera;
+
+    private final Runnable mRevalidateCapabilities = new Runnable() {
+        @Override
+        public void run() {
+            revalidateCapabilities();
+        }
+    };
 
     CameraDevice mCameraDevice;
 
@@ -202,6 +558,24 @@ class Camera2 extends CameraViewImpl {
 
     private ImageReader mImageReader;
 
+    /**
+     * The {@code YUV_420_888} reader for the frame processors, or {@code null} when preview
+     * frames are not requested.
+     */
+    private ImageReader mFrameReader;
+
+    /**
+     * Closes {@link #mFrameReader} once the frames the processors still hold are released, as
+     * they wrap its images without copying.
+     */
+    private DeferredCloser mFrameReaderCloser;
+
+    /**
+     * The full-resolution {@code YUV_420_888} reader feeding {@link #mZslRing}, or {@code null}
+     * when zero shutter lag is off.
+     */
+    private ImageReader mZslReader;
+
     private final SizeMap mPreviewSizes = new SizeMap();
 
     private final SizeMap mPictureSizes = new SizeMap();
@@ -213,6 +587,11 @@ class Camera2 extends CameraViewImpl {
 
     private int mFlash;
 
+    /** The desired length of the longer side of the embedded thumbnails, or 0. */
+    private volatile int mThumbnailSize;
+
+    private PictureSizePolicy mPictureSizePolicy = PictureSizePolicy.LARGEST;
+
     private int mDisplayOrientation;
 
     private MediaRecorder mMediaRecorder;
@@ -227,10 +606,22 @@ class Camera2 extends CameraViewImpl {
     private HandlerThread mBackgroundThread;
     private Handler mBackgroundHandler;
 
+    /**
+     * Receives preview frames, so that a blocking frame delivery policy does not hold up
+     * {@link #mBackgroundHandler}.
+     */
+    private HandlerThread mFrameThread;
+    private Handler mFrameHandler;
+
+    /** Encodes zero shutter lag pictures, so that the ring keeps filling meanwhile. */
+    private HandlerThread mZslThread;
+    private Handler mZslHandler;
+
     Camera2(Callback callback, PreviewImpl preview, Context context) {
         super(callback, preview);
         mSaveVideoPath = new File(context.getExternalFilesDir("video_cache"), "temp" + VIDEO_EXTENSION).getAbsolutePath();
         mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCapabilityCache = CameraCapabilityCache.get(context);
         mPreview.setCallback(new PreviewImpl.Callback() {
             @Override
             public void onSurfaceChanged() {
@@ -244,10 +635,26 @@ class Camera2 extends CameraViewImpl {
         if (!chooseCameraIdByFacing()) {
             return false;
         }
-        startBackgroundThread();
+        final Camera2Prewarm prewarm = Camera2Prewarm.take(mCameraId);
+        if (prewarm != null) {
+            adoptBackgroundThread(prewarm);
+        } else {
+            startBackgroundThread();
+        }
+        mZslUnsupported = false;
+        mFrameStreamUnsupported = false;
+        mPausePreviewForCapture = false;
+        mConcurrentCaptureFailures = 0;
+        mPausePreviewForRetry = false;
+        mImageReaderDepth = PICTURE_READER_DEPTH;
         collectCameraInfo();
         prepareImageReader();
-        startOpeningCamera();
+        if (prewarm == null || !prewarm.adopt(mCameraDeviceCallback)) {
+            startOpeningCamera();
+        }
+        if (mSnapshotCamera != null) {
+            mBackgroundHandler.post(mRevalidateCapabilities);
+        }
         return true;
     }
 
@@ -265,6 +672,10 @@ class Camera2 extends CameraViewImpl {
             mImageReader.close();
             mImageReader = null;
         }
+        closeFrameReader();
+        closeZslReader();
+        mStartPictureOnConfigured = false;
+        failPictureRequest();
         if (mMediaRecorder != null) {
             mMediaRecorder.release();
             mMediaRecorder = null;
@@ -283,13 +694,15 @@ class Camera2 extends CameraViewImpl {
 
     @Override
     boolean startRecord() {
-        if (!videoPreviewMode) {
+        final boolean streamingFrames = mFrameReader != null;
+        mIsRecordingVideo = true;
+        if (!videoPreviewMode || streamingFrames) {
+            // The session of the frames has no MediaRecorder output
             startVideoPreviewSession();
         }
         if (mMediaRecorder != null) {
             mMediaRecorder.start();
         }
-        mIsRecordingVideo = true;
         return false;
     }
 
@@ -301,6 +714,10 @@ class Camera2 extends CameraViewImpl {
             if (mCallback != null) {
                 mCallback.onRecordFinished(mSaveVideoPath);
             }
+            if (isFrameStreamEnabled() && !mFrameStreamUnsupported) {
+                // Resumes the frames that were paused for the recording
+                startPreviewSession();
+            }
         }
     }
 
@@ -363,8 +780,7 @@ class Camera2 extends CameraViewImpl {
             updateAutoFocus();
             if (mCaptureSession != null) {
                 try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
+                    setRepeatingRequest();
                 } catch (CameraAccessException e) {
                     mAutoFocus = !mAutoFocus; // Revert
                 }
@@ -388,8 +804,7 @@ class Camera2 extends CameraViewImpl {
             updateFlash();
             if (mCaptureSession != null) {
                 try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
+                    setRepeatingRequest();
                 } catch (CameraAccessException e) {
                     mFlash = saved; // Revert
                 }
@@ -403,7 +818,164 @@ class Camera2 extends CameraViewImpl {
     }
 
     @Override
-    void takePicture() {
+    void setZeroShutterLag(int mode) {
+        if (mZslMode == mode) {
+            return;
+        }
+        mZslMode = mode;
+        // The ring needs its own output in the session
+        if (isCameraOpened() && !mIsRecordingVideo) {
+            startPreviewSession();
+        }
+    }
+
+    @Override
+    int getZeroShutterLag() {
+        return mZslMode;
+    }
+
+    @Override
+    void setPictureSizePolicy(PictureSizePolicy policy) {
+        if (mPictureSizePolicy.equals(policy)) {
+            return;
+        }
+        mPictureSizePolicy = policy;
+        if (isCameraOpened() && !mIsRecordingVideo) {
+            prepareImageReader();
+            startPreviewSession();
+        }
+    }
+
+    @Override
+    void setThumbnailSize(int maxSize) {
+        // Applied to the next still capture request
+        mThumbnailSize = maxSize;
+    }
+
+    /**
+     * @return The size of the thumbnail for the camera to embed in the JPEG data, or
+     * {@code null} to leave it at the default.
+     */
+    private android.util.Size chooseJpegThumbnailSize() {
+        final int maxSize = mThumbnailSize;
+        if (maxSize == 0) {
+            return null;
+        }
+        final android.util.Size[] available = getCapabilities().getCharacteristics().get(
+                CameraCharacteristics.JPEG_AVAILABLE_THUMBNAIL_SIZES);
+        if (available == null) {
+            return null;
+        }
+        final List<Size> sizes = new ArrayList<>();
+        for (android.util.Size size : available) {
+            sizes.add(new Size(size.getWidth(), size.getHeight()));
+        }
+        final Size size = JpegThumbnail.chooseSize(sizes, mAspectRatio, maxSize);
+        return size == null ? null : new android.util.Size(size.getWidth(), size.getHeight());
+    }
+
+    private boolean isZeroShutterLagActive() {
+        return mZslMode != Constants.ZSL_OFF && !mZslUnsupported;
+    }
+
+    @Override
+    void takePicture(final PictureRequest request) {
+        if (mPictureRequest != null) { // Still taking the previous one
+            mCallback.onPictureFailed(request);
+            return;
+        }
+        if (mZslReader != null) {
+            if (request.isBurst()) {
+                Log.e(TAG, "Bursts cannot be taken with zero shutter lag.");
+                mCallback.onPictureFailed(request);
+                return;
+            }
+            mPictureRequest = request;
+            postPictureDeadline(request, false);
+            mBackgroundHandler.post(mStartZeroShutterLagPicture);
+            return;
+        }
+        mPictureRequest = request;
+        mCaptureCallback.mTimer.start(request.mRequestTime);
+        postPictureDeadline(request, true);
+        if (request.isBurst() && !mIsRecordingVideo) {
+            final int depth = Math.min(request.mBurstCount, MAX_BURST_DEPTH);
+            if (mImageReader.getMaxImages() < depth) {
+                // Let the camera run ahead of the callbacks for the whole burst; this needs a
+                // new session with the deeper reader
+                mImageReaderDepth = depth;
+                prepareImageReader();
+                mStartPictureOnConfigured = true;
+                startPreviewSession();
+                return;
+            }
+        }
+        startPictureSequence();
+    }
+
+    /**
+     * Fails the request if it is still being taken after {@link #mPictureTimeout}, extended for
+     * each further picture of a burst.
+     *
+     * @param unlockFocus Whether the focus was locked for the request and has to be unlocked.
+     */
+    private void postPictureDeadline(final PictureRequest request, final boolean unlockFocus) {
+        final long timeout = mPictureTimeout;
+        if (timeout == 0) {
+            return;
+        }
+        mBackgroundHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (mPictureRequest == request) {
+                    Log.e(TAG, "The picture was not taken in time: " + mCaptureCallback.mTimer);
+                    failPictureRequest();
+                    if (unlockFocus && mCaptureSession != null) {
+                        unlockFocus();
+                    }
+                }
+            }
+        }, timeout
+                + (request.mBurstCount - 1) * (request.mBurstInterval + BURST_PICTURE_TIMEOUT));
+    }
+
+    @Override
+    long getLastPreviewStall() {
+        return mPreviewStallMeter.getLastStall();
+    }
+
+    @Override
+    void setCaptureTimeout(int phase, long timeout) {
+        if (phase == Constants.CAPTURE_PHASE_PICTURE) {
+            mPictureTimeout = timeout;
+        } else {
+            mCaptureCallback.mTimer.setTimeout(toTimerPhase(phase), timeout);
+        }
+    }
+
+    @Override
+    long getCaptureTimeout(int phase) {
+        if (phase == Constants.CAPTURE_PHASE_PICTURE) {
+            return mPictureTimeout;
+        }
+        return mCaptureCallback.mTimer.getTimeout(toTimerPhase(phase));
+    }
+
+    private static int toTimerPhase(int phase) {
+        switch (phase) {
+            case Constants.CAPTURE_PHASE_FOCUS:
+                return CapturePhaseTimer.PHASE_FOCUS;
+            case Constants.CAPTURE_PHASE_PRECAPTURE:
+                return CapturePhaseTimer.PHASE_PRECAPTURE;
+            case Constants.CAPTURE_PHASE_EXPOSURE:
+                return CapturePhaseTimer.PHASE_EXPOSURE;
+            default:
+                throw new IllegalArgumentException("Unknown capture phase: " + phase);
+        }
+    }
+
+    private void startPictureSequence() {
+        mPreviewStallMeter.start();
         if (mAutoFocus) {
             lockFocus();
         } else {
@@ -417,16 +989,159 @@ class Camera2 extends CameraViewImpl {
         mPreview.setDisplayOrientation(mDisplayOrientation);
     }
 
+    @Override
+    void updateFrameStream() {
+        // The new set of outputs is picked up by the next session when recording
+        if (isCameraOpened() && !mIsRecordingVideo) {
+            startPreviewSession();
+        }
+    }
+
+    private final Runnable mStartZeroShutterLagPicture = new Runnable() {
+        @Override
+        public void run() {
+            final PictureRequest request = mPictureRequest;
+            if (request == null) {
+                return;
+            }
+            if (mZslRing.hasImageAfter(request.mRequestTime)) {
+                serveZeroShutterLagPicture();
+            } else {
+                // The frame closest to the press may still be on its way
+                mZslWaiting = true;
+                mBackgroundHandler.postDelayed(mServeZeroShutterLagPicture, ZSL_WAIT_TIMEOUT);
+            }
+        }
+    };
+
+    private final Runnable mServeZeroShutterLagPicture = new Runnable() {
+        @Override
+        public void run() {
+            serveZeroShutterLagPicture();
+        }
+    };
+
+    /**
+     * Takes the frame for {@link #mPictureRequest} out of {@link #mZslRing} and hands it over to
+     * {@link #mZslHandler} for encoding. This is called on the background thread.
+     */
+    private void serveZeroShutterLagPicture() {
+        mZslWaiting = false;
+        mBackgroundHandler.removeCallbacks(mServeZeroShutterLagPicture);
+        final PictureRequest request = mPictureRequest;
+        if (request == null) {
+            return;
+        }
+        if (mZslHandler == null) {
+            failPictureRequest();
+            return;
+        }
+        final Image image = mZslRing.take(request.mRequestTime,
+                mZslMode == Constants.ZSL_SHARPEST);
+        if (image == null) {
+            failPictureRequest();
+            return;
+        }
+        request.mark(CaptureTiming.EVENT_CAPTURE_COMPLETED);
+        // The frame is not rotated, so the rotation is recorded in the EXIF data instead
+        final int rotation = (mSensorOrientation +
+                mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) +
+                360) % 360;
+        // The next picture can be selected while this one is encoded
+        mPictureRequest = null;
+        mZslHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                encodeZeroShutterLagPicture(image, rotation, request);
+            }
+        });
+    }
+
+    /**
+     * Encodes a frame from {@link #mZslRing} into a JPEG and delivers it. This is called on
+     * {@link #mZslHandler}.
+     */
+    private void encodeZeroShutterLagPicture(Image image, int rotation, PictureRequest request) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int size = Nv21Frame.bufferSize(width, height);
+        if (mZslNv21 == null || mZslNv21.length != size) {
+            mZslNv21 = new byte[size];
+        }
+        final byte[] nv21 = mZslNv21;
+        try {
+            mZslFrame.setImage(image);
+            mZslFrame.acquire();
+            try {
+                Nv21Frame.copy(mZslFrame, nv21);
+            } finally {
+                mZslFrame.release();
+            }
+        } catch (IllegalStateException e) {
+            // The reader was closed under us
+            Log.e(TAG, "The frame for the picture was lost.", e);
+            request.onPictureDone(false);
+            mCallback.onPictureFailed(request);
+            return;
+        }
+        final JpegOutputStream out = mZslJpeg;
+        out.reset();
+        if (!new YuvImage(nv21, ImageFormat.NV21, width, height, null).compressToJpeg(
+                new Rect(0, 0, width, height), ZSL_JPEG_QUALITY, out)) {
+            Log.e(TAG, "Failed to encode the picture.");
+            request.onPictureDone(false);
+            mCallback.onPictureFailed(request);
+            return;
+        }
+        // The only copy of the JPEG data, which the callbacks then own
+        byte[] jpeg = ExifOrientation.copyOf(out.getBuffer(), out.size(),
+                ExifOrientation.fromDegrees(rotation));
+        if (jpeg == null) {
+            jpeg = out.toByteArray();
+        }
+        request.mark(CaptureTiming.EVENT_IMAGE_AVAILABLE);
+        request.onPictureDone(true);
+        mCallback.onPictureTaken(new PictureBuffer.ByteArray(jpeg), request);
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} whose buffer can be read without copying it, so that it
+     * can be reused for every picture.
+     */
+    private static class JpegOutputStream extends ByteArrayOutputStream {
+
+        byte[] getBuffer() {
+            return buf;
+        }
+
+    }
+
     private void startBackgroundThread() {
         if (mBackgroundThread == null || !mBackgroundThread.isAlive()) {
             mBackgroundThread = new HandlerThread("CameraBackground");
             mBackgroundThread.start();
             mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+            mCaptureCallback.setHandler(mBackgroundHandler);
+        }
+    }
+
+    /**
+     * Takes over the background thread and the picture reader of a prewarmed camera.
+     */
+    private void adoptBackgroundThread(Camera2Prewarm prewarm) {
+        stopBackgroundThread();
+        mBackgroundThread = prewarm.getThread();
+        mBackgroundHandler = prewarm.getHandler();
+        mCaptureCallback.setHandler(mBackgroundHandler);
+        if (mImageReader != null) {
+            mImageReader.close();
         }
+        mImageReader = prewarm.takeImageReader();
     }
 
     private void stopBackgroundThread() {
         if (mBackgroundThread != null) {
+            mCaptureCallback.setHandler(null);
             mBackgroundThread.quitSafely();
             mBackgroundThread = null;
             mBackgroundHandler = null;
@@ -434,44 +1149,56 @@ class Camera2 extends CameraViewImpl {
     }
     /**
      * <p>Chooses a camera ID by the specified camera facing ({@link #mFacing}).</p>
-     * <p>This rewrites {@link #mCameraId}, {@link #mCameraCharacteristics}, and optionally
+     * <p>This rewrites {@link #mCameraId}, {@link #mCapabilities},
+     * {@link #mSnapshotCamera}, and optionally
      * {@link #mFacing}.</p>
      */
     private boolean chooseCameraIdByFacing() {
+        mSnapshotCamera = null;
+        if (mCapabilitySnapshot != null) {
+            if (mCapabilitySnapshot.isCamera2Legacy(mFacing)) {
+                return false;
+            }
+            mSnapshotCamera = mCapabilitySnapshot.find(CapabilitySnapshot.API_CAMERA2, mFacing);
+            if (mSnapshotCamera != null) {
+                mCameraId = mSnapshotCamera.mId;
+                mCapabilities = null;
+                return true;
+            }
+        }
         try {
             int internalFacing = INTERNAL_FACINGS.get(mFacing);
-            final String[] ids = mCameraManager.getCameraIdList();
+            final String[] ids = mCapabilityCache.getCameraIds();
             if (ids.length == 0) { // No camera
                 throw new RuntimeException("No camera available.");
             }
             for (String id : ids) {
-                CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(id);
-                Integer level = characteristics.get(
-                        CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
-                if (level == null ||
-                        level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                CameraCapabilityCache.Capabilities capabilities =
+                        mCapabilityCache.getCapabilities(id);
+                if (capabilities.isLegacy()) {
                     continue;
                 }
-                Integer internal = characteristics.get(CameraCharacteristics.LENS_FACING);
+                Integer internal = capabilities.getFacing();
                 if (internal == null) {
                     throw new NullPointerException("Unexpected state: LENS_FACING null");
                 }
                 if (internal == internalFacing) {
                     mCameraId = id;
-                    mCameraCharacteristics = characteristics;
+                    mCapabilities = capabilities;
                     return true;
                 }
             }
             // Not found
             mCameraId = ids[0];
-            mCameraCharacteristics = mCameraManager.getCameraCharacteristics(mCameraId);
-            Integer level = mCameraCharacteristics.get(
-                    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
-            if (level == null ||
-                    level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+            mCapabilities = mCapabilityCache.getCapabilities(mCameraId);
+            if (mCapabilities.isLegacy()) {
+                if (mCapabilitySnapshot != null) {
+                    mCapabilitySnapshot.setCamera2Legacy(mFacing, true);
+                    mCapabilitySnapshot.saveInBackground();
+                }
                 return false;
             }
-            Integer internal = mCameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
+            Integer internal = mCapabilities.getFacing();
             if (internal == null) {
                 throw new NullPointerException("Unexpected state: LENS_FACING null");
             }
@@ -492,55 +1219,314 @@ class Camera2 extends CameraViewImpl {
     }
 
     /**
-     * <p>Collects some information from {@link #mCameraCharacteristics}.</p>
+     * <p>Collects some information from {@link #mSnapshotCamera} or {@link #mCapabilities}.</p>
      * <p>This rewrites {@link #mPreviewSizes}, {@link #mPictureSizes}, and optionally,
      * {@link #mAspectRatio}.</p>
      */
     private void collectCameraInfo() {
-        mSensorOrientation = mCameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-        StreamConfigurationMap map = mCameraCharacteristics.get(
-                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        if (map == null) {
-            throw new IllegalStateException("Failed to get configuration map: " + mCameraId);
+        if (mSnapshotCamera != null) {
+            // Reading the sizes takes long; they are checked once the camera is opening
+            mSensorOrientation = mSnapshotCamera.mOrientation;
+            CapabilitySnapshot.fill(mPreviewSizes, mSnapshotCamera.mPreviewSizes);
+            CapabilitySnapshot.fill(mPictureSizes, mSnapshotCamera.mPictureSizes);
+        } else {
+            final CameraCapabilityCache.Capabilities capabilities = getCapabilities();
+            mSensorOrientation = capabilities.getSensorOrientation();
+            collectSizes(capabilities, mPreviewSizes, mPictureSizes);
+            recordCapabilities(capabilities);
+        }
+
+        if (!mPreviewSizes.ratios().contains(mAspectRatio)) {
+            mAspectRatio = mPreviewSizes.ratios().iterator().next();
+        }
+    }
+
+    private void collectSizes(CameraCapabilityCache.Capabilities capabilities,
+            SizeMap previewSizes, SizeMap pictureSizes) {
+        if (!capabilities.hasStreamConfigurationMap()) {
+            throw new IllegalStateException("Failed to get configuration map: "
+                    + capabilities.getCameraId());
         }
-        mPreviewSizes.clear();
+        previewSizes.clear();
         for (android.util.Size size :
-                /*videoPreviewMode? map.getOutputSizes(MediaRecorder.class) : */map.getOutputSizes(mPreview.getOutputClass())) {
+                /*videoPreviewMode? map.getOutputSizes(MediaRecorder.class) : */capabilities.getOutputSizes(mPreview.getOutputClass())) {
             int width = size.getWidth();
             int height = size.getHeight();
             if (width <= MAX_PREVIEW_WIDTH && height <= MAX_PREVIEW_HEIGHT) {
-                mPreviewSizes.add(new Size(width, height));
+                previewSizes.add(new Size(width, height));
             }
         }
-        mPictureSizes.clear();
-        collectPictureSizes(mPictureSizes, map);
-        for (AspectRatio ratio : mPreviewSizes.ratios()) {
-            if (!mPictureSizes.ratios().contains(ratio)) {
-                mPreviewSizes.remove(ratio);
+        pictureSizes.clear();
+        capabilities.collectPictureSizes(pictureSizes);
+        for (AspectRatio ratio : previewSizes.ratios()) {
+            if (!pictureSizes.ratios().contains(ratio)) {
+                previewSizes.remove(ratio);
             }
         }
-
-        if (!mPreviewSizes.ratios().contains(mAspectRatio)) {
-            mAspectRatio = mPreviewSizes.ratios().iterator().next();
-        }
     }
 
-    protected void collectPictureSizes(SizeMap sizes, StreamConfigurationMap map) {
-        for (android.util.Size size : map.getOutputSizes(ImageFormat.JPEG)) {
-            mPictureSizes.add(new Size(size.getWidth(), size.getHeight()));
-        }
+    /**
+     * Chooses the size of the picture reader. {@link Camera2Prewarm} chooses it the same way,
+     * so that its reader is taken over as it is.
+     *
+     * @return The size, or {@code null} if there are no picture sizes for the aspect ratio.
+     */
+    static Size choosePictureSize(SizeMap pictureSizes, AspectRatio ratio,
+            PictureSizePolicy policy, int depth) {
+        final SortedSet<Size> sizes = pictureSizes.sizes(ratio);
+        return sizes == null ? null : policy.choose(sizes, depth);
     }
 
     private void prepareImageReader() {
+        final Size size = choosePictureSize(mPictureSizes, mAspectRatio, mPictureSizePolicy,
+                mImageReaderDepth);
         if (mImageReader != null) {
+            // Kept if it is what would be created, e.g. the reader of a prewarmed camera
+            if (mImageReader.getWidth() == size.getWidth()
+                    && mImageReader.getHeight() == size.getHeight()
+                    && mImageReader.getMaxImages() == mImageReaderDepth) {
+                mImageReader.setOnImageAvailableListener(mOnImageAvailableListener,
+                        mBackgroundHandler);
+                return;
+            }
             mImageReader.close();
         }
-        Size largest = mPictureSizes.sizes(mAspectRatio).last();
-        mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(),
-                ImageFormat.JPEG, /* maxImages */ 2);
+        mImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.JPEG, mImageReaderDepth);
         mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mBackgroundHandler);
     }
 
+    /**
+     * @return The capabilities of {@link #mCameraId}, which are only queried here if the camera
+     * was configured from {@link #mCapabilitySnapshot}.
+     */
+    private CameraCapabilityCache.Capabilities getCapabilities() {
+        CameraCapabilityCache.Capabilities capabilities = mCapabilities;
+        if (capabilities == null) {
+            try {
+                capabilities = mCapabilityCache.getCapabilities(mCameraId);
+            } catch (CameraAccessException e) {
+                throw new RuntimeException("Failed to get camera characteristics: " + mCameraId,
+                        e);
+            }
+            mCapabilities = capabilities;
+        }
+        return capabilities;
+    }
+
+    /**
+     * Records the current camera in {@link #mCapabilitySnapshot}.
+     */
+    private void recordCapabilities(CameraCapabilityCache.Capabilities capabilities) {
+        if (mCapabilitySnapshot == null) {
+            return;
+        }
+        final CapabilitySnapshot.Camera camera = newSnapshotCamera(capabilities,
+                mPreviewSizes, mPictureSizes);
+        if (camera != null) {
+            mCapabilitySnapshot.put(camera);
+            mCapabilitySnapshot.saveInBackground();
+        }
+    }
+
+    /**
+     * @return An entry for the snapshot, or {@code null} for a camera that is neither facing
+     * back nor front.
+     */
+    private CapabilitySnapshot.Camera newSnapshotCamera(
+            CameraCapabilityCache.Capabilities capabilities, SizeMap previewSizes,
+            SizeMap pictureSizes) {
+        final Integer internal = capabilities.getFacing();
+        int facing = -1;
+        for (int i = 0, count = INTERNAL_FACINGS.size(); i < count; i++) {
+            if (internal != null && INTERNAL_FACINGS.valueAt(i) == internal) {
+                facing = INTERNAL_FACINGS.keyAt(i);
+            }
+        }
+        if (facing < 0) {
+            return null;
+        }
+        final SizeMap videoSizes = new SizeMap();
+        for (android.util.Size size : capabilities.getOutputSizes(MediaRecorder.class)) {
+            videoSizes.add(new Size(size.getWidth(), size.getHeight()));
+        }
+        return new CapabilitySnapshot.Camera(CapabilitySnapshot.API_CAMERA2,
+                capabilities.getCameraId(), facing,
+                capabilities.getSensorOrientation(), capabilities.isLegacy(),
+                CapabilitySnapshot.flatten(previewSizes),
+                CapabilitySnapshot.flatten(pictureSizes),
+                CapabilitySnapshot.flatten(videoSizes));
+    }
+
+    /**
+     * Checks the snapshot entry the camera was configured from against the camera, on the
+     * background thread while the camera is opening. If it was wrong, the snapshot is corrected
+     * and the camera is restarted with the real capabilities.
+     */
+    private void revalidateCapabilities() {
+        final CapabilitySnapshot.Camera cached = mSnapshotCamera;
+        if (cached == null) {
+            return;
+        }
+        mSnapshotCamera = null;
+        final CameraCapabilityCache.Capabilities capabilities;
+        try {
+            capabilities = mCapabilityCache.getCapabilities(cached.mId);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Failed to check the capabilities of camera " + cached.mId, e);
+            return;
+        }
+        mCapabilities = capabilities;
+        final SizeMap previewSizes = new SizeMap();
+        final SizeMap pictureSizes = new SizeMap();
+        collectSizes(capabilities, previewSizes, pictureSizes);
+        final CapabilitySnapshot.Camera actual = newSnapshotCamera(capabilities,
+                previewSizes, pictureSizes);
+        if (cached.equals(actual)) {
+            return;
+        }
+        Log.w(TAG, "The cached capabilities of camera " + cached.mId + " were wrong.");
+        if (actual != null && actual.mFacing == cached.mFacing && !actual.mLegacy) {
+            mCapabilitySnapshot.put(actual);
+        } else {
+            mCapabilitySnapshot.remove(CapabilitySnapshot.API_CAMERA2, cached.mId);
+        }
+        mCapabilitySnapshot.saveInBackground();
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                if (mBackgroundThread != null && cached.mId.equals(mCameraId)) {
+                    stop();
+                    start();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets up {@link #mFrameReader} for the preview size, or closes it if no preview frames are
+     * requested. The frame pool is topped up so that there is a frame for every image.
+     *
+     * @return The surface of the frame reader to be added to the session, or {@code null}.
+     */
+    private Surface prepareFrameReader(int width, int height) {
+        if (!isFrameStreamEnabled() || mFrameStreamUnsupported) {
+            closeFrameReader();
+            return null;
+        }
+        if (mFrameReader == null || mFrameReader.getWidth() != width
+                || mFrameReader.getHeight() != height) {
+            closeFrameReader();
+            final ImageReader reader = ImageReader.newInstance(width, height,
+                    ImageFormat.YUV_420_888, FRAME_READER_MAX_IMAGES);
+            mFrameReader = reader;
+            mFrameReaderCloser = new DeferredCloser(new Runnable() {
+                @Override
+                public void run() {
+                    reader.close();
+                }
+            });
+            if (mFrameThread == null) {
+                mFrameThread = new HandlerThread("CameraFrames");
+                mFrameThread.start();
+                mFrameHandler = new Handler(mFrameThread.getLooper());
+            }
+            mFrameReader.setOnImageAvailableListener(
+                    new FrameAvailableListener(mFrameReaderCloser), mFrameHandler);
+            synchronized (mFramePool) {
+                while (mFramePool.size() < FRAME_READER_MAX_IMAGES) {
+                    mFramePool.offer(new ImageFrame(mFrameRecycler));
+                }
+            }
+        }
+        return mFrameReader.getSurface();
+    }
+
+    private void closeFrameReader() {
+        if (mFrameReader != null) {
+            mFrameDispatcher.flush();
+            // The frames retained by the processors keep the reader open until released
+            mFrameReaderCloser.close();
+            mFrameReader = null;
+            mFrameReaderCloser = null;
+            mCaptureResultHistory.clear();
+        }
+        if (mFrameThread != null) {
+            mFrameThread.quitSafely();
+            mFrameThread = null;
+            mFrameHandler = null;
+        }
+    }
+
+    /**
+     * Sets up {@link #mZslReader} for the YUV size of the aspect ratio chosen by
+     * {@link #mPictureSizePolicy}, or closes it if zero shutter lag is off.
+     *
+     * @return The surface of the reader to be added to the session, or {@code null}.
+     */
+    private Surface prepareZslReader() {
+        if (!isZeroShutterLagActive()) {
+            closeZslReader();
+            return null;
+        }
+        final SortedSet<Size> sizes = new TreeSet<>();
+        for (android.util.Size size : getCapabilities().getOutputSizes(ImageFormat.YUV_420_888)) {
+            final Size candidate = new Size(size.getWidth(), size.getHeight());
+            if (mAspectRatio.matches(candidate)) {
+                sizes.add(candidate);
+            }
+        }
+        if (sizes.isEmpty()) {
+            Log.w(TAG, "No YUV size for zero shutter lag in " + mAspectRatio);
+            closeZslReader();
+            return null;
+        }
+        // One more image for the picture being encoded, and one to acquire the next frame
+        final int maxImages = ZSL_RING_SIZE + 2;
+        final Size size = mPictureSizePolicy.choose(sizes, maxImages);
+        if (mZslReader == null || mZslReader.getWidth() != size.getWidth()
+                || mZslReader.getHeight() != size.getHeight()) {
+            closeZslReader();
+            mZslReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                    ImageFormat.YUV_420_888, maxImages);
+            mZslReader.setOnImageAvailableListener(mOnZslImageAvailableListener,
+                    mBackgroundHandler);
+            if (mZslThread == null) {
+                mZslThread = new HandlerThread("CameraZsl");
+                mZslThread.start();
+                mZslHandler = new Handler(mZslThread.getLooper());
+            }
+        }
+        return mZslReader.getSurface();
+    }
+
+    private void closeZslReader() {
+        mZslRing.clear();
+        if (mZslReader != null) {
+            mZslReader.close();
+            mZslReader = null;
+        }
+        if (mZslThread != null) {
+            mZslThread.quitSafely();
+            mZslThread = null;
+            mZslHandler = null;
+        }
+    }
+
+    /**
+     * Adds the output for pictures to a new session: the ring of recent frames when zero shutter
+     * lag is on, or the JPEG reader otherwise.
+     */
+    private void addPictureSurface(List<Surface> surfaces) {
+        final Surface zslSurface = prepareZslReader();
+        if (zslSurface != null) {
+            surfaces.add(zslSurface);
+            mPreviewRequestBuilder.addTarget(zslSurface);
+        } else {
+            surfaces.add(mImageReader.getSurface());
+        }
+    }
+
     /**
      * <p>Starts opening a camera device.</p>
      * <p>The result will be processed in {@link #mCameraDeviceCallback}.</p>
@@ -586,12 +1572,29 @@ class Camera2 extends CameraViewImpl {
             surfaces.add(previewSurface);
             mPreviewRequestBuilder.addTarget(previewSurface);
 
-            // Set up Surface for the MediaRecorder
-            Surface recorderSurface = mMediaRecorder.getSurface();
-            surfaces.add(recorderSurface);
-            mPreviewRequestBuilder.addTarget(recorderSurface);
+            // Only three outputs are guaranteed to work together: the MediaRecorder is left out
+            // while preview frames are streamed, and the frames are paused while recording
+            Surface frameSurface = null;
+            if (mIsRecordingVideo) {
+                closeFrameReader();
+            } else {
+                frameSurface = prepareFrameReader(mPreviewSize.getWidth(),
+                        mPreviewSize.getHeight());
+            }
+            if (frameSurface == null) {
+                // Set up Surface for the MediaRecorder
+                Surface recorderSurface = mMediaRecorder.getSurface();
+                surfaces.add(recorderSurface);
+                mPreviewRequestBuilder.addTarget(recorderSurface);
+            }
 
-            surfaces.add(mImageReader.getSurface());
+            addPictureSurface(surfaces);
+
+            // Set up Surface for the frame processors
+            if (frameSurface != null) {
+                surfaces.add(frameSurface);
+                mPreviewRequestBuilder.addTarget(frameSurface);
+            }
             // Start a capture session
             // Once the session starts, we can update the UI and start recording
             mCameraDevice.createCaptureSession(surfaces, mSessionCallback, mBackgroundHandler);
@@ -611,8 +1614,15 @@ class Camera2 extends CameraViewImpl {
         try {
             mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             mPreviewRequestBuilder.addTarget(surface);
-            mCameraDevice.createCaptureSession(Arrays.asList(surface, mImageReader.getSurface()),
-                    mSessionCallback, mBackgroundHandler);
+            List<Surface> surfaces = new ArrayList<>(Collections.singletonList(surface));
+            addPictureSurface(surfaces);
+            Surface frameSurface = prepareFrameReader(previewSize.getWidth(),
+                    previewSize.getHeight());
+            if (frameSurface != null) {
+                surfaces.add(frameSurface);
+                mPreviewRequestBuilder.addTarget(frameSurface);
+            }
+            mCameraDevice.createCaptureSession(surfaces, mSessionCallback, mBackgroundHandler);
         } catch (CameraAccessException e) {
             throw new RuntimeException("Failed to start camera session");
         }
@@ -683,8 +1693,7 @@ class Camera2 extends CameraViewImpl {
      */
     void updateAutoFocus() {
         if (mAutoFocus) {
-            int[] modes = mCameraCharacteristics.get(
-                    CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+            int[] modes = getCapabilities().getAfModes();
             // Auto focus is not supported
             if (modes == null || modes.length == 0 ||
                     (modes.length == 1 && modes[0] == CameraCharacteristics.CONTROL_AF_MODE_OFF)) {
@@ -740,7 +1749,17 @@ class Camera2 extends CameraViewImpl {
     }
 
     /**
-     * Locks the focus as the first step for a still image capture.
+     * Issues the repeating preview request with {@link #mRepeatingCallback}.
+     */
+    private void setRepeatingRequest() throws CameraAccessException {
+        mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mRepeatingCallback,
+                mBackgroundHandler);
+    }
+
+    /**
+     * Locks the focus as the first step for a still image capture. The state machine follows
+     * the lock through the results of the repeating request, so it is attached to it until
+     * {@link #unlockFocus()}.
      */
     private void lockFocus() {
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
@@ -748,8 +1767,14 @@ class Camera2 extends CameraViewImpl {
         try {
             mCaptureCallback.setState(PictureCaptureCallback.STATE_LOCKING);
             mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, mBackgroundHandler);
+            // The trigger must only be sent once
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                    CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            mRepeatingCallback = mCaptureCallback;
+            setRepeatingRequest();
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to lock focus.", e);
+            failPictureRequest();
         }
     }
 
@@ -757,6 +1782,8 @@ class Camera2 extends CameraViewImpl {
      * Captures a still picture.
      */
     void captureStillPicture() {
+        final PictureRequest pictureRequest = mPictureRequest;
+        mCaptureCallback.setState(PictureCaptureCallback.STATE_CAPTURING);
         try {
             CaptureRequest.Builder captureRequestBuilder = mCameraDevice.createCaptureRequest(
                     CameraDevice.TEMPLATE_STILL_CAPTURE);
@@ -790,45 +1817,230 @@ class Camera2 extends CameraViewImpl {
                     break;
             }
             // Calculate JPEG orientation.
-            @SuppressWarnings("ConstantConditions")
-            int sensorOrientation = mCameraCharacteristics.get(
-                    CameraCharacteristics.SENSOR_ORIENTATION);
+            int sensorOrientation = getCapabilities().getSensorOrientation();
             captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION,
                     (sensorOrientation +
                             mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) +
                             360) % 360);
-            // Stop preview and capture a still picture.
-            mCaptureSession.stopRepeating();
+            final android.util.Size thumbnailSize = chooseJpegThumbnailSize();
+            if (thumbnailSize != null) {
+                captureRequestBuilder.set(CaptureRequest.JPEG_THUMBNAIL_SIZE, thumbnailSize);
+            }
+            // The JPEG reader is in the session, so the still request is normally captured
+            // in between the preview frames
+            if (mPausePreviewForCapture || mPausePreviewForRetry) {
+                mPausePreviewForRetry = false;
+                mCaptureSession.stopRepeating();
+                mPreviewPaused = true;
+            }
+            if (pictureRequest != null && pictureRequest.isBurst()) {
+                // The exposure has converged for the first picture; keep it for all of them
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_LOCK, true);
+                mBurstRequest = captureRequestBuilder.build();
+                mBurstInterval = pictureRequest.mBurstInterval;
+                if (mBurstInterval == 0) {
+                    mBurstPicturesLeft = 0;
+                    mCaptureSession.captureBurst(
+                            Collections.nCopies(pictureRequest.mBurstCount, mBurstRequest),
+                            mBurstCaptureCallback, mBackgroundHandler);
+                } else {
+                    mBurstPicturesLeft = pictureRequest.mBurstCount;
+                    captureNextBurstPicture();
+                }
+                return;
+            }
             mCaptureSession.capture(captureRequestBuilder.build(),
                     new CameraCaptureSession.CaptureCallback() {
                         @Override
                         public void onCaptureCompleted(@NonNull CameraCaptureSession session,
                                 @NonNull CaptureRequest request,
                                 @NonNull TotalCaptureResult result) {
+                            if (pictureRequest != null) {
+                                pictureRequest.mark(CaptureTiming.EVENT_CAPTURE_COMPLETED);
+                            }
+                            if (!mPreviewPaused) {
+                                mConcurrentCaptureFailures = 0;
+                            }
+                            unlockFocus();
+                        }
+
+                        @Override
+                        public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                @NonNull CaptureRequest request,
+                                @NonNull CaptureFailure failure) {
+                            Log.e(TAG, "Still capture failed: " + failure.getReason());
+                            if (!mPreviewPaused && mPictureRequest != null
+                                    && failure.getReason() == CaptureFailure.REASON_ERROR) {
+                                // Some devices cannot capture while the preview is repeating;
+                                // stop it for this picture, and for all the next ones once
+                                // this keeps happening
+                                Log.w(TAG, "Retrying with the preview stopped.");
+                                if (++mConcurrentCaptureFailures
+                                        >= PAUSE_PREVIEW_AFTER_FAILURES) {
+                                    mPausePreviewForCapture = true;
+                                } else {
+                                    mPausePreviewForRetry = true;
+                                }
+                                captureStillPicture();
+                                return;
+                            }
+                            failPictureRequest();
                             unlockFocus();
                         }
                     }, null);
         } catch (CameraAccessException e) {
             Log.e(TAG, "Cannot capture a still picture.", e);
+            failPictureRequest();
+        }
+    }
+
+    /**
+     * Gives up on the picture being taken.
+     */
+    private void failPictureRequest() {
+        final PictureRequest request = mPictureRequest;
+        mPictureRequest = null;
+        mCaptureCallback.mTimer.finish(System.nanoTime());
+        mBurstPicturesLeft = 0;
+        mZslWaiting = false;
+        if (mBackgroundHandler != null) {
+            mBackgroundHandler.removeCallbacks(mCaptureNextBurstPicture);
+            mBackgroundHandler.removeCallbacks(mServeZeroShutterLagPicture);
+        }
+        if (request != null) {
+            mCallback.onPictureFailed(request);
+        }
+        restoreImageReaderDepth();
+    }
+
+    /**
+     * Puts the picture reader back to {@link #PICTURE_READER_DEPTH} after a burst deepened it,
+     * so that later pictures are not sized for the burst. This waits until no picture is being
+     * taken and all the pictures of the deeper reader are closed.
+     */
+    private void restoreImageReaderDepth() {
+        if (mImageReaderDepth == PICTURE_READER_DEPTH || mPictureRequest != null
+                || mPicturesHeld.get() > 0 || mIsRecordingVideo) {
+            return;
+        }
+        mImageReaderDepth = PICTURE_READER_DEPTH;
+        if (mImageReader != null && isCameraOpened()) {
+            prepareImageReader();
+            startPreviewSession();
         }
     }
 
     /**
-     * Unlocks the auto-focus and restart camera preview. This is supposed to be called after
+     * Records that one picture of a request could not be taken. The request only fails if none
+     * of its pictures were delivered.
+     */
+    private void onPictureLost(PictureRequest request) {
+        if (request.onPictureDone(false)) {
+            if (mPictureRequest == request) {
+                mPictureRequest = null;
+            }
+            if (request.getDeliveredCount() == 0) {
+                mCallback.onPictureFailed(request);
+            }
+        }
+    }
+
+    /**
+     * Captures the next picture of a burst with an interval. This is called on the background
+     * thread.
+     */
+    private void captureNextBurstPicture() throws CameraAccessException {
+        mBurstPicturesLeft--;
+        mLastBurstPictureTime = SystemClock.uptimeMillis();
+        mCaptureSession.capture(mBurstRequest, mBurstCaptureCallback, mBackgroundHandler);
+    }
+
+    private final Runnable mCaptureNextBurstPicture = new Runnable() {
+        @Override
+        public void run() {
+            if (mCaptureSession == null || mPictureRequest == null) {
+                return;
+            }
+            try {
+                captureNextBurstPicture();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.e(TAG, "Cannot capture the next picture of the burst.", e);
+                failPictureRequest();
+                unlockFocus();
+            }
+        }
+    };
+
+    private final CameraCaptureSession.CaptureCallback mBurstCaptureCallback
+            = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            final PictureRequest pictureRequest = mPictureRequest;
+            if (pictureRequest != null) {
+                pictureRequest.mark(CaptureTiming.EVENT_CAPTURE_COMPLETED);
+            }
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            Log.e(TAG, "Burst capture failed: " + failure.getReason());
+            final PictureRequest pictureRequest = mPictureRequest;
+            if (pictureRequest != null) {
+                onPictureLost(pictureRequest);
+            }
+        }
+
+        @Override
+        public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session,
+                int sequenceId, long frameNumber) {
+            onBurstSequenceDone();
+        }
+
+        @Override
+        public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session,
+                int sequenceId) {
+            onBurstSequenceDone();
+        }
+
+    };
+
+    private void onBurstSequenceDone() {
+        if (mBurstPicturesLeft > 0 && mPictureRequest != null) {
+            final long delay = mLastBurstPictureTime + mBurstInterval - SystemClock.uptimeMillis();
+            mBackgroundHandler.postDelayed(mCaptureNextBurstPicture, Math.max(0, delay));
+        } else {
+            mBurstRequest = null;
+            unlockFocus();
+            restoreImageReaderDepth();
+        }
+    }
+
+    /**
+     * Unlocks the auto-focus and puts the lightweight callback back on the repeating request,
+     * restarting camera preview if it was stopped. This is supposed to be called after
      * capturing a still picture.
      */
     void unlockFocus() {
+        mPreviewStallMeter.stop();
+        mCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                 CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), mPreviewCaptureCallback,
+                    mBackgroundHandler);
             updateAutoFocus();
             updateFlash();
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                     CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
-            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
-            mCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
+            // Replacing the repeating request does not interrupt the preview
+            if (mPreviewPaused || mRepeatingCallback != mPreviewCaptureCallback) {
+                mPreviewPaused = false;
+                mRepeatingCallback = mPreviewCaptureCallback;
+                setRepeatingRequest();
+            }
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to restart camera preview.", e);
         }
@@ -836,6 +2048,10 @@ class Camera2 extends CameraViewImpl {
 
     /**
      * A {@link CameraCaptureSession.CaptureCallback} for capturing a still picture.
+     *
+     * <p>Each state that waits for the camera has a deadline from {@link #mTimer}. When the
+     * auto-focus or the auto-exposure does not report the expected state in time, the picture
+     * is taken as it is rather than waiting forever.</p>
      */
     private static abstract class PictureCaptureCallback
             extends CameraCaptureSession.CaptureCallback {
@@ -847,13 +2063,81 @@ class Camera2 extends CameraViewImpl {
         static final int STATE_WAITING = 4;
         static final int STATE_CAPTURING = 5;
 
-        private int mState;
+        /** Times the picture being taken; the phase timeouts are configured here. */
+        final CapturePhaseTimer mTimer = new CapturePhaseTimer();
+
+        private volatile int mState;
+
+        /** The state whose deadline is pending. */
+        private volatile int mTimeoutState;
+
+        private Handler mHandler;
+
+        private final Runnable mTimeout = new Runnable() {
+            @Override
+            public void run() {
+                final int state = mTimeoutState;
+                if (mState != state) {
+                    return;
+                }
+                final int phase = phaseOf(state);
+                Log.w(TAG, "Camera did not finish the " + CapturePhaseTimer.getPhaseName(phase)
+                        + " phase in " + mTimer.getTimeout(phase)
+                        + " ms; taking the picture anyway.");
+                mTimer.onTimedOut(phase);
+                setState(STATE_CAPTURING);
+                onReady();
+            }
+        };
 
         PictureCaptureCallback() {
         }
 
+        /**
+         * @param handler The handler to run the deadlines on, or {@code null} to cancel them.
+         */
+        void setHandler(Handler handler) {
+            if (mHandler != null) {
+                mHandler.removeCallbacks(mTimeout);
+            }
+            mHandler = handler;
+        }
+
         void setState(int state) {
             mState = state;
+            final int phase = phaseOf(state);
+            if (phase >= 0) {
+                mTimer.enter(phase, System.nanoTime());
+            }
+            final Handler handler = mHandler;
+            if (handler == null) {
+                return;
+            }
+            handler.removeCallbacks(mTimeout);
+            final long timeout = phase >= 0 ? mTimer.getTimeout(phase) : 0;
+            if (timeout > 0) {
+                mTimeoutState = state;
+                handler.postDelayed(mTimeout, timeout);
+            }
+        }
+
+        /**
+         * @return The {@link CapturePhaseTimer} phase of a state, or -1 if the state is not
+         * timed.
+         */
+        private static int phaseOf(int state) {
+            switch (state) {
+                case STATE_LOCKING:
+                    return CapturePhaseTimer.PHASE_FOCUS;
+                case STATE_PRECAPTURE:
+                    return CapturePhaseTimer.PHASE_PRECAPTURE;
+                case STATE_WAITING:
+                    return CapturePhaseTimer.PHASE_EXPOSURE;
+                case STATE_CAPTURING:
+                    return CapturePhaseTimer.PHASE_CAPTURE;
+                default:
+                    return -1;
+            }
         }
 
         @Override
@@ -877,6 +2161,7 @@ class Camera2 extends CameraViewImpl {
                     }
                     if (af == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED ||
                             af == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                        onFocusLocked();
                         Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
                         if (ae == null || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
                             setState(STATE_CAPTURING);
@@ -908,6 +2193,12 @@ class Camera2 extends CameraViewImpl {
             }
         }
 
+        /**
+         * Called when the auto-focus is locked.
+         */
+        public void onFocusLocked() {
+        }
+
         /**
          * Called when it is ready to take a still picture.
          */
@@ -921,10 +2212,9 @@ class Camera2 extends CameraViewImpl {
     }
 
     private void setUpAllSize() {
-        StreamConfigurationMap map = mCameraCharacteristics.get(
-                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        mVideoSize = chooseVideoSize(map.getOutputSizes(MediaRecorder.class), mAspectRatio);
-        mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class),
+        mVideoSize = chooseVideoSize(getCapabilities().getOutputSizes(MediaRecorder.class),
+                mAspectRatio);
+        mPreviewSize = chooseOptimalSize(getCapabilities().getOutputSizes(SurfaceTexture.class),
                 mPreview.getWidth(), mPreview.getHeight(), mVideoSize);
     }
 
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * A camera opened ahead of time, before there is a view for it. The camera is opened on a
+ * background thread together with the {@link ImageReader} for the pictures, and a
+ * {@link Camera2} that starts with the same camera takes over the thread, the reader and the
+ * device instead of opening the camera itself.
+ *
+ * <p>There is at most one prewarmed camera at a time. It is closed if no view takes it over
+ * within {@link #TIMEOUT}, so that the camera is not kept from other apps.</p>
+ */
+@TargetApi(21)
+class Camera2Prewarm {
+
+    private static final String TAG = "Camera2Prewarm";
+
+    /** How long a prewarmed camera is kept open for a view, in milliseconds. */
+    private static final long TIMEOUT = 5000;
+
+    /** The prewarmed camera that no view has taken over yet, if any. */
+    private static Camera2Prewarm sPending;
+
+    private final CameraManager mCameraManager;
+
+    private final CameraCapabilityCache mCapabilityCache;
+
+    private final Context mContext;
+
+    private final int mFacing;
+
+    /** The aspect ratio the view is going to start with. */
+    private final AspectRatio mAspectRatio;
+
+    /** The picture size policy the view is going to start with. */
+    private final PictureSizePolicy mPictureSizePolicy;
+
+    private final HandlerThread mThread;
+
+    private final Handler mHandler;
+
+    /** Set once the camera is being opened. */
+    private volatile String mCameraId;
+
+    private ImageReader mImageReader;
+
+    private CameraDevice mCameraDevice;
+
+    /** Whether a view took over the thread; the camera is then not released here. */
+    private boolean mTaken;
+
+    /** The callback of the view that took over the camera. */
+    private CameraDevice.StateCallback mTarget;
+
+    /** Whether the camera failed after it was taken over, but before the callback was set. */
+    private boolean mFailed;
+
+    private boolean mReleased;
+
+    private final CameraDevice.StateCallback mDeviceCallback = new CameraDevice.StateCallback() {
+
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            final CameraDevice.StateCallback target;
+            synchronized (Camera2Prewarm.this) {
+                if (mReleased) {
+                    camera.close();
+                    return;
+                }
+                mCameraDevice = camera;
+                target = mTarget;
+            }
+            if (target != null) {
+                target.onOpened(camera);
+            }
+        }
+
+        @Override
+        public void onClosed(@NonNull CameraDevice camera) {
+            final CameraDevice.StateCallback target = getTarget();
+            if (target != null) {
+                target.onClosed(camera);
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            final CameraDevice.StateCallback target = getTarget();
+            if (target != null) {
+                target.onDisconnected(camera);
+            } else {
+                fail(camera);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            final CameraDevice.StateCallback target = getTarget();
+            if (target != null) {
+                target.onError(camera, error);
+            } else {
+                Log.w(TAG, "Failed to prewarm camera " + camera.getId() + " (" + error + ")");
+                fail(camera);
+            }
+        }
+
+    };
+
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (Camera2Prewarm.class) {
+                if (sPending != Camera2Prewarm.this) { // Taken over meanwhile
+                    return;
+                }
+                sPending = null;
+            }
+            release();
+        }
+    };
+
+    /**
+     * Starts opening the camera with the facing, unless it is already being prewarmed. The
+     * picture reader is made for the aspect ratio and the policy, as the view would make it.
+     */
+    static void start(Context context, int facing, AspectRatio ratio,
+            PictureSizePolicy policy) {
+        final Camera2Prewarm prewarm;
+        synchronized (Camera2Prewarm.class) {
+            if (sPending != null) {
+                if (sPending.mFacing == facing) {
+                    return;
+                }
+                sPending.release();
+            }
+            prewarm = new Camera2Prewarm(context, facing, ratio, policy);
+            sPending = prewarm;
+        }
+        prewarm.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                prewarm.open();
+            }
+        });
+        prewarm.mHandler.postDelayed(prewarm.mTimeout, TIMEOUT);
+    }
+
+    /**
+     * Takes over the prewarmed camera. A prewarmed camera other than the one asked for is
+     * closed, as the view is about to open another one.
+     *
+     * @param cameraId The ID of the camera the view is starting with.
+     * @return The prewarmed camera, or {@code null} if there is none for the ID.
+     */
+    static Camera2Prewarm take(String cameraId) {
+        final Camera2Prewarm prewarm;
+        synchronized (Camera2Prewarm.class) {
+            prewarm = sPending;
+            sPending = null;
+        }
+        if (prewarm == null) {
+            return null;
+        }
+        prewarm.mHandler.removeCallbacks(prewarm.mTimeout);
+        if (!cameraId.equals(prewarm.mCameraId)) { // Another camera, or not even opening yet
+            prewarm.release();
+            return null;
+        }
+        synchronized (prewarm) {
+            if (prewarm.mReleased) {
+                return null;
+            }
+            prewarm.mTaken = true;
+        }
+        return prewarm;
+    }
+
+    private Camera2Prewarm(Context context, int facing, AspectRatio ratio,
+            PictureSizePolicy policy) {
+        mContext = context;
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCapabilityCache = CameraCapabilityCache.get(context);
+        mFacing = facing;
+        mAspectRatio = ratio;
+        mPictureSizePolicy = policy;
+        mThread = new HandlerThread("CameraBackground");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Resolves the camera and its sizes, creates the picture reader and opens the camera. This
+     * is called on {@link #mThread}.
+     */
+    private void open() {
+        try {
+            final String cameraId = chooseCameraId();
+            if (cameraId == null) {
+                release();
+                return;
+            }
+            final CameraCapabilityCache.Capabilities capabilities =
+                    mCapabilityCache.getCapabilities(cameraId);
+            // Reads the preview sizes into the cache for the view
+            capabilities.getOutputSizes(SurfaceTexture.class);
+            final SizeMap pictureSizes = new SizeMap();
+            capabilities.collectPictureSizes(pictureSizes);
+            final Size size = Camera2.choosePictureSize(pictureSizes, mAspectRatio,
+                    mPictureSizePolicy, Camera2.PICTURE_READER_DEPTH);
+            synchronized (this) {
+                if (mReleased) {
+                    return;
+                }
+                if (size != null) {
+                    mImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                            ImageFormat.JPEG, Camera2.PICTURE_READER_DEPTH);
+                }
+            }
+            mCameraManager.openCamera(cameraId, mDeviceCallback, mHandler);
+            mCameraId = cameraId;
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Failed to prewarm the camera", e);
+            release();
+        } catch (SecurityException e) { // No camera permission
+            Log.w(TAG, "Failed to prewarm the camera", e);
+            release();
+        }
+    }
+
+    /**
+     * Chooses the camera like {@link Camera2} does, so that the view takes it over.
+     *
+     * @return The ID of the camera, or {@code null} if there is none for the facing.
+     */
+    private String chooseCameraId() throws CameraAccessException {
+        // Loaded here rather than on the main thread
+        final CapabilitySnapshot snapshot = CapabilitySnapshot.get(mContext);
+        if (snapshot.isCamera2Legacy(mFacing)) {
+            return null;
+        }
+        final CapabilitySnapshot.Camera camera =
+                snapshot.find(CapabilitySnapshot.API_CAMERA2, mFacing);
+        if (camera != null) {
+            return camera.mId;
+        }
+        final int internalFacing = mFacing == Constants.FACING_FRONT
+                ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+        for (String id : mCapabilityCache.getCameraIds()) {
+            final CameraCapabilityCache.Capabilities capabilities =
+                    mCapabilityCache.getCapabilities(id);
+            final Integer facing = capabilities.getFacing();
+            if (!capabilities.isLegacy() && facing != null && facing == internalFacing) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The background thread of the camera, which the caller now owns.
+     */
+    HandlerThread getThread() {
+        return mThread;
+    }
+
+    Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * @return The picture reader, which the caller now owns, or {@code null}.
+     */
+    synchronized ImageReader takeImageReader() {
+        final ImageReader reader = mImageReader;
+        mImageReader = null;
+        return reader;
+    }
+
+    /**
+     * Hands the camera device over to a callback. If the device is already open,
+     * {@link CameraDevice.StateCallback#onOpened(CameraDevice)} is posted to it right away;
+     * otherwise the events of the device are passed on as they come. This is called once
+     * everything the callback needs is set up.
+     *
+     * @return {@code false} if the camera failed to open, so that it has to be opened again.
+     */
+    boolean adopt(final CameraDevice.StateCallback callback) {
+        final CameraDevice device;
+        synchronized (this) {
+            if (mFailed) {
+                return false;
+            }
+            mTarget = callback;
+            device = mCameraDevice;
+        }
+        if (device != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onOpened(device);
+                }
+            });
+        }
+        return true;
+    }
+
+    private synchronized CameraDevice.StateCallback getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * Handles a camera that failed before a callback was set.
+     */
+    private void fail(CameraDevice camera) {
+        final boolean taken;
+        synchronized (this) {
+            taken = mTaken;
+            if (taken) {
+                mFailed = true;
+                mCameraDevice = null;
+            }
+        }
+        camera.close();
+        if (!taken) {
+            release();
+        }
+    }
+
+    /**
+     * Closes the camera and the reader and ends the thread, unless a view took them over.
+     */
+    private void release() {
+        synchronized (Camera2Prewarm.class) {
+            if (sPending == this) {
+                sPending = null;
+            }
+        }
+        synchronized (this) {
+            if (mReleased || mTaken) {
+                return;
+            }
+            mReleased = true;
+            if (mCameraDevice != null) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            if (mImageReader != null) {
+                mImageReader.close();
+                mImageReader = null;
+            }
+        }
+        mThread.quitSafely();
+    }
+
+}
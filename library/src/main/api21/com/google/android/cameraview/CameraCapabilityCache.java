@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.SparseArrayCompat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the characteristics of the cameras for the whole process, so that each of them is only
+ * queried from the camera service once; every query is a binder call that takes milliseconds.
+ *
+ * <p>The characteristics of a camera never change, but cameras can come and go. When a camera
+ * that is not in the list becomes available, e.g. an external one that was plugged in, the whole
+ * cache is dropped. When a camera becomes unavailable, the list is queried again the next time
+ * it is needed, and the cameras that are no longer in it are dropped.</p>
+ */
+@TargetApi(21)
+class CameraCapabilityCache {
+
+    private static CameraCapabilityCache sInstance;
+
+    private final CameraManager mCameraManager;
+
+    private String[] mCameraIds;
+
+    private final Map<String, Capabilities> mCapabilities = new HashMap<>();
+
+    private final CameraManager.AvailabilityCallback mAvailabilityCallback
+            = new CameraManager.AvailabilityCallback() {
+        @Override
+        public void onCameraAvailable(String cameraId) {
+            // Also called when a known camera is closed, which does not change anything
+            if (!isKnown(cameraId)) {
+                invalidate();
+            }
+        }
+
+        @Override
+        public void onCameraUnavailable(String cameraId) {
+            // Also called when a camera is opened, which cannot be told apart from a removal
+            invalidateCameraIds();
+        }
+    };
+
+    /**
+     * @param context A context; the cache only keeps the application context.
+     * @return The cache of the process.
+     */
+    static synchronized CameraCapabilityCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new CameraCapabilityCache((CameraManager) context.getApplicationContext()
+                    .getSystemService(Context.CAMERA_SERVICE));
+        }
+        return sInstance;
+    }
+
+    private CameraCapabilityCache(CameraManager manager) {
+        mCameraManager = manager;
+        mCameraManager.registerAvailabilityCallback(mAvailabilityCallback,
+                new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * @return The IDs of the cameras. The array must not be modified.
+     */
+    synchronized String[] getCameraIds() throws CameraAccessException {
+        if (mCameraIds == null) {
+            mCameraIds = mCameraManager.getCameraIdList();
+            mCapabilities.keySet().retainAll(Arrays.asList(mCameraIds));
+        }
+        return mCameraIds;
+    }
+
+    /**
+     * @return The capabilities of the camera.
+     */
+    synchronized Capabilities getCapabilities(String cameraId) throws CameraAccessException {
+        Capabilities capabilities = mCapabilities.get(cameraId);
+        if (capabilities == null) {
+            capabilities = new Capabilities(cameraId,
+                    mCameraManager.getCameraCharacteristics(cameraId));
+            mCapabilities.put(cameraId, capabilities);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Drops everything, so that the cameras are queried again.
+     */
+    synchronized void invalidate() {
+        mCameraIds = null;
+        mCapabilities.clear();
+    }
+
+    /**
+     * Makes the camera IDs be queried again, keeping the capabilities of the cameras that are
+     * still there.
+     */
+    private synchronized void invalidateCameraIds() {
+        mCameraIds = null;
+    }
+
+    private synchronized boolean isKnown(String cameraId) {
+        return mCameraIds == null || Arrays.asList(mCameraIds).contains(cameraId);
+    }
+
+    /**
+     * What the library needs to know about a camera. The output sizes are read from the
+     * {@link StreamConfigurationMap} once for each class and format.
+     */
+    static class Capabilities {
+
+        private final String mCameraId;
+
+        private final CameraCharacteristics mCharacteristics;
+
+        private final Integer mFacing;
+
+        private final Integer mHardwareLevel;
+
+        private final int mSensorOrientation;
+
+        private final int[] mAfModes;
+
+        private final StreamConfigurationMap mMap;
+
+        private final Map<Class<?>, android.util.Size[]> mClassSizes = new HashMap<>();
+
+        private final SparseArrayCompat<android.util.Size[]> mFormatSizes
+                = new SparseArrayCompat<>();
+
+        private final SparseArrayCompat<android.util.Size[]> mHighResolutionSizes
+                = new SparseArrayCompat<>();
+
+        Capabilities(String cameraId, CameraCharacteristics characteristics) {
+            mCameraId = cameraId;
+            mCharacteristics = characteristics;
+            mFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            mHardwareLevel = characteristics.get(
+                    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            final Integer orientation = characteristics.get(
+                    CameraCharacteristics.SENSOR_ORIENTATION);
+            mSensorOrientation = orientation == null ? 0 : orientation;
+            mAfModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+            mMap = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        }
+
+        String getCameraId() {
+            return mCameraId;
+        }
+
+        /**
+         * @return All the characteristics, for the keys that are not cached here.
+         */
+        CameraCharacteristics getCharacteristics() {
+            return mCharacteristics;
+        }
+
+        /**
+         * @return The {@link CameraCharacteristics#LENS_FACING}, or {@code null}.
+         */
+        Integer getFacing() {
+            return mFacing;
+        }
+
+        /**
+         * @return The {@link CameraCharacteristics#INFO_SUPPORTED_HARDWARE_LEVEL}, or
+         * {@code null}.
+         */
+        Integer getHardwareLevel() {
+            return mHardwareLevel;
+        }
+
+        boolean isLegacy() {
+            return mHardwareLevel == null
+                    || mHardwareLevel == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        }
+
+        int getSensorOrientation() {
+            return mSensorOrientation;
+        }
+
+        /**
+         * @return The available auto-focus modes, or {@code null}.
+         */
+        int[] getAfModes() {
+            return mAfModes;
+        }
+
+        boolean hasStreamConfigurationMap() {
+            return mMap != null;
+        }
+
+        synchronized android.util.Size[] getOutputSizes(Class<?> klass) {
+            android.util.Size[] sizes = mClassSizes.get(klass);
+            if (sizes == null) {
+                sizes = mMap.getOutputSizes(klass);
+                mClassSizes.put(klass, sizes);
+            }
+            return sizes;
+        }
+
+        synchronized android.util.Size[] getOutputSizes(int format) {
+            android.util.Size[] sizes = mFormatSizes.get(format);
+            if (sizes == null) {
+                sizes = mMap.getOutputSizes(format);
+                mFormatSizes.put(format, sizes);
+            }
+            return sizes;
+        }
+
+        /**
+         * Adds the sizes of the pictures the camera can take: the high resolution sizes if
+         * there are any, or else the regular JPEG output sizes. Both {@link Camera2} and
+         * {@link Camera2Prewarm} choose the picture size from these.
+         */
+        void collectPictureSizes(SizeMap sizes) {
+            if (Build.VERSION.SDK_INT >= 23) {
+                final android.util.Size[] highResolution =
+                        getHighResolutionOutputSizes(ImageFormat.JPEG);
+                if (highResolution != null) {
+                    for (android.util.Size size : highResolution) {
+                        sizes.add(new Size(size.getWidth(), size.getHeight()));
+                    }
+                    return;
+                }
+            }
+            for (android.util.Size size : getOutputSizes(ImageFormat.JPEG)) {
+                sizes.add(new Size(size.getWidth(), size.getHeight()));
+            }
+        }
+
+        /**
+         * @return The high resolution output sizes, or {@code null} if there are none.
+         */
+        @TargetApi(23)
+        synchronized android.util.Size[] getHighResolutionOutputSizes(int format) {
+            android.util.Size[] sizes = mHighResolutionSizes.get(format);
+            if (sizes == null) {
+                sizes = mMap.getHighResolutionOutputSizes(format);
+                if (sizes == null) {
+                    sizes = new android.util.Size[0];
+                }
+                mHighResolutionSizes.put(format, sizes);
+            }
+            return sizes.length == 0 ? null : sizes;
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Remembers the exposure times of the last few preview capture results by sensor timestamp, so
+ * that they can be attached to the preview frames with the same timestamps. The results and the
+ * images come from different threads, in no particular order.
+ */
+class CaptureResultHistory {
+
+    private static final int SIZE = 8;
+
+    private final long[] mTimestamps = new long[SIZE];
+
+    private final long[] mExposureTimes = new long[SIZE];
+
+    private int mNext;
+
+    CaptureResultHistory() {
+        clear();
+    }
+
+    synchronized void record(long timestamp, long exposureTime) {
+        mTimestamps[mNext] = timestamp;
+        mExposureTimes[mNext] = exposureTime;
+        mNext = (mNext + 1) % SIZE;
+    }
+
+    /**
+     * @return The exposure time of the result with the specified timestamp, or
+     * {@link FrameMetadata#EXPOSURE_TIME_UNKNOWN}.
+     */
+    synchronized long findExposureTime(long timestamp) {
+        for (int i = 0; i < SIZE; i++) {
+            if (mTimestamps[i] == timestamp) {
+                return mExposureTimes[i];
+            }
+        }
+        return FrameMetadata.EXPOSURE_TIME_UNKNOWN;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < SIZE; i++) {
+            mTimestamps[i] = Long.MIN_VALUE;
+        }
+        mNext = 0;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+
+/**
+ * A {@link Frame} wrapping a {@code YUV_420_888} {@link Image} from an
+ * {@link android.media.ImageReader}. The plane buffers are used as they are, without copying.
+ */
+@TargetApi(21)
+class ImageFrame extends Frame {
+
+    interface Recycler {
+        void recycle(ImageFrame frame);
+    }
+
+    private final Recycler mRecycler;
+
+    private Image mImage;
+
+    /** Tracks the images of the reader that {@link #mImage} came from, or {@code null}. */
+    private DeferredCloser mReaderCloser;
+
+    ImageFrame(Recycler recycler) {
+        mRecycler = recycler;
+    }
+
+    void setImage(Image image) {
+        setImage(image, null);
+    }
+
+    /**
+     * @param readerCloser Where the image was counted as handed out from its reader; it is
+     *                     released when the image is closed.
+     */
+    void setImage(Image image, DeferredCloser readerCloser) {
+        mImage = image;
+        mReaderCloser = readerCloser;
+        setFormat(image.getFormat(), image.getWidth(), image.getHeight());
+        setTimestamp(image.getTimestamp());
+        final Image.Plane[] planes = image.getPlanes();
+        for (int i = 0; i < planes.length; i++) {
+            setPlane(i, planes[i].getBuffer(), planes[i].getRowStride(),
+                    planes[i].getPixelStride());
+        }
+    }
+
+    @Override
+    void recycle() {
+        if (mImage != null) {
+            mImage.close();
+            mImage = null;
+        }
+        if (mReaderCloser != null) {
+            mReaderCloser.release();
+            mReaderCloser = null;
+        }
+        for (int i = PLANE_Y; i <= PLANE_V; i++) {
+            setPlane(i, null, 0, 0);
+        }
+        mRecycler.recycle(this);
+    }
+
+}
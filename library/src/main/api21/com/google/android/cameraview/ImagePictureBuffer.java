@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+
+/**
+ * A {@link PictureBuffer} over the plane of a JPEG {@link Image}. The image is closed when the
+ * last reference is released.
+ */
+@TargetApi(21)
+class ImagePictureBuffer extends PictureBuffer {
+
+    private final Image mImage;
+
+    /** Run once the image is closed, if not {@code null}. */
+    private final Runnable mOnClosed;
+
+    ImagePictureBuffer(Image image, Runnable onClosed) {
+        super(image.getPlanes()[0].getBuffer());
+        mImage = image;
+        mOnClosed = onClosed;
+    }
+
+    @Override
+    void recycle() {
+        mImage.close();
+        if (mOnClosed != null) {
+            mOnClosed.run();
+        }
+    }
+
+}
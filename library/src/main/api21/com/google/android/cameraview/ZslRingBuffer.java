@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+
+/**
+ * Keeps the most recent full-resolution {@code YUV_420_888} images for zero shutter lag. When
+ * the ring is full, the oldest image is closed to make room for a new one.
+ *
+ * <p>The time of a button press is matched to the sensor timestamps of the images through the
+ * time at which each image arrived, so it does not matter which clock the camera uses for its
+ * timestamps. Because the arrival time includes the latency of the pipeline, the picked image is
+ * the one that was being shown in the preview when the button was pressed.</p>
+ */
+@TargetApi(21)
+class ZslRingBuffer {
+
+    /** How far from the press a frame can be to be picked for its sharpness, in nanoseconds. */
+    private static final long SHARPEST_WINDOW = 100000000L;
+
+    /** Only every n-th pixel of every n-th row is sampled to score the sharpness. */
+    private static final int SHARPNESS_STEP = 4;
+
+    private final Image[] mImages;
+
+    private final long[] mTimestamps;
+
+    private final long[] mArrivals;
+
+    private final long[] mScores;
+
+    /** The index of the oldest image. */
+    private int mHead;
+
+    private int mCount;
+
+    ZslRingBuffer(int capacity) {
+        mImages = new Image[capacity];
+        mTimestamps = new long[capacity];
+        mArrivals = new long[capacity];
+        mScores = new long[capacity];
+    }
+
+    /**
+     * Adds an image as the most recent one. The ring takes over the image.
+     *
+     * @param image   The image.
+     * @param arrival The {@link System#nanoTime()} at which the image arrived.
+     */
+    synchronized void add(Image image, long arrival) {
+        if (mCount == mImages.length) {
+            mImages[mHead].close();
+            mImages[mHead] = null;
+            mHead = (mHead + 1) % mImages.length;
+            mCount--;
+        }
+        final int index = (mHead + mCount) % mImages.length;
+        mImages[index] = image;
+        mTimestamps[index] = image.getTimestamp();
+        mArrivals[index] = arrival;
+        mScores[index] = 0;
+        mCount++;
+    }
+
+    /**
+     * @param pressTime The {@link System#nanoTime()} at which the button was pressed.
+     * @return {@code true} if an image arrived after {@code pressTime}, so that no later image
+     * can be closer to the press.
+     */
+    synchronized boolean hasImageAfter(long pressTime) {
+        return mCount > 0 && mArrivals[(mHead + mCount - 1) % mImages.length] >= pressTime;
+    }
+
+    /**
+     * Removes the image to make a picture of from the ring.
+     *
+     * @param pressTime The {@link System#nanoTime()} at which the button was pressed.
+     * @param sharpest  {@code true} to pick the sharpest image around the press rather than the
+     *                  closest one.
+     * @return The image, or {@code null} if the ring is empty. The caller closes it.
+     */
+    synchronized Image take(long pressTime, boolean sharpest) {
+        if (mCount == 0) {
+            return null;
+        }
+        // The smallest offset has the least scheduling noise on top of the pipeline latency
+        long offset = Long.MAX_VALUE;
+        final long[] timestamps = new long[mCount];
+        for (int i = 0; i < mCount; i++) {
+            final int index = (mHead + i) % mImages.length;
+            timestamps[i] = mTimestamps[index];
+            offset = Math.min(offset, mArrivals[index] - mTimestamps[index]);
+        }
+        final long target = pressTime - offset;
+        final int selected;
+        if (sharpest) {
+            final long[] scores = new long[mCount];
+            for (int i = 0; i < mCount; i++) {
+                scores[i] = -1;
+                if (Math.abs(timestamps[i] - target) <= SHARPEST_WINDOW) {
+                    scores[i] = score((mHead + i) % mImages.length);
+                }
+            }
+            selected = FrameSelector.selectSharpest(timestamps, scores, mCount, target,
+                    SHARPEST_WINDOW);
+        } else {
+            selected = FrameSelector.selectClosest(timestamps, mCount, target);
+        }
+        final int index = (mHead + selected) % mImages.length;
+        final Image image = mImages[index];
+        // Close the gap, keeping the order of the others
+        for (int i = selected; i < mCount - 1; i++) {
+            final int to = (mHead + i) % mImages.length;
+            final int from = (to + 1) % mImages.length;
+            mImages[to] = mImages[from];
+            mTimestamps[to] = mTimestamps[from];
+            mArrivals[to] = mArrivals[from];
+            mScores[to] = mScores[from];
+        }
+        mCount--;
+        mImages[(mHead + mCount) % mImages.length] = null;
+        return image;
+    }
+
+    /**
+     * Closes all the images.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < mCount; i++) {
+            final int index = (mHead + i) % mImages.length;
+            mImages[index].close();
+            mImages[index] = null;
+        }
+        mHead = 0;
+        mCount = 0;
+    }
+
+    private long score(int index) {
+        if (mScores[index] == 0) {
+            final Image image = mImages[index];
+            final Image.Plane luma = image.getPlanes()[0];
+            // Never 0, so that the score is only computed once
+            mScores[index] = 1 + FrameSelector.sharpness(luma.getBuffer(), image.getWidth(),
+                    image.getHeight(), luma.getRowStride(), SHARPNESS_STEP);
+        }
+        return mScores[index];
+    }
+
+}
@@ -18,8 +18,6 @@ package com.google.android.cameraview;
 
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.graphics.ImageFormat;
-import android.hardware.camera2.params.StreamConfigurationMap;
 
 
 @TargetApi(23)
@@ -29,18 +27,4 @@ class Camera2Api23 extends Camera2 {
         super(callback, preview, context);
     }
 
-    @Override
-    protected void collectPictureSizes(SizeMap sizes, StreamConfigurationMap map) {
-        // Try to get hi-res output sizes
-        android.util.Size[] outputSizes = map.getHighResolutionOutputSizes(ImageFormat.JPEG);
-        if (outputSizes != null) {
-            for (android.util.Size size : map.getHighResolutionOutputSizes(ImageFormat.JPEG)) {
-                sizes.add(new Size(size.getWidth(), size.getHeight()));
-            }
-        }
-        if (sizes.isEmpty()) {
-            super.collectPictureSizes(sizes, map);
-        }
-    }
-
 }
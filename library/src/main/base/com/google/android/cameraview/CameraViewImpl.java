@@ -25,7 +25,11 @@ abstract class CameraViewImpl {
     protected final Callback mCallback;
     protected final PreviewImpl mPreview;
     protected boolean mIsRecordingVideo;
-    protected int mFacing = CameraView.FACING_BACK;
+    protected volatile int mFacing = CameraView.FACING_BACK;
+    protected FrameDispatcher mFrameDispatcher;
+
+    /** The capabilities found on earlier runs, or {@code null}. */
+    protected CapabilitySnapshot mCapabilitySnapshot;
 
     CameraViewImpl(Callback callback, PreviewImpl preview) {
         mCallback = callback;
@@ -36,11 +40,52 @@ abstract class CameraViewImpl {
         return mPreview.getView();
     }
 
+    void setFrameDispatcher(FrameDispatcher dispatcher) {
+        mFrameDispatcher = dispatcher;
+    }
+
+    /**
+     * Sets the snapshot to configure the camera from before it is queried, and to record what is
+     * found about the cameras into.
+     */
+    void setCapabilitySnapshot(CapabilitySnapshot snapshot) {
+        mCapabilitySnapshot = snapshot;
+    }
+
+    /**
+     * @return {@code true} if preview frames should be delivered to {@link #mFrameDispatcher}.
+     */
+    boolean isFrameStreamEnabled() {
+        return mFrameDispatcher != null && mFrameDispatcher.hasProcessors();
+    }
+
     /**
      * @return {@code true} if the implementation was able to start the camera session.
      */
     abstract boolean start();
 
+    /**
+     * Starts the camera like {@link #start()}, but does not wait for the camera if the
+     * implementation opens it on a thread of its own. By default, this calls {@link #start()}.
+     *
+     * @param callback Called once the camera is started or failed to start, on any thread. It
+     *                 is not called if this returns {@code false}.
+     * @return {@code false} like {@link #start()}.
+     */
+    boolean startAsync(StartCallback callback) {
+        final boolean started;
+        try {
+            started = start();
+        } catch (RuntimeException e) {
+            callback.onStartFinished(e);
+            return true;
+        }
+        if (started) {
+            callback.onStartFinished(null);
+        }
+        return started;
+    }
+
     abstract void stop();
 
     abstract void setVideoSavePath(String path);
@@ -72,22 +117,114 @@ abstract class CameraViewImpl {
 
     abstract int getFlash();
 
-    abstract void takePicture();
+    /**
+     * Sets the zero shutter lag mode. Implementations that cannot keep recent frames stay at
+     * {@link Constants#ZSL_OFF}.
+     */
+    abstract void setZeroShutterLag(int mode);
+
+    abstract int getZeroShutterLag();
+
+    /**
+     * Takes a picture. The result is passed to {@link Callback#onPictureTaken} with the request,
+     * or the request is passed to {@link Callback#onPictureFailed} if it cannot be served.
+     */
+    abstract void takePicture(PictureRequest request);
+
+    /**
+     * Sets how the size of the pictures is chosen. It takes effect right away if the camera is
+     * open.
+     */
+    abstract void setPictureSizePolicy(PictureSizePolicy policy);
+
+    /**
+     * Asks the camera to embed a thumbnail of about this size in the EXIF data of its pictures,
+     * if it can.
+     *
+     * @param maxSize The desired length of the longer side, or 0 for the default of the camera.
+     */
+    void setThumbnailSize(int maxSize) {
+    }
+
+    /**
+     * Sets how long a phase of taking a picture may take. Implementations that do not time the
+     * phases ignore this.
+     *
+     * @param phase   One of the {@code Constants.CAPTURE_PHASE_*} constants.
+     * @param timeout The timeout in milliseconds, or 0 for none.
+     */
+    void setCaptureTimeout(int phase, long timeout) {
+    }
+
+    /**
+     * @return The timeout of the phase in milliseconds, or 0 if there is none.
+     */
+    long getCaptureTimeout(int phase) {
+        return 0;
+    }
+
+    /**
+     * @return How long the preview froze while the last picture was taken in nanoseconds, or -1
+     * if it was not measured.
+     */
+    long getLastPreviewStall() {
+        return -1;
+    }
+
+    /**
+     * @return The counts of the picture requests, or {@code null} if the implementation does not
+     * queue them.
+     */
+    PictureStats getPictureStats() {
+        return null;
+    }
 
     abstract void setDisplayOrientation(int displayOrientation);
 
+    /**
+     * Called when frame processors are added to or removed from {@link #mFrameDispatcher}, so
+     * that the implementation can start or stop producing preview frames.
+     */
+    abstract void updateFrameStream();
+
     interface Callback {
 
         void onCameraOpened();
 
         void onCameraClosed();
 
-        void onPictureTaken(byte[] data);
+        /**
+         * @param picture The JPEG data. The callback takes over the reference and closes it.
+         * @param request The request the picture was taken for.
+         */
+        void onPictureTaken(PictureBuffer picture, PictureRequest request);
+
+        /**
+         * Called when a picture could not be taken, for example because another one was still
+         * being taken, or the camera was closed.
+         */
+        void onPictureFailed(PictureRequest request);
 
         void onRecordFinished(String videoPath);
 
         void onRecordError(String errorMsg);
 
+        /**
+         * Called when the camera cannot stream preview frames along with its other outputs, so
+         * that the frame processors get no frames.
+         */
+        void onFrameStreamFailed();
+
+    }
+
+    interface StartCallback {
+
+        /**
+         * @param error The error that kept the camera from starting, or {@code null} if it was
+         *              started.
+         */
+        void onStartFinished(RuntimeException error);
+
     }
 
 }
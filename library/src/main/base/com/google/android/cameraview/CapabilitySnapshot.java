@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.content.Context;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * What was discovered about the cameras of this device on an earlier run, so that the next
+ * start can pick a camera and configure its sizes without asking the camera service first.
+ *
+ * <p>The snapshot is stored in a small binary file, which is only valid for the same
+ * {@code Build.FINGERPRINT}: a system update can change the cameras. The camera
+ * implementations check the snapshot against the real capabilities after the camera is started
+ * and replace the entries that turned out to be wrong.</p>
+ *
+ * <p>File format, big-endian: the magic number, the version, the fingerprint, flags, the number
+ * of cameras and the cameras, followed by a CRC32 of all of that. Strings are a 2-byte length
+ * and UTF-8 bytes; sizes are a 2-byte count and pairs of 2-byte width and height.</p>
+ */
+class CapabilitySnapshot {
+
+    static final int API_CAMERA1 = 1;
+
+    static final int API_CAMERA2 = 2;
+
+    /** "CVCS" */
+    private static final int MAGIC = 0x43564353;
+
+    /** Incremented whenever the format changes; older files are ignored. */
+    static final int VERSION = 2;
+
+    /** Camera2 only offered a legacy camera for the back facing. */
+    private static final int FLAG_CAMERA2_LEGACY_BACK = 1;
+
+    /** Camera2 only offered a legacy camera for the front facing. */
+    private static final int FLAG_CAMERA2_LEGACY_FRONT = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** How much of the data is checksummed at a time. */
+    private static final int CRC_CHUNK_SIZE = 1024;
+
+    /** The background thread goes away after being idle for this long. */
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    /** The name of the file in the cache directory that keeps the snapshot. */
+    private static final String FILE_NAME = "cameraview_capabilities";
+
+    /** Loaded once per process, and shared by all the views. */
+    private static CapabilitySnapshot sInstance;
+
+    /** Saves the snapshots, one at a time, in the background. */
+    private static ThreadPoolExecutor sExecutor;
+
+    private final String mFingerprint;
+
+    private final File mFile;
+
+    private final List<Camera> mCameras = new ArrayList<>();
+
+    /** Serializes the writes to {@link #mFile}. */
+    private final Object mSaveLock = new Object();
+
+    /** The {@code FLAG_CAMERA2_LEGACY_*} flags of the facings that fall back to Camera1. */
+    private int mCamera2LegacyFlags;
+
+    private boolean mDirty;
+
+    /**
+     * @param fingerprint The build fingerprint of the device.
+     * @param file        The file to save the snapshot to, or {@code null}.
+     */
+    CapabilitySnapshot(String fingerprint, File file) {
+        mFingerprint = fingerprint;
+        mFile = file;
+    }
+
+    /**
+     * Returns the snapshot of the process, loading it on first use. Callers on other threads
+     * wait for the load meanwhile.
+     */
+    static synchronized CapabilitySnapshot get(Context context) {
+        if (sInstance == null) {
+            sInstance = load(new File(context.getCacheDir(), FILE_NAME), Build.FINGERPRINT);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Loads a snapshot from a file. The file is mapped into memory rather than read.
+     *
+     * @return The snapshot in the file, or an empty one if the file does not exist, is damaged,
+     * or is for another build or version.
+     */
+    static CapabilitySnapshot load(File file, String fingerprint) {
+        final CapabilitySnapshot snapshot = new CapabilitySnapshot(fingerprint, file);
+        if (!file.exists()) {
+            return snapshot;
+        }
+        try {
+            final FileInputStream in = new FileInputStream(file);
+            try {
+                final FileChannel channel = in.getChannel();
+                snapshot.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            snapshot.clear();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the snapshot from the data, unless it is damaged or for another build or version.
+     *
+     * @return {@code true} if the data was read.
+     */
+    synchronized boolean parse(ByteBuffer data) {
+        clear();
+        try {
+            if (data.remaining() < 8) {
+                return false;
+            }
+            // The data is read where it is, e.g. in the mapped file; only the checksum goes
+            // through a small buffer
+            final int end = data.limit() - 8;
+            final ByteBuffer in = data.duplicate();
+            in.limit(end);
+            final CRC32 crc = new CRC32();
+            final byte[] chunk = new byte[Math.min(CRC_CHUNK_SIZE, in.remaining())];
+            while (in.hasRemaining()) {
+                final int length = Math.min(chunk.length, in.remaining());
+                in.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+            if (data.getLong(end) != crc.getValue()) {
+                return false;
+            }
+            in.position(data.position());
+            if (in.getInt() != MAGIC || in.getShort() != VERSION
+                    || !mFingerprint.equals(readString(in))) {
+                return false;
+            }
+            final int flags = in.get();
+            final int count = in.getShort();
+            final List<Camera> cameras = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final int api = in.get();
+                final String id = readString(in);
+                final int facing = in.get();
+                final int orientation = in.getShort();
+                final boolean legacy = in.get() != 0;
+                cameras.add(new Camera(api, id, facing, orientation, legacy, readSizes(in),
+                        readSizes(in), readSizes(in)));
+            }
+            mCameras.addAll(cameras);
+            mCamera2LegacyFlags = flags & (FLAG_CAMERA2_LEGACY_BACK | FLAG_CAMERA2_LEGACY_FRONT);
+            return true;
+        } catch (BufferUnderflowException e) {
+            clear();
+            return false;
+        }
+    }
+
+    synchronized byte[] toByteArray() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            writeString(out, mFingerprint);
+            out.writeByte(mCamera2LegacyFlags);
+            out.writeShort(mCameras.size());
+            for (Camera camera : mCameras) {
+                out.writeByte(camera.mApi);
+                writeString(out, camera.mId);
+                out.writeByte(camera.mFacing);
+                out.writeShort(camera.mOrientation);
+                out.writeByte(camera.mLegacy ? 1 : 0);
+                writeSizes(out, camera.mPreviewSizes);
+                writeSizes(out, camera.mPictureSizes);
+                writeSizes(out, camera.mVideoSizes);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the snapshot to its file if it changed since it was loaded or saved. This should
+     * not be called on the main thread.
+     */
+    void save() {
+        // The data is taken under the lock, so that an older snapshot never overwrites a newer
+        synchronized (mSaveLock) {
+            final byte[] data;
+            synchronized (this) {
+                if (!mDirty || mFile == null) {
+                    return;
+                }
+                data = toByteArray();
+                mDirty = false;
+            }
+            try {
+                PictureWriter.writeFile(ByteBuffer.wrap(data), mFile);
+            } catch (IOException e) {
+                synchronized (this) {
+                    mDirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the snapshot on the background thread if it changed.
+     */
+    void saveInBackground() {
+        synchronized (this) {
+            if (!mDirty || mFile == null) {
+                return;
+            }
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    private static synchronized void execute(Runnable task) {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, "CapabilitySnapshot");
+                        }
+                    });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        sExecutor.execute(task);
+    }
+
+    /**
+     * @return The first camera of the API with the facing that is not a legacy one, or
+     * {@code null} if none is known.
+     */
+    synchronized Camera find(int api, int facing) {
+        for (Camera camera : mCameras) {
+            if (camera.mApi == api && camera.mFacing == facing && !camera.mLegacy) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a camera, replacing the one with the same API and ID.
+     */
+    synchronized void put(Camera camera) {
+        for (int i = 0; i < mCameras.size(); i++) {
+            final Camera existing = mCameras.get(i);
+            if (existing.mApi == camera.mApi && existing.mId.equals(camera.mId)) {
+                if (!existing.equals(camera)) {
+                    mCameras.set(i, camera);
+                    mDirty = true;
+                }
+                return;
+            }
+        }
+        mCameras.add(camera);
+        mDirty = true;
+    }
+
+    /**
+     * Removes a camera that turned out not to exist anymore.
+     */
+    synchronized void remove(int api, String id) {
+        for (int i = 0; i < mCameras.size(); i++) {
+            final Camera existing = mCameras.get(i);
+            if (existing.mApi == api && existing.mId.equals(id)) {
+                mCameras.remove(i);
+                mDirty = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if Camera2 only offered a legacy camera for the facing, so that
+     * Camera1 is used for it.
+     */
+    synchronized boolean isCamera2Legacy(int facing) {
+        return (mCamera2LegacyFlags & legacyFlag(facing)) != 0;
+    }
+
+    synchronized void setCamera2Legacy(int facing, boolean legacy) {
+        final int flags = legacy ? mCamera2LegacyFlags | legacyFlag(facing)
+                : mCamera2LegacyFlags & ~legacyFlag(facing);
+        if (mCamera2LegacyFlags != flags) {
+            mCamera2LegacyFlags = flags;
+            mDirty = true;
+        }
+    }
+
+    private static int legacyFlag(int facing) {
+        return facing == Constants.FACING_FRONT ? FLAG_CAMERA2_LEGACY_FRONT
+                : FLAG_CAMERA2_LEGACY_BACK;
+    }
+
+    private synchronized void clear() {
+        mCameras.clear();
+        mCamera2LegacyFlags = 0;
+        mDirty = false;
+    }
+
+    /**
+     * Replaces the contents of a {@link SizeMap} with sizes from a snapshot.
+     */
+    static void fill(SizeMap map, Size[] sizes) {
+        map.clear();
+        for (Size size : sizes) {
+            map.add(size);
+        }
+    }
+
+    /**
+     * @return All the sizes in a {@link SizeMap}, for a snapshot.
+     */
+    static Size[] flatten(SizeMap map) {
+        final List<Size> sizes = new ArrayList<>();
+        for (AspectRatio ratio : map.ratios()) {
+            sizes.addAll(map.sizes(ratio));
+        }
+        return sizes.toArray(new Size[sizes.size()]);
+    }
+
+    private static String readString(ByteBuffer in) {
+        final byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Size[] readSizes(ByteBuffer in) {
+        final Size[] sizes = new Size[in.getShort() & 0xffff];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Size(in.getShort() & 0xffff, in.getShort() & 0xffff);
+        }
+        return sizes;
+    }
+
+    private static void writeSizes(DataOutputStream out, Size[] sizes) throws IOException {
+        out.writeShort(sizes.length);
+        for (Size size : sizes) {
+            out.writeShort(size.getWidth());
+            out.writeShort(size.getHeight());
+        }
+    }
+
+    /**
+     * A camera as seen through one of the camera APIs.
+     */
+    static class Camera {
+
+        final int mApi;
+
+        final String mId;
+
+        /** {@link Constants#FACING_BACK} or {@link Constants#FACING_FRONT}. */
+        final int mFacing;
+
+        /** The orientation of the sensor in degrees. */
+        final int mOrientation;
+
+        /** Whether the camera is a legacy one that Camera2 does not use. */
+        final boolean mLegacy;
+
+        final Size[] mPreviewSizes;
+
+        final Size[] mPictureSizes;
+
+        final Size[] mVideoSizes;
+
+        Camera(int api, String id, int facing, int orientation, boolean legacy,
+                Size[] previewSizes, Size[] pictureSizes, Size[] videoSizes) {
+            mApi = api;
+            mId = id;
+            mFacing = facing;
+            mOrientation = orientation;
+            mLegacy = legacy;
+            mPreviewSizes = previewSizes;
+            mPictureSizes = pictureSizes;
+            mVideoSizes = videoSizes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Camera)) {
+                return false;
+            }
+            final Camera other = (Camera) o;
+            return mApi == other.mApi && mId.equals(other.mId) && mFacing == other.mFacing
+                    && mOrientation == other.mOrientation && mLegacy == other.mLegacy
+                    && sameSizes(mPreviewSizes, other.mPreviewSizes)
+                    && sameSizes(mPictureSizes, other.mPictureSizes)
+                    && sameSizes(mVideoSizes, other.mVideoSizes);
+        }
+
+        @Override
+        public int hashCode() {
+            return mId.hashCode() * 31 + mApi;
+        }
+
+        /**
+         * Compares sizes regardless of their order, which differs between a {@link SizeMap}
+         * and the lists of the camera.
+         */
+        private static boolean sameSizes(Size[] a, Size[] b) {
+            if (a.length != b.length) {
+                return false;
+            }
+            return new HashSet<>(Arrays.asList(a))
+                    .equals(new HashSet<>(Arrays.asList(b)));
+        }
+
+    }
+
+}
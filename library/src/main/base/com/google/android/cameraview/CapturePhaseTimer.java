@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Times the phases of taking a still picture, and holds the deadline of each phase after which
+ * the capture goes ahead without waiting for the camera any longer.
+ */
+class CapturePhaseTimer {
+
+    /** Waiting for the auto-focus to lock. */
+    static final int PHASE_FOCUS = 0;
+
+    /** Waiting for the auto-exposure to start the precapture sequence. */
+    static final int PHASE_PRECAPTURE = 1;
+
+    /** Waiting for the auto-exposure to finish the precapture sequence. */
+    static final int PHASE_EXPOSURE = 2;
+
+    /** From the still capture request until the picture is available. */
+    static final int PHASE_CAPTURE = 3;
+
+    static final int PHASE_COUNT = 4;
+
+    private static final String[] PHASE_NAMES = {"focus", "precapture", "exposure", "capture"};
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** The timeout of each phase in milliseconds, or 0 for none. */
+    private final long[] mTimeouts = {1000, 500, 1000, 0};
+
+    private final long[] mDurations = new long[PHASE_COUNT];
+
+    private final boolean[] mTimedOut = new boolean[PHASE_COUNT];
+
+    private int mPhase = -1;
+
+    private long mPhaseStart;
+
+    private long mStart = -1;
+
+    private long mTotal;
+
+    /**
+     * @return The name of {@code phase} for logging.
+     */
+    static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * @param phase   The phase.
+     * @param timeout How long the phase can take in milliseconds, or 0 to wait as long as it
+     *                takes.
+     */
+    synchronized void setTimeout(int phase, long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout must not be negative.");
+        }
+        mTimeouts[phase] = timeout;
+    }
+
+    /**
+     * @return The timeout of {@code phase} in milliseconds, or 0 for none.
+     */
+    synchronized long getTimeout(int phase) {
+        return mTimeouts[phase];
+    }
+
+    /**
+     * Starts timing a new picture.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    synchronized void start(long now) {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mDurations[i] = 0;
+            mTimedOut[i] = false;
+        }
+        mPhase = -1;
+        mStart = now;
+        mTotal = 0;
+    }
+
+    /**
+     * Ends the current phase and starts another one. Entering the current phase again has no
+     * effect.
+     *
+     * @param phase The new phase, or -1 for none.
+     * @param now   The current {@link System#nanoTime()}.
+     */
+    synchronized void enter(int phase, long now) {
+        if (phase == mPhase || mStart < 0) {
+            return;
+        }
+        endPhase(now);
+        mPhase = phase;
+        mPhaseStart = now;
+    }
+
+    /**
+     * Records that the current phase was cut short by its timeout.
+     */
+    synchronized void onTimedOut(int phase) {
+        mTimedOut[phase] = true;
+    }
+
+    /**
+     * Ends the timing of the current picture.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     * @return The total time taken in nanoseconds, or -1 if no picture was being timed.
+     */
+    synchronized long finish(long now) {
+        if (mStart < 0) {
+            return -1;
+        }
+        endPhase(now);
+        mPhase = -1;
+        mTotal = now - mStart;
+        mStart = -1;
+        return mTotal;
+    }
+
+    /**
+     * @return How long {@code phase} took for the last picture in nanoseconds.
+     */
+    synchronized long getDuration(int phase) {
+        return mDurations[phase];
+    }
+
+    synchronized boolean hasTimedOut(int phase) {
+        return mTimedOut[phase];
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("total ").append(mTotal / NANOS_PER_MILLI).append(" ms");
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            builder.append(", ").append(PHASE_NAMES[i]).append(' ')
+                    .append(mDurations[i] / NANOS_PER_MILLI).append(" ms");
+            if (mTimedOut[i]) {
+                builder.append(" (timed out)");
+            }
+        }
+        return builder.toString();
+    }
+
+    private void endPhase(long now) {
+        if (mPhase >= 0) {
+            mDurations[mPhase] += now - mPhaseStart;
+        }
+    }
+
+}
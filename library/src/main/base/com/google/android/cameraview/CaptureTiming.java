@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Where the time went between a call to take a picture and the delivery of its JPEG data.
+ *
+ * <p>Each event is a {@link System#nanoTime()} timestamp, or {@link #NOT_REACHED} when the
+ * capture did not go through that step: Camera1 has no precapture sequence, the focus is not
+ * locked when auto-focus is off or reused, and zero shutter lag pictures skip both. For a burst,
+ * the events are those of the first picture.</p>
+ */
+public class CaptureTiming {
+
+    /** The value of an event that did not happen. */
+    public static final long NOT_REACHED = -1;
+
+    /** The picture was requested. */
+    public static final int EVENT_REQUEST = 0;
+
+    /** The auto-focus was locked. */
+    public static final int EVENT_FOCUS_LOCKED = 1;
+
+    /** The auto-exposure precapture sequence was done, and the still capture was requested. */
+    public static final int EVENT_PRECAPTURE_DONE = 2;
+
+    /** The sensor finished capturing the picture. */
+    public static final int EVENT_CAPTURE_COMPLETED = 3;
+
+    /** The JPEG data became available. */
+    public static final int EVENT_IMAGE_AVAILABLE = 4;
+
+    /** The picture was handed over to the callbacks, or to the writer for a file. */
+    public static final int EVENT_DISPATCHED = 5;
+
+    static final int EVENT_COUNT = 6;
+
+    private static final String[] EVENT_NAMES = {"request", "focus", "precapture", "capture",
+            "image", "dispatch"};
+
+    /** A step of taking a picture. */
+    @IntDef({EVENT_REQUEST, EVENT_FOCUS_LOCKED, EVENT_PRECAPTURE_DONE, EVENT_CAPTURE_COMPLETED,
+            EVENT_IMAGE_AVAILABLE, EVENT_DISPATCHED})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Event {
+    }
+
+    private final long[] mTimes;
+
+    CaptureTiming(long[] times) {
+        mTimes = times.clone();
+    }
+
+    /**
+     * @param event The event.
+     * @return The {@link System#nanoTime()} of the event, or {@link #NOT_REACHED}.
+     */
+    public long getTime(@Event int event) {
+        return mTimes[event];
+    }
+
+    /**
+     * @param event The event.
+     * @return The nanoseconds from the request to the event, or {@link #NOT_REACHED}.
+     */
+    public long getElapsed(@Event int event) {
+        final long time = mTimes[event];
+        return time == NOT_REACHED ? NOT_REACHED : time - mTimes[EVENT_REQUEST];
+    }
+
+    /**
+     * @return The nanoseconds from the request until the picture was dispatched, or
+     * {@link #NOT_REACHED}.
+     */
+    public long getTotal() {
+        return getElapsed(EVENT_DISPATCHED);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("CaptureTiming{");
+        for (int i = EVENT_REQUEST + 1; i < EVENT_COUNT; i++) {
+            if (i > EVENT_REQUEST + 1) {
+                builder.append(", ");
+            }
+            builder.append(EVENT_NAMES[i]).append('=');
+            final long elapsed = getElapsed(i);
+            if (elapsed == NOT_REACHED) {
+                builder.append('-');
+            } else {
+                builder.append(elapsed / 1000000).append("ms");
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.Arrays;
+
+/**
+ * Rolling percentiles of the time from the request to each {@link CaptureTiming} event, over
+ * the most recent captures.
+ */
+class CaptureTimingStats {
+
+    private final long[][] mSamples;
+
+    /** The number of samples of each event, up to the window size. */
+    private final int[] mCounts = new int[CaptureTiming.EVENT_COUNT];
+
+    /** Where the next sample of each event goes. */
+    private final int[] mNext = new int[CaptureTiming.EVENT_COUNT];
+
+    /**
+     * @param window The number of most recent samples of each event to keep.
+     */
+    CaptureTimingStats(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must hold at least one sample.");
+        }
+        mSamples = new long[CaptureTiming.EVENT_COUNT][window];
+    }
+
+    synchronized void add(CaptureTiming timing) {
+        for (int event = 0; event < CaptureTiming.EVENT_COUNT; event++) {
+            final long elapsed = timing.getElapsed(event);
+            if (elapsed == CaptureTiming.NOT_REACHED) {
+                continue;
+            }
+            final long[] samples = mSamples[event];
+            samples[mNext[event]] = elapsed;
+            mNext[event] = (mNext[event] + 1) % samples.length;
+            mCounts[event] = Math.min(mCounts[event] + 1, samples.length);
+        }
+    }
+
+    /**
+     * @param event      The event.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The time from the request to the event at that percentile in nanoseconds, or
+     * {@link CaptureTiming#NOT_REACHED} if no capture reached the event yet.
+     */
+    synchronized long getPercentile(int event, int percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+        final int count = mCounts[event];
+        if (count == 0) {
+            return CaptureTiming.NOT_REACHED;
+        }
+        final long[] sorted = Arrays.copyOf(mSamples[event], count);
+        Arrays.sort(sorted);
+        // Nearest rank
+        final int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    synchronized int getSampleCount(int event) {
+        return mCounts[event];
+    }
+
+}
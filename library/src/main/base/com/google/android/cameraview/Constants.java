@@ -30,6 +30,20 @@ interface Constants {
     int FLASH_AUTO = 3;
     int FLASH_RED_EYE = 4;
 
+    int FRAME_DELIVERY_LATEST = 0;
+    int FRAME_DELIVERY_DROP_OLDEST = 1;
+    int FRAME_DELIVERY_BLOCK = 2;
+    int FRAME_DELIVERY_EVERY_NTH = 3;
+
+    int ZSL_OFF = 0;
+    int ZSL_CLOSEST = 1;
+    int ZSL_SHARPEST = 2;
+
+    int CAPTURE_PHASE_FOCUS = 0;
+    int CAPTURE_PHASE_PRECAPTURE = 1;
+    int CAPTURE_PHASE_EXPOSURE = 2;
+    int CAPTURE_PHASE_PICTURE = 3;
+
     int LANDSCAPE_90 = 90;
     int LANDSCAPE_270 = 270;
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * A {@link FrameProcessor} stage that center-crops each preview frame to the aspect ratio of a
+ * target size, scales it down to that size in YUV, and passes the small frame on to another
+ * processor. Stages after this one, such as a {@link YuvConverter}, only touch the pixels they
+ * need.
+ *
+ * <p>The target size is given as seen on the display. The crop rectangle follows
+ * {@link Frame#getRotation()}, but the pixels are not rotated: for a frame that must be rotated
+ * by 90 or 270 degrees, the output frame is {@code height} pixels wide and {@code width} pixels
+ * high, and it has the same rotation as the source frame.</p>
+ *
+ * <p>The output frames are pooled NV21 frames with the metadata of their source frames; the
+ * downstream processor can {@link Frame#retain()} them like any other frame.</p>
+ */
+public class CropScaleProcessor implements FrameProcessor {
+
+    /** The number of output frames that can be retained by the downstream processor at once. */
+    private static final int POOL_SIZE = 2;
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private final FrameProcessor mDownstream;
+
+    private final YuvScaler mScaler;
+
+    private final ArrayDeque<Nv21Frame> mPool = new ArrayDeque<>();
+
+    private final Nv21Frame.Recycler mRecycler = new Nv21Frame.Recycler() {
+        @Override
+        public void recycle(Nv21Frame frame) {
+            synchronized (mPool) {
+                if (mPool.size() < POOL_SIZE) {
+                    mPool.offer(frame);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param width      The width of the output as seen on the display.
+     * @param height     The height of the output as seen on the display.
+     * @param downstream The processor receiving the scaled frames.
+     */
+    public CropScaleProcessor(int width, int height, @NonNull FrameProcessor downstream) {
+        this(width, height, YuvScaler.FILTER_BOX, downstream);
+    }
+
+    /**
+     * @param width      The width of the output as seen on the display.
+     * @param height     The height of the output as seen on the display.
+     * @param filter     The filter used for scaling.
+     * @param downstream The processor receiving the scaled frames.
+     */
+    public CropScaleProcessor(int width, int height, @YuvScaler.Filter int filter,
+            @NonNull FrameProcessor downstream) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mScaler = new YuvScaler(filter);
+        mDownstream = downstream;
+    }
+
+    @Override
+    public void process(@NonNull Frame frame) {
+        final boolean rotated = frame.getRotation() % 180 != 0;
+        final int dstWidth = rotated ? mHeight : mWidth;
+        final int dstHeight = rotated ? mWidth : mHeight;
+        final int frameWidth = frame.getWidth();
+        final int frameHeight = frame.getHeight();
+        // The largest rectangle with the aspect ratio of the output
+        int cropWidth = frameWidth;
+        int cropHeight = frameHeight;
+        if ((long) frameWidth * dstHeight > (long) frameHeight * dstWidth) {
+            cropWidth = (int) ((long) frameHeight * dstWidth / dstHeight);
+        } else {
+            cropHeight = (int) ((long) frameWidth * dstHeight / dstWidth);
+        }
+        final Nv21Frame output = obtain(dstWidth, dstHeight);
+        mScaler.scale(frame, (frameWidth - cropWidth) / 2, (frameHeight - cropHeight) / 2,
+                cropWidth, cropHeight, output.getData(), dstWidth, dstHeight);
+        output.getMetadata().set(frame.getMetadata());
+        output.acquire();
+        try {
+            mDownstream.process(output);
+        } finally {
+            output.release();
+        }
+    }
+
+    private Nv21Frame obtain(int width, int height) {
+        synchronized (mPool) {
+            while (!mPool.isEmpty()) {
+                final Nv21Frame frame = mPool.poll();
+                if (frame.getWidth() == width && frame.getHeight() == height) {
+                    return frame;
+                }
+                // Frames of the other orientation are dropped
+            }
+        }
+        return new Nv21Frame(width, height, mRecycler);
+    }
+
+}
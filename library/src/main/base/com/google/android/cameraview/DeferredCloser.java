@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Closes a resource, such as an {@link android.media.ImageReader}, only once all the items
+ * handed out from it have been returned.
+ *
+ * <p>Frames retained by the processors wrap the images of the reader without copying, so
+ * closing the reader when the camera stops would pull the buffers from under them. Instead, the
+ * close is recorded, no more items are handed out, and the resource is closed when the last
+ * outstanding one is returned.</p>
+ */
+class DeferredCloser {
+
+    private final Runnable mClose;
+
+    private int mOutstanding;
+
+    private boolean mClosing;
+
+    private boolean mClosed;
+
+    /**
+     * @param close Closes the resource; it runs on the thread that returns the last item, or
+     *              that calls {@link #close()} if there is none outstanding.
+     */
+    DeferredCloser(Runnable close) {
+        mClose = close;
+    }
+
+    /**
+     * Called before an item is handed out.
+     *
+     * @return {@code false} if the resource is being closed, and the item should be dropped.
+     */
+    synchronized boolean acquire() {
+        if (mClosing) {
+            return false;
+        }
+        mOutstanding++;
+        return true;
+    }
+
+    /**
+     * Called when an item handed out with {@link #acquire()} is returned.
+     */
+    void release() {
+        final boolean close;
+        synchronized (this) {
+            if (mOutstanding <= 0) {
+                throw new IllegalStateException("Nothing to release");
+            }
+            mOutstanding--;
+            close = shouldClose();
+        }
+        if (close) {
+            mClose.run();
+        }
+    }
+
+    /**
+     * Closes the resource now if there are no outstanding items, or when the last one is
+     * returned.
+     */
+    void close() {
+        final boolean close;
+        synchronized (this) {
+            mClosing = true;
+            close = shouldClose();
+        }
+        if (close) {
+            mClose.run();
+        }
+    }
+
+    synchronized int getOutstandingCount() {
+        return mOutstanding;
+    }
+
+    synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    private boolean shouldClose() {
+        if (!mClosing || mClosed || mOutstanding > 0) {
+            return false;
+        }
+        mClosed = true;
+        return true;
+    }
+
+}
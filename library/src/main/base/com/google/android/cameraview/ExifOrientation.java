@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and rewrites the EXIF orientation tag of a JPEG image without decoding it.
+ *
+ * <p>Some cameras rotate the pixels of a picture to the display orientation, and others only
+ * record the rotation in the orientation tag. Reading the tag tells which one happened, so a
+ * picture only needs to be decoded and rotated when it is really necessary.</p>
+ *
+ * <p>Only the segments in front of the image data are scanned, and only the first image file
+ * directory of the EXIF data is searched, where the tag is stored. Malformed data is treated as
+ * having no tag.</p>
+ */
+public class ExifOrientation {
+
+    /** The image has no orientation tag. */
+    public static final int UNDEFINED = 0;
+
+    public static final int NORMAL = 1;
+
+    public static final int FLIP_HORIZONTAL = 2;
+
+    public static final int ROTATE_180 = 3;
+
+    public static final int FLIP_VERTICAL = 4;
+
+    /** Mirrored along the diagonal from the top left corner. */
+    public static final int TRANSPOSE = 5;
+
+    /** The image must be rotated by 90 degrees clockwise to be upright. */
+    public static final int ROTATE_90 = 6;
+
+    /** Mirrored along the diagonal from the top right corner. */
+    public static final int TRANSVERSE = 7;
+
+    public static final int ROTATE_270 = 8;
+
+    private static final int MARKER_SOI = 0xd8;
+    private static final int MARKER_EOI = 0xd9;
+    private static final int MARKER_SOS = 0xda;
+    private static final int MARKER_APP1 = 0xe1;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    /**
+     * An APP1 segment with a big-endian TIFF header and a single directory entry: the
+     * orientation, at {@link #APP1_ORIENTATION_OFFSET}.
+     */
+    private static final byte[] APP1_TEMPLATE = {
+            (byte) 0xff, (byte) MARKER_APP1, 0, 34, // Marker and length
+            'E', 'x', 'i', 'f', 0, 0,
+            'M', 'M', 0, 42, 0, 0, 0, 8, // TIFF header; the directory follows
+            0, 1, // One entry
+            0x01, 0x12, 0, TYPE_SHORT, 0, 0, 0, 1, 0, 0, 0, 0, // Orientation
+            0, 0, 0, 0, // No next directory
+    };
+
+    private static final int APP1_ORIENTATION_OFFSET = 28;
+
+    private ExifOrientation() {
+    }
+
+    /**
+     * @param jpeg The JPEG data, from its position to its limit. The buffer is not modified.
+     * @return The orientation, or {@link #UNDEFINED} if the image has no orientation tag.
+     */
+    public static int read(@NonNull ByteBuffer jpeg) {
+        final Exif exif = find(jpeg);
+        if (exif.mOffset < 0) {
+            return UNDEFINED;
+        }
+        final int value = readShort(jpeg, exif.mOffset, exif.mBigEndian);
+        return value >= NORMAL && value <= ROTATE_270 ? value : UNDEFINED;
+    }
+
+    /**
+     * Rewrites the orientation tag in place. Nothing else in the data changes.
+     *
+     * @param jpeg        The JPEG data, from its position to its limit.
+     * @param orientation The new orientation.
+     * @return {@code true} if the tag was rewritten, {@code false} if the image has no
+     * orientation tag.
+     */
+    public static boolean write(@NonNull ByteBuffer jpeg, int orientation) {
+        checkOrientation(orientation);
+        final Exif exif = find(jpeg);
+        if (exif.mOffset < 0) {
+            return false;
+        }
+        writeShort(jpeg, exif.mOffset, exif.mBigEndian, orientation);
+        return true;
+    }
+
+    /**
+     * Sets the orientation of a JPEG image, adding EXIF data with only the orientation tag if
+     * the image has no EXIF data.
+     *
+     * @param jpeg        The JPEG data.
+     * @param orientation The new orientation.
+     * @return The JPEG data with the orientation: {@code jpeg} itself rewritten in place if it
+     * had an orientation tag, or a new array. {@code null} if the image has EXIF data without an
+     * orientation tag, which cannot be added without rewriting the EXIF data, or if it is not a
+     * JPEG image.
+     */
+    @Nullable
+    public static byte[] apply(@NonNull byte[] jpeg, int orientation) {
+        checkOrientation(orientation);
+        final ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+        final Exif exif = find(buffer);
+        if (exif.mOffset >= 0) {
+            writeShort(buffer, exif.mOffset, exif.mBigEndian, orientation);
+            return jpeg;
+        }
+        if (exif.mHasExif || !exif.mIsJpeg) {
+            return null;
+        }
+        return insert(jpeg, jpeg.length, orientation);
+    }
+
+    /**
+     * Copies a JPEG image with its orientation set, like {@link #apply(byte[], int)}, but never
+     * rewrites the source. This is for JPEG data in a reused buffer: it is only copied once.
+     *
+     * @param jpeg        The buffer with the JPEG data at its start.
+     * @param length      The length of the JPEG data.
+     * @param orientation The new orientation.
+     * @return A new array with the JPEG data and the orientation, or {@code null} like
+     * {@link #apply(byte[], int)}.
+     */
+    @Nullable
+    public static byte[] copyOf(@NonNull byte[] jpeg, int length, int orientation) {
+        checkOrientation(orientation);
+        final Exif exif = find(ByteBuffer.wrap(jpeg, 0, length));
+        if (exif.mOffset >= 0) {
+            final byte[] result = new byte[length];
+            System.arraycopy(jpeg, 0, result, 0, length);
+            writeShort(ByteBuffer.wrap(result), exif.mOffset, exif.mBigEndian, orientation);
+            return result;
+        }
+        if (exif.mHasExif || !exif.mIsJpeg) {
+            return null;
+        }
+        return insert(jpeg, length, orientation);
+    }
+
+    /**
+     * @return A copy of the JPEG data with an EXIF segment holding only the orientation.
+     */
+    private static byte[] insert(byte[] jpeg, int length, int orientation) {
+        // The EXIF segment goes right after the start of image
+        final byte[] result = new byte[length + APP1_TEMPLATE.length];
+        result[0] = jpeg[0];
+        result[1] = jpeg[1];
+        System.arraycopy(APP1_TEMPLATE, 0, result, 2, APP1_TEMPLATE.length);
+        result[2 + APP1_ORIENTATION_OFFSET] = (byte) (orientation >> 8);
+        result[2 + APP1_ORIENTATION_OFFSET + 1] = (byte) orientation;
+        System.arraycopy(jpeg, 2, result, 2 + APP1_TEMPLATE.length, length - 2);
+        return result;
+    }
+
+    /**
+     * @param orientation The orientation.
+     * @return The clockwise rotation in degrees that makes the image upright, ignoring any
+     * flip: 0, 90, 180 or 270.
+     */
+    public static int toDegrees(int orientation) {
+        switch (orientation) {
+            case ROTATE_180:
+            case FLIP_VERTICAL:
+                return 180;
+            case TRANSPOSE:
+            case ROTATE_90:
+                return 90;
+            case TRANSVERSE:
+            case ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param degrees The clockwise rotation that makes the image upright; a multiple of 90.
+     * @return The orientation without a flip.
+     */
+    public static int fromDegrees(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 0:
+                return NORMAL;
+            case 90:
+                return ROTATE_90;
+            case 180:
+                return ROTATE_180;
+            case 270:
+                return ROTATE_270;
+            default:
+                throw new IllegalArgumentException("Not a multiple of 90: " + degrees);
+        }
+    }
+
+    private static void checkOrientation(int orientation) {
+        if (orientation < NORMAL || orientation > ROTATE_270) {
+            throw new IllegalArgumentException("Invalid orientation: " + orientation);
+        }
+    }
+
+    /**
+     * Walks the segments in front of the image data, looking for the EXIF data and its
+     * orientation tag.
+     */
+    static Exif find(ByteBuffer jpeg) {
+        final Exif exif = new Exif();
+        final int limit = jpeg.limit();
+        int p = jpeg.position();
+        if (limit - p < 2 || u8(jpeg, p) != 0xff || u8(jpeg, p + 1) != MARKER_SOI) {
+            return exif;
+        }
+        exif.mIsJpeg = true;
+        p += 2;
+        while (p + 4 <= limit) {
+            if (u8(jpeg, p) != 0xff) {
+                break;
+            }
+            final int marker = u8(jpeg, p + 1);
+            if (marker == 0xff) { // Fill byte
+                p++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                break;
+            }
+            final int length = readShort(jpeg, p + 2, true);
+            final int end = p + 2 + length;
+            if (length < 2 || end > limit) {
+                break;
+            }
+            if (marker == MARKER_APP1 && isExif(jpeg, p + 4, end)) {
+                exif.mHasExif = true;
+                exif.mTiff = p + 4 + EXIF_HEADER.length;
+                exif.mEnd = end;
+                findInTiff(jpeg, exif);
+                return exif;
+            }
+            p = end;
+        }
+        return exif;
+    }
+
+    private static boolean isExif(ByteBuffer jpeg, int start, int end) {
+        if (end - start < EXIF_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (jpeg.get(start + i) != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void findInTiff(ByteBuffer jpeg, Exif exif) {
+        final int tiff = exif.mTiff;
+        if (exif.mEnd - tiff < 8) {
+            return;
+        }
+        if (u8(jpeg, tiff) == 'M' && u8(jpeg, tiff + 1) == 'M') {
+            exif.mBigEndian = true;
+        } else if (u8(jpeg, tiff) == 'I' && u8(jpeg, tiff + 1) == 'I') {
+            exif.mBigEndian = false;
+        } else {
+            return;
+        }
+        if (readShort(jpeg, tiff + 2, exif.mBigEndian) != 42) {
+            return;
+        }
+        exif.mIfd0 = exif.directory(jpeg, tiff + 4);
+        if (exif.mIfd0 < 0) {
+            return;
+        }
+        final int entry = exif.findEntry(jpeg, exif.mIfd0, TAG_ORIENTATION);
+        if (entry >= 0 && readShort(jpeg, entry + 2, exif.mBigEndian) == TYPE_SHORT) {
+            // A single SHORT is stored at the start of the value field
+            exif.mOffset = entry + 8;
+        }
+    }
+
+    static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xff;
+    }
+
+    static int readShort(ByteBuffer buffer, int index, boolean bigEndian) {
+        final int b0 = u8(buffer, index);
+        final int b1 = u8(buffer, index + 1);
+        return bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0;
+    }
+
+    static int readInt(ByteBuffer buffer, int index, boolean bigEndian) {
+        final int s0 = readShort(buffer, index, bigEndian);
+        final int s1 = readShort(buffer, index + 2, bigEndian);
+        return bigEndian ? (s0 << 16) | s1 : (s1 << 16) | s0;
+    }
+
+    private static void writeShort(ByteBuffer buffer, int index, boolean bigEndian, int value) {
+        buffer.put(index, (byte) (bigEndian ? value >> 8 : value));
+        buffer.put(index + 1, (byte) (bigEndian ? value : value >> 8));
+    }
+
+    /**
+     * The result of a scan. The indices are absolute, from the start of the buffer.
+     */
+    static class Exif {
+
+        boolean mIsJpeg;
+
+        boolean mHasExif;
+
+        /** The index of the TIFF header, or -1 if there is no EXIF data. */
+        int mTiff = -1;
+
+        /** The end of the EXIF segment. */
+        int mEnd;
+
+        boolean mBigEndian;
+
+        /** The index of the first image file directory, or -1 if it is not valid. */
+        int mIfd0 = -1;
+
+        /** The index of the value of the orientation tag, or -1 if there is none. */
+        int mOffset = -1;
+
+        /**
+         * @param pointer The index of a 4-byte offset to a directory from the TIFF header.
+         * @return The index of the directory, or -1 if there is none or it is out of bounds.
+         */
+        int directory(ByteBuffer jpeg, int pointer) {
+            if (pointer + 4 > mEnd) {
+                return -1;
+            }
+            final long offset = readInt(jpeg, pointer, mBigEndian) & 0xffffffffL;
+            if (offset < 8 || offset > mEnd - mTiff - 2) {
+                return -1;
+            }
+            return mTiff + (int) offset;
+        }
+
+        /**
+         * @return The index of the entry for {@code tag} in the directory at {@code ifd}, or -1.
+         */
+        int findEntry(ByteBuffer jpeg, int ifd, int tag) {
+            final int count = readShort(jpeg, ifd, mBigEndian);
+            for (int i = 0; i < count; i++) {
+                final int entry = ifd + 2 + i * 12;
+                if (entry + 12 > mEnd) {
+                    return -1;
+                }
+                if (readShort(jpeg, entry, mBigEndian) == tag) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return The index of the offset to the directory after the one at {@code ifd}.
+         */
+        int nextPointer(ByteBuffer jpeg, int ifd) {
+            return ifd + 2 + readShort(jpeg, ifd, mBigEndian) * 12;
+        }
+
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A camera preview frame in YUV 4:2:0 format.
+ *
+ * <p>The image is always described as three planes (Y, U and V) with their own row and pixel
+ * strides, regardless of whether the camera produced an NV21 buffer (Camera1) or a
+ * {@code YUV_420_888} image (Camera2).</p>
+ *
+ * <p>Frames and their buffers are pooled and reused by the camera implementation. The contents
+ * are only valid until {@link FrameProcessor#process(Frame)} returns, unless the frame is kept
+ * with {@link #retain()}. A frame is shared by all the processors and goes back to the pool
+ * when the last of them releases it.</p>
+ */
+public abstract class Frame {
+
+    /** Index of the luma plane. */
+    public static final int PLANE_Y = 0;
+
+    /** Index of the Cb chroma plane. */
+    public static final int PLANE_U = 1;
+
+    /** Index of the Cr chroma plane. */
+    public static final int PLANE_V = 2;
+
+    private final ByteBuffer[] mPlanes = new ByteBuffer[3];
+
+    private final int[] mRowStrides = new int[3];
+
+    private final int[] mPixelStrides = new int[3];
+
+    private int mFormat;
+
+    private int mWidth;
+
+    private int mHeight;
+
+    private final FrameMetadata mMetadata = new FrameMetadata();
+
+    /** A read-only view of the luma plane, created on first use. */
+    private volatile ByteBuffer mLuma;
+
+    private final AtomicInteger mRefCount = new AtomicInteger();
+
+    Frame() {
+    }
+
+    /**
+     * Keeps this frame valid after {@link FrameProcessor#process(Frame)} returns. Each call must
+     * be balanced by a call to {@link #release()}.
+     *
+     * @return This frame.
+     */
+    public Frame retain() {
+        while (true) {
+            final int count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("The frame has already been released.");
+            }
+            if (mRefCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference obtained by {@link #retain()}. The frame must not be used after this.
+     */
+    public void release() {
+        final int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            recycle();
+        } else if (count < 0) {
+            mRefCount.set(0);
+            throw new IllegalStateException("The frame has already been released.");
+        }
+    }
+
+    /**
+     * @return The format of the source buffer; either {@link android.graphics.ImageFormat#NV21}
+     * or {@link android.graphics.ImageFormat#YUV_420_888}.
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The clockwise rotation in degrees (0, 90, 180 or 270) that makes this frame upright
+     * in the current display orientation.
+     */
+    public int getRotation() {
+        return mMetadata.getRotation();
+    }
+
+    /**
+     * Returns the pixel data of a plane. The buffer is shared with the camera implementation, so
+     * it must be read with absolute {@code get} methods and its position and limit must not be
+     * modified.
+     *
+     * @param plane One of {@link #PLANE_Y}, {@link #PLANE_U} and {@link #PLANE_V}.
+     * @return The pixel data of the plane.
+     */
+    public ByteBuffer getPlane(int plane) {
+        return mPlanes[plane];
+    }
+
+    /**
+     * @return The time at which the frame was captured, in nanoseconds. Only the difference
+     * between the timestamps of two frames is meaningful; the time base depends on the camera.
+     */
+    public long getTimestamp() {
+        return mMetadata.getTimestamp();
+    }
+
+    /**
+     * @return The metadata of this frame.
+     */
+    public FrameMetadata getMetadata() {
+        return mMetadata;
+    }
+
+    /**
+     * Returns a read-only view of the luma plane, for processing that ignores the colors. The
+     * view shares the buffer of the camera; no pixel data is copied. The pixel stride of the
+     * luma plane is always 1.
+     *
+     * @return The luma plane.
+     */
+    public ByteBuffer getLumaPlane() {
+        ByteBuffer luma = mLuma;
+        if (luma == null) {
+            luma = mPlanes[PLANE_Y].asReadOnlyBuffer();
+            mLuma = luma;
+        }
+        return luma;
+    }
+
+    /**
+     * @param plane One of {@link #PLANE_Y}, {@link #PLANE_U} and {@link #PLANE_V}.
+     * @return The distance in bytes between the starts of two consecutive rows of the plane.
+     */
+    public int getRowStride(int plane) {
+        return mRowStrides[plane];
+    }
+
+    /**
+     * @param plane One of {@link #PLANE_Y}, {@link #PLANE_U} and {@link #PLANE_V}.
+     * @return The distance in bytes between two consecutive pixels in a row of the plane.
+     */
+    public int getPixelStride(int plane) {
+        return mPixelStrides[plane];
+    }
+
+    void setFormat(int format, int width, int height) {
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    void setTimestamp(long timestamp) {
+        mMetadata.setTimestamp(timestamp);
+    }
+
+    void setRotation(int rotation) {
+        mMetadata.setRotation(rotation);
+    }
+
+    void setPlane(int plane, ByteBuffer buffer, int rowStride, int pixelStride) {
+        if (plane == PLANE_Y) {
+            mLuma = null;
+        }
+        mPlanes[plane] = buffer;
+        mRowStrides[plane] = rowStride;
+        mPixelStrides[plane] = pixelStride;
+    }
+
+    /**
+     * Takes the first reference of a frame coming out of the pool.
+     */
+    void acquire() {
+        mRefCount.set(1);
+    }
+
+    /**
+     * Hands the underlying buffer back to the camera implementation. This is called when the last
+     * reference is released.
+     */
+    abstract void recycle();
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers preview {@link Frame}s from a camera implementation to the registered
+ * {@link FrameProcessor}s.
+ *
+ * <p>Frames go through a {@link FrameQueue} to a dedicated thread, so a slow processor never
+ * holds up the camera thread. The thread only exists while there is at least one processor.
+ * From there, each frame is fanned out to all the processors without copying; processors
+ * registered with an {@link Executor} run there, and the frame goes back to the pool when the
+ * last of them has released it.</p>
+ *
+ * <p>This is owned by {@link CameraView} so that the registered processors survive a switch
+ * between camera implementations.</p>
+ *
+ * <p>A processor that throws is logged and skipped for that frame; it does not stop the
+ * delivery to the others or of the next frames.</p>
+ */
+class FrameDispatcher {
+
+    private static final String TAG = "FrameDispatcher";
+
+    private final CopyOnWriteArrayList<Registration> mRegistrations
+            = new CopyOnWriteArrayList<>();
+
+    private final FrameQueue mQueue = new FrameQueue();
+
+    private final FrameRateGovernor mGovernor = new FrameRateGovernor();
+
+    /** The sequence number of the next frame produced by the camera. */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /** The sequence number of the last frame handed to the processors. */
+    private volatile long mLastDelivered = -1;
+
+    private Thread mThread;
+
+    /**
+     * @param executor The executor to run the processor on, or {@code null} to run it on the
+     *                 dispatcher thread.
+     * @return {@code true} if the processor was added, {@code false} if it was already
+     * registered.
+     */
+    synchronized boolean add(FrameProcessor processor, Executor executor) {
+        if (find(processor) != null) {
+            return false;
+        }
+        mRegistrations.add(new Registration(processor, executor, mGovernor));
+        if (mThread == null) {
+            mQueue.open();
+            mThread = new Thread(mLoop, "FrameDispatcher");
+            mThread.start();
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the processor was removed.
+     */
+    synchronized boolean remove(FrameProcessor processor) {
+        final Registration registration = find(processor);
+        if (registration == null) {
+            return false;
+        }
+        mRegistrations.remove(registration);
+        registration.cancel();
+        if (mRegistrations.isEmpty() && mThread != null) {
+            mQueue.close();
+            mThread = null;
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if there is at least one processor, i.e. the camera implementation
+     * should produce preview frames.
+     */
+    boolean hasProcessors() {
+        return !mRegistrations.isEmpty();
+    }
+
+    FrameQueue getQueue() {
+        return mQueue;
+    }
+
+    FrameRateGovernor getGovernor() {
+        return mGovernor;
+    }
+
+    /**
+     * Queues the specified frame, fresh out of the pool, for the processors. The frame is
+     * recycled once it has been processed or dropped.
+     */
+    void dispatch(Frame frame) {
+        frame.getMetadata().setSequence(mSequence.getAndIncrement());
+        frame.acquire();
+        if (!mGovernor.admit(frame.getTimestamp())) {
+            frame.release();
+            return;
+        }
+        mQueue.offer(frame);
+    }
+
+    /**
+     * Records a frame that the camera implementation had to drop before it could be dispatched,
+     * for example because all of its buffers were held by the processors.
+     */
+    void onFrameDropped() {
+        mSequence.getAndIncrement();
+    }
+
+    /**
+     * Drops all the frames that are waiting to be processed. This should be called before the
+     * camera implementation releases the buffers.
+     */
+    void flush() {
+        mQueue.flush();
+        mGovernor.reset();
+        // Frames are not lost when the camera stops
+        mLastDelivered = mSequence.get() - 1;
+        for (Registration registration : mRegistrations) {
+            registration.cancel();
+        }
+    }
+
+    private Registration find(FrameProcessor processor) {
+        for (Registration registration : mRegistrations) {
+            if (registration.mProcessor.equals(processor)) {
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    private synchronized boolean isDispatchThread() {
+        return mThread == Thread.currentThread();
+    }
+
+    private final Runnable mLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final Frame frame;
+                try {
+                    frame = mQueue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (frame == null) { // Closed
+                    return;
+                }
+                if (!isDispatchThread()) { // Superseded after a quick remove and add
+                    frame.release();
+                    return;
+                }
+                final FrameMetadata metadata = frame.getMetadata();
+                metadata.setDroppedBefore(Math.max(0, metadata.getSequence() - mLastDelivered - 1));
+                mLastDelivered = metadata.getSequence();
+                try {
+                    for (Registration registration : mRegistrations) {
+                        registration.deliver(frame);
+                    }
+                } finally {
+                    frame.release();
+                    mQueue.onDelivered();
+                }
+            }
+        }
+    };
+
+    /**
+     * A processor and the executor it runs on.
+     *
+     * <p>Each registration holds at most one frame waiting for its executor. When a newer frame
+     * arrives before the processor gets to it, the older one is released, so a slow processor
+     * only ever pins two frames (the one being processed and the one waiting) and never delays
+     * the others.</p>
+     */
+    private static class Registration implements Runnable {
+
+        final FrameProcessor mProcessor;
+
+        private final Executor mExecutor;
+
+        private final FrameRateGovernor mGovernor;
+
+        private Frame mPending;
+
+        private boolean mScheduled;
+
+        Registration(FrameProcessor processor, Executor executor, FrameRateGovernor governor) {
+            mProcessor = processor;
+            mExecutor = executor;
+            mGovernor = governor;
+        }
+
+        void deliver(Frame frame) {
+            if (mExecutor == null) {
+                process(frame);
+                return;
+            }
+            final Frame dropped;
+            final boolean schedule;
+            synchronized (this) {
+                dropped = mPending;
+                mPending = frame.retain();
+                schedule = !mScheduled;
+                mScheduled = true;
+            }
+            if (dropped != null) {
+                dropped.release();
+            }
+            if (schedule) {
+                try {
+                    mExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    Log.w(TAG, "The executor of " + mProcessor + " rejected a frame", e);
+                    final Frame rejected;
+                    synchronized (this) {
+                        rejected = mPending;
+                        mPending = null;
+                        mScheduled = false;
+                    }
+                    if (rejected != null) {
+                        rejected.release();
+                    }
+                }
+            }
+        }
+
+        void cancel() {
+            final Frame dropped;
+            synchronized (this) {
+                dropped = mPending;
+                mPending = null;
+            }
+            if (dropped != null) {
+                dropped.release();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Frame frame;
+                    synchronized (this) {
+                        frame = mPending;
+                        mPending = null;
+                        if (frame == null) {
+                            return;
+                        }
+                    }
+                    try {
+                        process(frame);
+                    } finally {
+                        frame.release();
+                    }
+                }
+            } finally {
+                // Also when an error escapes, so that the next frame schedules this again
+                synchronized (this) {
+                    mScheduled = false;
+                }
+            }
+        }
+
+        private void process(Frame frame) {
+            final long start = System.nanoTime();
+            try {
+                mProcessor.process(frame);
+            } catch (RuntimeException e) {
+                Log.e(TAG, mProcessor + " failed to process a frame", e);
+                return;
+            }
+            mGovernor.reportProcessingTime(System.nanoTime() - start);
+        }
+
+    }
+
+}
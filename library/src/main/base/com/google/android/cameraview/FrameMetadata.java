@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Describes the capture of a preview {@link Frame}.
+ *
+ * <p>Each frame owns one instance that is overwritten when the frame is reused, so reading the
+ * metadata does not allocate anything. Like the pixels, it is only valid while the frame is
+ * held.</p>
+ */
+public class FrameMetadata {
+
+    /** The value of {@link #getExposureTime()} when the camera does not report it. */
+    public static final long EXPOSURE_TIME_UNKNOWN = -1;
+
+    private long mSequence;
+
+    private long mTimestamp;
+
+    private int mRotation;
+
+    private int mFacing;
+
+    private long mExposureTime = EXPOSURE_TIME_UNKNOWN;
+
+    private long mDroppedBefore;
+
+    FrameMetadata() {
+    }
+
+    /**
+     * Returns the sequence number of the frame. Every frame produced by the camera gets the next
+     * number, including the ones that are dropped before reaching the processors, so a gap
+     * between two frames received by a processor is the number of frames it missed.
+     *
+     * @return The sequence number of the frame.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return The time at which the frame was captured, in nanoseconds. This is the sensor
+     * timestamp on Camera2, and the arrival time ({@link System#nanoTime()}) on Camera1. Only the
+     * difference between two timestamps is meaningful.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return The clockwise rotation in degrees (0, 90, 180 or 270) that makes the frame upright
+     * in the display orientation at the time of capture.
+     */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * @return The facing of the camera; either {@link CameraView#FACING_BACK} or
+     * {@link CameraView#FACING_FRONT}.
+     */
+    public int getFacing() {
+        return mFacing;
+    }
+
+    /**
+     * @return The exposure time in nanoseconds, or {@link #EXPOSURE_TIME_UNKNOWN}. This is only
+     * known on Camera2, when the capture result arrives before the frame.
+     */
+    public long getExposureTime() {
+        return mExposureTime;
+    }
+
+    /**
+     * @return The number of frames that were dropped by the camera implementation or the frame
+     * delivery policy since the previous frame that reached the processors.
+     */
+    public long getDroppedBefore() {
+        return mDroppedBefore;
+    }
+
+    void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+
+    void setTimestamp(long timestamp) {
+        mTimestamp = timestamp;
+    }
+
+    void setRotation(int rotation) {
+        mRotation = rotation;
+    }
+
+    void setFacing(int facing) {
+        mFacing = facing;
+    }
+
+    void setExposureTime(long exposureTime) {
+        mExposureTime = exposureTime;
+    }
+
+    void setDroppedBefore(long droppedBefore) {
+        mDroppedBefore = droppedBefore;
+    }
+
+    void set(FrameMetadata other) {
+        mSequence = other.mSequence;
+        mTimestamp = other.mTimestamp;
+        mRotation = other.mRotation;
+        mFacing = other.mFacing;
+        mExposureTime = other.mExposureTime;
+        mDroppedBefore = other.mDroppedBefore;
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives camera preview frames from {@link CameraView}.
+ *
+ * @see CameraView#addFrameProcessor(FrameProcessor)
+ */
+public interface FrameProcessor {
+
+    /**
+     * Called for each preview frame. The frame is released as soon as this method returns; call
+     * {@link Frame#retain()} to keep it longer, and {@link Frame#release()} when done with it.
+     *
+     * @param frame The preview frame.
+     */
+    void process(@NonNull Frame frame);
+
+}
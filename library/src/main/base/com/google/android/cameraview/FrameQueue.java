@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded queue of {@link Frame}s between a camera implementation (the producer) and the
+ * frame processors (the consumer).
+ *
+ * <p>What happens when the consumer falls behind is decided by the delivery policy; one of
+ * {@link Constants#FRAME_DELIVERY_LATEST}, {@link Constants#FRAME_DELIVERY_DROP_OLDEST},
+ * {@link Constants#FRAME_DELIVERY_BLOCK} and {@link Constants#FRAME_DELIVERY_EVERY_NTH}. The
+ * queue owns one reference of each frame; frames that are not delivered are released right
+ * away.</p>
+ */
+class FrameQueue {
+
+    static final int DEFAULT_CAPACITY = 2;
+
+    private final ArrayDeque<Frame> mFrames = new ArrayDeque<>();
+
+    private int mPolicy = Constants.FRAME_DELIVERY_LATEST;
+
+    private int mCapacity = DEFAULT_CAPACITY;
+
+    private int mInterval = 1;
+
+    private long mOffered;
+
+    private long mDelivered;
+
+    private long mDropped;
+
+    private boolean mClosed = true;
+
+    synchronized void setPolicy(int policy) {
+        mPolicy = policy;
+        trim();
+        notifyAll();
+    }
+
+    synchronized int getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @param capacity The maximum number of queued frames for
+     *                 {@link Constants#FRAME_DELIVERY_DROP_OLDEST},
+     *                 {@link Constants#FRAME_DELIVERY_BLOCK} and
+     *                 {@link Constants#FRAME_DELIVERY_EVERY_NTH}.
+     */
+    synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        trim();
+        notifyAll();
+    }
+
+    synchronized int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @param interval Only every {@code interval}-th frame is queued with
+     *                 {@link Constants#FRAME_DELIVERY_EVERY_NTH}.
+     */
+    synchronized void setInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        mInterval = interval;
+    }
+
+    synchronized int getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * Adds a frame to this queue according to the current policy. With
+     * {@link Constants#FRAME_DELIVERY_BLOCK}, this waits until there is room.
+     */
+    synchronized void offer(Frame frame) {
+        mOffered++;
+        if (mClosed) {
+            drop(frame);
+            return;
+        }
+        switch (mPolicy) {
+            case Constants.FRAME_DELIVERY_BLOCK:
+                while (mFrames.size() >= mCapacity && !mClosed
+                        && mPolicy == Constants.FRAME_DELIVERY_BLOCK) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        drop(frame);
+                        return;
+                    }
+                }
+                if (mClosed) {
+                    drop(frame);
+                    return;
+                }
+                break;
+            case Constants.FRAME_DELIVERY_EVERY_NTH:
+                if (mOffered % mInterval != 0) {
+                    drop(frame);
+                    return;
+                }
+                break;
+        }
+        mFrames.offer(frame);
+        trim();
+        notifyAll();
+    }
+
+    /**
+     * Waits for the next frame.
+     *
+     * @return The next frame, or {@code null} if this queue is closed.
+     */
+    synchronized Frame take() throws InterruptedException {
+        while (mFrames.isEmpty() && !mClosed) {
+            wait();
+        }
+        if (mClosed) {
+            return null;
+        }
+        final Frame frame = mFrames.poll();
+        // Wake up a blocked producer
+        notifyAll();
+        return frame;
+    }
+
+    /**
+     * Counts a frame taken by {@link #take()} as delivered.
+     */
+    synchronized void onDelivered() {
+        mDelivered++;
+    }
+
+    /**
+     * Starts accepting frames.
+     */
+    synchronized void open() {
+        mClosed = false;
+    }
+
+    /**
+     * Stops accepting frames, drops all the queued ones, and makes {@link #take()} return
+     * {@code null}.
+     */
+    synchronized void close() {
+        mClosed = true;
+        flush();
+        notifyAll();
+    }
+
+    /**
+     * Drops all the queued frames.
+     */
+    synchronized void flush() {
+        while (!mFrames.isEmpty()) {
+            drop(mFrames.poll());
+        }
+        notifyAll();
+    }
+
+    synchronized int size() {
+        return mFrames.size();
+    }
+
+    synchronized long getDeliveredCount() {
+        return mDelivered;
+    }
+
+    synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Drops the oldest frames that do not fit in the queue under the current policy. Frames are
+     * never dropped here with {@link Constants#FRAME_DELIVERY_BLOCK}.
+     */
+    private void trim() {
+        final int capacity;
+        switch (mPolicy) {
+            case Constants.FRAME_DELIVERY_LATEST:
+                capacity = 1;
+                break;
+            case Constants.FRAME_DELIVERY_BLOCK:
+                return;
+            default:
+                capacity = mCapacity;
+        }
+        while (mFrames.size() > capacity) {
+            drop(mFrames.poll());
+        }
+    }
+
+    private void drop(Frame frame) {
+        mDropped++;
+        frame.release();
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Limits the rate at which preview frames are admitted into the frame pipeline, independently
+ * of the preview frame rate.
+ *
+ * <p>Frames are admitted based on their sensor timestamps, so the rate does not depend on when
+ * the camera thread gets to run. The processing time of each admitted frame is reported back;
+ * when it keeps exceeding the interval between frames, the interval is stretched until the
+ * processors can keep up, and it goes back towards the target rate once they are fast again.</p>
+ */
+class FrameRateGovernor {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** Weight of a new sample in the moving averages, as a shift: 1/8. */
+    private static final int AVERAGE_SHIFT = 3;
+
+    /** Frames this fraction of the interval early are still admitted, to absorb jitter. */
+    private static final int JITTER_DIVISOR = 8;
+
+    /** How much the interval grows at once when the processors are too slow, in percent. */
+    private static final int BACK_OFF_PERCENT = 125;
+
+    /** How much the interval shrinks at once when the processors have headroom, in percent. */
+    private static final int RECOVER_PERCENT = 90;
+
+    /** 0 when the rate is not limited. */
+    private long mTargetInterval;
+
+    private long mInterval;
+
+    private long mLastAdmitted = -1;
+
+    /** The timestamp from which the next frame can be admitted. */
+    private long mNextDue;
+
+    private long mAverageProcessing;
+
+    private long mAverageInterval;
+
+    /**
+     * @param fps The maximum number of frames per second to admit, or 0 for no limit.
+     */
+    synchronized void setTargetRate(float fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("The frame rate must not be negative.");
+        }
+        mTargetInterval = fps == 0 ? 0 : (long) (NANOS_PER_SECOND / fps);
+        mInterval = mTargetInterval;
+        mAverageProcessing = 0;
+    }
+
+    synchronized float getTargetRate() {
+        return mTargetInterval == 0 ? 0 : (float) NANOS_PER_SECOND / mTargetInterval;
+    }
+
+    /**
+     * @return The rate at which frames are currently admitted, which is lower than the target
+     * rate when the processors cannot keep up. 0 until two frames have been admitted.
+     */
+    synchronized float getEffectiveRate() {
+        return mAverageInterval == 0 ? 0 : (float) NANOS_PER_SECOND / mAverageInterval;
+    }
+
+    /**
+     * @return The current minimum interval between two admitted frames, in nanoseconds.
+     */
+    synchronized long getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * @param timestamp The sensor timestamp of the frame in nanoseconds.
+     * @return {@code true} if the frame should be processed, {@code false} if it should be
+     * dropped.
+     */
+    synchronized boolean admit(long timestamp) {
+        if (mLastAdmitted >= 0) {
+            final long elapsed = timestamp - mLastAdmitted;
+            if (elapsed < 0) { // The camera was restarted with another time base
+                mLastAdmitted = -1;
+                mAverageInterval = 0;
+            } else if (timestamp < mNextDue - mInterval / JITTER_DIVISOR) {
+                return false;
+            } else {
+                mAverageInterval = mAverageInterval == 0 ? elapsed
+                        : mAverageInterval + ((elapsed - mAverageInterval) >> AVERAGE_SHIFT);
+            }
+        }
+        // Stay on the grid of due times so that the jitter of the timestamps does not add up,
+        // unless the frames stopped coming for a while
+        mNextDue = mLastAdmitted < 0 || timestamp - mNextDue > mInterval
+                ? timestamp + mInterval : mNextDue + mInterval;
+        mLastAdmitted = timestamp;
+        return true;
+    }
+
+    /**
+     * Reports how long a processor took with an admitted frame.
+     *
+     * @param nanos The processing time in nanoseconds.
+     */
+    synchronized void reportProcessingTime(long nanos) {
+        mAverageProcessing = mAverageProcessing == 0 ? nanos
+                : mAverageProcessing + ((nanos - mAverageProcessing) >> AVERAGE_SHIFT);
+        if (mTargetInterval == 0) {
+            return;
+        }
+        if (mAverageProcessing > mInterval) {
+            mInterval = Math.max(mInterval * BACK_OFF_PERCENT / 100, mAverageProcessing);
+        } else if (mAverageProcessing < mInterval / 2 && mInterval > mTargetInterval) {
+            mInterval = Math.max(mInterval * RECOVER_PERCENT / 100, mTargetInterval);
+        }
+    }
+
+    /**
+     * Forgets the history, e.g. when the camera is reopened.
+     */
+    synchronized void reset() {
+        mInterval = mTargetInterval;
+        mLastAdmitted = -1;
+        mAverageProcessing = 0;
+        mAverageInterval = 0;
+    }
+
+}
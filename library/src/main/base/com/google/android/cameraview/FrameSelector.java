@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Picks the frame to turn into a picture from the recent frames kept for zero shutter lag.
+ */
+class FrameSelector {
+
+    private FrameSelector() {
+    }
+
+    /**
+     * @param timestamps The timestamps of the candidate frames.
+     * @param count      The number of candidate frames.
+     * @param target     The timestamp to match.
+     * @return The index of the frame closest to {@code target}, or -1 if there are no frames.
+     */
+    static int selectClosest(long[] timestamps, int count, long target) {
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            final long distance = Math.abs(timestamps[i] - target);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param timestamps The timestamps of the candidate frames.
+     * @param scores     The sharpness of each candidate frame, or a negative value for frames
+     *                   that were not scored.
+     * @param count      The number of candidate frames.
+     * @param target     The timestamp to match.
+     * @param window     How far from {@code target} a frame can be to be picked for its
+     *                   sharpness.
+     * @return The index of the sharpest frame within {@code window} of {@code target}, or the
+     * closest frame if none of them was scored. -1 if there are no frames.
+     */
+    static int selectSharpest(long[] timestamps, long[] scores, int count, long target,
+            long window) {
+        int best = -1;
+        long bestScore = -1;
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(timestamps[i] - target) <= window && scores[i] > bestScore) {
+                best = i;
+                bestScore = scores[i];
+            }
+        }
+        return best >= 0 ? best : selectClosest(timestamps, count, target);
+    }
+
+    /**
+     * Estimates how sharp an image is from the energy of its luma gradients. Blur from motion or
+     * missed focus lowers the differences between neighbouring pixels, so among frames of the
+     * same scene the sharpest one has the highest score.
+     *
+     * @param luma      The luma plane.
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param rowStride The distance between the starts of two rows in {@code luma}.
+     * @param step      Only every {@code step}-th pixel of every {@code step}-th row is sampled.
+     * @return The mean squared gradient of the sampled pixels.
+     */
+    static long sharpness(ByteBuffer luma, int width, int height, int rowStride, int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("Invalid step: " + step);
+        }
+        long energy = 0;
+        int samples = 0;
+        for (int row = 0; row + 1 < height; row += step) {
+            final int base = row * rowStride;
+            for (int col = 0; col + 1 < width; col += step) {
+                final int p = luma.get(base + col) & 0xff;
+                final int dx = (luma.get(base + col + 1) & 0xff) - p;
+                final int dy = (luma.get(base + rowStride + col) & 0xff) - p;
+                energy += dx * dx + dy * dy;
+                samples++;
+            }
+        }
+        return samples == 0 ? 0 : energy / samples;
+    }
+
+}
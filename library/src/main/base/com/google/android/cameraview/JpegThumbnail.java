@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * Finds the small JPEG image that cameras embed in the EXIF data of a picture, and sizes the
+ * fallback decode when there is none.
+ */
+class JpegThumbnail {
+
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+
+    private JpegThumbnail() {
+    }
+
+    /**
+     * @param jpeg The JPEG data of the picture, from its position to its limit.
+     * @return A slice of {@code jpeg} with the JPEG data of the embedded thumbnail, or
+     * {@code null} if there is none.
+     */
+    static ByteBuffer findEmbedded(ByteBuffer jpeg) {
+        final ExifOrientation.Exif exif = ExifOrientation.find(jpeg);
+        if (exif.mIfd0 < 0) {
+            return null;
+        }
+        // The thumbnail is described by the second image file directory
+        final int ifd1 = exif.directory(jpeg, exif.nextPointer(jpeg, exif.mIfd0));
+        if (ifd1 < 0) {
+            return null;
+        }
+        final int offsetEntry = exif.findEntry(jpeg, ifd1, TAG_JPEG_INTERCHANGE_FORMAT);
+        final int lengthEntry = exif.findEntry(jpeg, ifd1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+        if (offsetEntry < 0 || lengthEntry < 0) {
+            return null;
+        }
+        // Both are a single LONG
+        final long offset = ExifOrientation.readInt(jpeg, offsetEntry + 8, exif.mBigEndian)
+                & 0xffffffffL;
+        final long length = ExifOrientation.readInt(jpeg, lengthEntry + 8, exif.mBigEndian)
+                & 0xffffffffL;
+        if (length < 2 || exif.mTiff + offset + length > exif.mEnd) {
+            return null;
+        }
+        final int start = exif.mTiff + (int) offset;
+        if (ExifOrientation.u8(jpeg, start) != 0xff
+                || ExifOrientation.u8(jpeg, start + 1) != 0xd8) { // Start of image
+            return null;
+        }
+        final ByteBuffer thumbnail = jpeg.duplicate();
+        thumbnail.limit(start + (int) length);
+        thumbnail.position(start);
+        return thumbnail.slice();
+    }
+
+    /**
+     * @param width   The width of the encoded image.
+     * @param height  The height of the encoded image.
+     * @param maxSize The desired length of the longer side of the thumbnail.
+     * @return The largest power of two to divide the image by in the decoder, such that the
+     * longer side is still at least {@code maxSize}.
+     */
+    static int sampleSize(int width, int height, int maxSize) {
+        final int longer = Math.max(width, height);
+        int sampleSize = 1;
+        while (maxSize > 0 && longer / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Chooses the size of the thumbnail for the camera to embed in its pictures.
+     *
+     * @param sizes   The thumbnail sizes supported by the camera; (0, 0) means no thumbnail.
+     * @param ratio   The aspect ratio of the pictures.
+     * @param maxSize The desired length of the longer side of the thumbnail.
+     * @return The smallest size whose longer side is at least {@code maxSize}, or the largest
+     * one if none is that big; sizes in {@code ratio} are preferred. {@code null} if the camera
+     * cannot embed thumbnails.
+     */
+    static Size chooseSize(Collection<Size> sizes, AspectRatio ratio, int maxSize) {
+        Size best = null;
+        boolean bestMatches = false;
+        for (Size size : sizes) {
+            if (size.getWidth() == 0 || size.getHeight() == 0) {
+                continue;
+            }
+            final boolean matches = ratio.matches(size);
+            if (best == null || matches && !bestMatches) {
+                best = size;
+                bestMatches = matches;
+                continue;
+            }
+            if (matches != bestMatches) {
+                continue;
+            }
+            final boolean bigEnough = longer(size) >= maxSize;
+            final boolean bestBigEnough = longer(best) >= maxSize;
+            if (bigEnough && (!bestBigEnough || longer(size) < longer(best))
+                    || !bigEnough && !bestBigEnough && longer(size) > longer(best)) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    private static int longer(Size size) {
+        return Math.max(size.getWidth(), size.getHeight());
+    }
+
+}
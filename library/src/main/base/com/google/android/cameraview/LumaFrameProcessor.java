@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Adapts a {@link LumaProcessor} to the {@link FrameProcessor} interface. Two adapters are
+ * equal when they wrap the same {@link LumaProcessor}, so that one can be removed from a
+ * {@link FrameDispatcher} with a new adapter.
+ */
+class LumaFrameProcessor implements FrameProcessor {
+
+    private final LumaProcessor mProcessor;
+
+    LumaFrameProcessor(@NonNull LumaProcessor processor) {
+        mProcessor = processor;
+    }
+
+    @Override
+    public void process(@NonNull Frame frame) {
+        mProcessor.process(frame.getLumaPlane(), frame.getWidth(), frame.getHeight(),
+                frame.getRowStride(Frame.PLANE_Y));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LumaFrameProcessor
+                && ((LumaFrameProcessor) o).mProcessor == mProcessor;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(mProcessor);
+    }
+
+}
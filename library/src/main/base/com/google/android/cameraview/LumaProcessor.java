@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the luma (Y) plane of camera preview frames from {@link CameraView}, for grayscale
+ * analysis such as sharpness, motion or barcode detection.
+ *
+ * @see CameraView#addLumaProcessor(LumaProcessor)
+ */
+public interface LumaProcessor {
+
+    /**
+     * Called for each preview frame. The buffer is a read-only view of the camera buffer, not a
+     * copy; it is only valid until this method returns. Pixel {@code (x, y)} is at index
+     * {@code y * rowStride + x}.
+     *
+     * @param luma      The luma plane, one byte per pixel.
+     * @param width     The width of the frame.
+     * @param height    The height of the frame.
+     * @param rowStride The distance in bytes between the starts of two consecutive rows.
+     */
+    void process(@NonNull ByteBuffer luma, int width, int height, int rowStride);
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.graphics.ImageFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Frame} backed by a reusable NV21 byte array.
+ *
+ * <p>The plane views are created once when the buffer is allocated, so delivering this frame
+ * again does not allocate anything.</p>
+ */
+class Nv21Frame extends Frame {
+
+    interface Recycler {
+        void recycle(Nv21Frame frame);
+    }
+
+    private final byte[] mData;
+
+    private final Recycler mRecycler;
+
+    Nv21Frame(int width, int height, Recycler recycler) {
+        mData = new byte[bufferSize(width, height)];
+        mRecycler = recycler;
+        setFormat(ImageFormat.NV21, width, height);
+        final int lumaSize = width * height;
+        final int chromaSize = mData.length - lumaSize;
+        final int chromaRowStride = chromaRowStride(width);
+        setPlane(PLANE_Y, slice(0, lumaSize), width, 1);
+        // NV21 stores V and U interleaved; expose each of them as a plane with pixel stride 2
+        setPlane(PLANE_V, slice(lumaSize, chromaSize), chromaRowStride, 2);
+        setPlane(PLANE_U, slice(lumaSize + 1, chromaSize - 1), chromaRowStride, 2);
+    }
+
+    /**
+     * @return The number of bytes needed for an NV21 image of the specified size.
+     */
+    static int bufferSize(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * @return The row stride of the interleaved chroma plane; same as the width unless it is odd.
+     */
+    static int chromaRowStride(int width) {
+        return 2 * ((width + 1) / 2);
+    }
+
+    /**
+     * Copies a YUV 4:2:0 frame with any row and pixel strides into an NV21 array. The luma is
+     * copied a row at a time; nothing is resampled.
+     *
+     * @param frame The frame; its planes are read from their positions.
+     * @param out   An array of at least {@link #bufferSize(int, int)} bytes.
+     */
+    static void copy(Frame frame, byte[] out) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final ByteBuffer y = frame.getPlane(PLANE_Y).duplicate();
+        final int yStart = y.position();
+        final int yRowStride = frame.getRowStride(PLANE_Y);
+        for (int row = 0; row < height; row++) {
+            y.position(yStart + row * yRowStride);
+            y.get(out, row * width, width);
+        }
+        final ByteBuffer u = frame.getPlane(PLANE_U);
+        final ByteBuffer v = frame.getPlane(PLANE_V);
+        final int uRowStride = frame.getRowStride(PLANE_U);
+        final int vRowStride = frame.getRowStride(PLANE_V);
+        final int uPixelStride = frame.getPixelStride(PLANE_U);
+        final int vPixelStride = frame.getPixelStride(PLANE_V);
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        int p = width * height;
+        for (int row = 0; row < chromaHeight; row++) {
+            int ui = u.position() + row * uRowStride;
+            int vi = v.position() + row * vRowStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                out[p++] = v.get(vi);
+                out[p++] = u.get(ui);
+                ui += uPixelStride;
+                vi += vPixelStride;
+            }
+        }
+    }
+
+    byte[] getData() {
+        return mData;
+    }
+
+    @Override
+    void recycle() {
+        mRecycler.recycle(this);
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        return ByteBuffer.wrap(mData, offset, length).slice();
+    }
+
+}
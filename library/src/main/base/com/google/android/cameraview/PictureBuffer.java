@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The JPEG data of a picture, without a copy into a {@code byte[]}.
+ *
+ * <p>On Camera2, this holds the {@code Image} from the camera, and the camera can only hold
+ * a couple of them at a time; further pictures cannot be delivered until the earlier ones are
+ * closed. The buffer is valid until
+ * {@link CameraView.Callback#onPictureTaken(CameraView, PictureBuffer)} returns, unless it is
+ * kept with {@link #retain()}; each call to {@link #retain()} must be balanced by a call to
+ * {@link #close()}.</p>
+ */
+public abstract class PictureBuffer implements Closeable {
+
+    private final ByteBuffer mBuffer;
+
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
+    private byte[] mBytes;
+
+    /**
+     * @param buffer The JPEG data, from its position to its limit.
+     */
+    PictureBuffer(ByteBuffer buffer) {
+        mBuffer = buffer.slice();
+    }
+
+    /**
+     * @return A new read-only view of the JPEG data, positioned at its start. The data is not
+     * copied.
+     */
+    public ByteBuffer getBuffer() {
+        ensureOpen();
+        return mBuffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The size of the JPEG data in bytes.
+     */
+    public int size() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * Returns how the picture must be rotated to be upright, from its EXIF orientation tag. The
+     * camera either rotates the pixels or only sets the tag; in the first case, this is 0. The
+     * picture is not decoded.
+     *
+     * @return The clockwise rotation in degrees: 0, 90, 180 or 270.
+     */
+    public int getRotation() {
+        return ExifOrientation.toDegrees(ExifOrientation.read(getBuffer()));
+    }
+
+    /**
+     * Decodes a small, upright version of the picture. The thumbnail that the camera embedded in
+     * the EXIF data is used if there is one; otherwise, the picture is decoded at a fraction of
+     * its resolution, which is still much faster than a full decode.
+     *
+     * @param maxSize The desired length of the longer side in pixels. The result can be up to
+     *                twice as large, or smaller if the embedded thumbnail is.
+     * @return The thumbnail, or {@code null} if the data cannot be decoded.
+     */
+    @Nullable
+    public Bitmap decodeThumbnail(int maxSize) {
+        final Bitmap embedded = decodeEmbeddedThumbnail(maxSize);
+        if (embedded != null) {
+            return embedded;
+        }
+        return upright(decode(toByteArray(), maxSize));
+    }
+
+    /**
+     * Decodes the thumbnail that the camera embedded in the EXIF data, upright. Only the
+     * thumbnail is copied, so this is cheap enough to do while the picture is delivered.
+     *
+     * @param maxSize The desired length of the longer side in pixels.
+     * @return The thumbnail, or {@code null} if there is none.
+     */
+    @Nullable
+    Bitmap decodeEmbeddedThumbnail(int maxSize) {
+        final ByteBuffer embedded = JpegThumbnail.findEmbedded(getBuffer());
+        if (embedded == null) {
+            return null;
+        }
+        final byte[] data = new byte[embedded.remaining()];
+        embedded.get(data);
+        return upright(decode(data, maxSize));
+    }
+
+    /**
+     * Rotates a bitmap decoded from this picture by its EXIF orientation.
+     */
+    private Bitmap upright(Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+        final int rotation = ExifOrientation.toDegrees(ExifOrientation.read(getBuffer()));
+        if (rotation == 0) {
+            return bitmap;
+        }
+        final Matrix matrix = new Matrix();
+        matrix.setRotate(rotation);
+        final Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
+                bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    private static Bitmap decode(byte[] jpeg, int maxSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = JpegThumbnail.sampleSize(options.outWidth, options.outHeight,
+                maxSize);
+        return BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+    }
+
+    /**
+     * Returns the JPEG data as an array. The first call copies the data unless it already was
+     * in an array; the following calls return the same array.
+     *
+     * @return The JPEG data. The array must not be modified.
+     */
+    public synchronized byte[] toByteArray() {
+        if (mBytes == null) {
+            ensureOpen();
+            if (mBuffer.hasArray() && mBuffer.arrayOffset() == 0
+                    && mBuffer.array().length == mBuffer.capacity()) {
+                mBytes = mBuffer.array();
+            } else {
+                final byte[] bytes = new byte[mBuffer.capacity()];
+                mBuffer.duplicate().get(bytes);
+                mBytes = bytes;
+            }
+        }
+        return mBytes;
+    }
+
+    /**
+     * Keeps this buffer valid after the callback returns.
+     *
+     * @return This buffer.
+     */
+    public PictureBuffer retain() {
+        while (true) {
+            final int count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("The picture buffer has already been closed.");
+            }
+            if (mRefCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference to this buffer. The underlying memory goes back to the camera when
+     * the last reference is released.
+     */
+    @Override
+    public void close() {
+        final int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            recycle();
+        } else if (count < 0) {
+            mRefCount.set(0);
+            throw new IllegalStateException("The picture buffer has already been closed.");
+        }
+    }
+
+    private void ensureOpen() {
+        if (mRefCount.get() <= 0) {
+            throw new IllegalStateException("The picture buffer has already been closed.");
+        }
+    }
+
+    /**
+     * Hands the underlying memory back to the camera implementation.
+     */
+    abstract void recycle();
+
+    /**
+     * A {@link PictureBuffer} of JPEG data that is already in an array, as with Camera1.
+     */
+    static class ByteArray extends PictureBuffer {
+
+        ByteArray(byte[] data) {
+            super(ByteBuffer.wrap(data));
+        }
+
+        @Override
+        void recycle() {
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The picture requests waiting for a camera that can only take one picture at a time, with
+ * counts of what became of them.
+ */
+class PictureQueue {
+
+    private final int mCapacity;
+
+    private final ArrayDeque<PictureRequest> mRequests = new ArrayDeque<>();
+
+    private int mQueued;
+
+    private int mServed;
+
+    private int mDropped;
+
+    /**
+     * @param capacity The maximum number of requests that can wait at once. Rapid tapping beyond
+     *                 this is dropped rather than keeping the camera busy for a long time.
+     */
+    PictureQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1.");
+        }
+        mCapacity = capacity;
+    }
+
+    /**
+     * @return {@code true} if the request was queued, {@code false} if it was dropped because
+     * the queue is full.
+     */
+    synchronized boolean offer(PictureRequest request) {
+        if (mRequests.size() >= mCapacity) {
+            mDropped++;
+            return false;
+        }
+        mRequests.offer(request);
+        mQueued++;
+        return true;
+    }
+
+    /**
+     * @return The next request, or {@code null} if none is waiting.
+     */
+    synchronized PictureRequest poll() {
+        return mRequests.poll();
+    }
+
+    synchronized boolean isEmpty() {
+        return mRequests.isEmpty();
+    }
+
+    /**
+     * Records the outcome of a request taken out of the queue.
+     */
+    synchronized void onDone(PictureRequest request) {
+        if (request.getDeliveredCount() > 0) {
+            mServed++;
+        } else {
+            mDropped++;
+        }
+    }
+
+    /**
+     * Removes all the waiting requests, e.g. when the camera is closed. They are counted as
+     * dropped.
+     *
+     * @return The removed requests, in order.
+     */
+    synchronized List<PictureRequest> clear() {
+        final List<PictureRequest> requests = new ArrayList<>(mRequests);
+        mRequests.clear();
+        mDropped += requests.size();
+        return requests;
+    }
+
+    synchronized PictureStats getStats() {
+        return new PictureStats(mQueued, mServed, mDropped, mRequests.size());
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.util.Arrays;
+
+/**
+ * A call to take a picture, passed through the camera implementation so that the result can be
+ * matched with where it should go.
+ */
+class PictureRequest {
+
+    /** When the picture was requested, in {@link System#nanoTime()}. */
+    final long mRequestTime = System.nanoTime();
+
+    /** When the JPEG data became available, in {@link System#nanoTime()}. */
+    long mTakenTime;
+
+    /** The file to save the picture to, or {@code null}. */
+    final File mFile;
+
+    /** The file descriptor to write the picture to, or {@code null}. */
+    final FileDescriptor mFileDescriptor;
+
+    /** Where to report the outcome of saving the picture, or {@code null}. */
+    final CameraView.PictureSaveCallback mSaveCallback;
+
+    /** The number of pictures to take. */
+    final int mBurstCount;
+
+    /** The minimum time between two pictures of a burst, in milliseconds. */
+    final long mBurstInterval;
+
+    /** The number of pictures that are neither delivered nor failed yet. */
+    private int mRemaining;
+
+    private int mDelivered;
+
+    /** The time of each {@link CaptureTiming} event, or {@link CaptureTiming#NOT_REACHED}. */
+    private final long[] mEventTimes = new long[CaptureTiming.EVENT_COUNT];
+
+    /**
+     * Creates a request for a picture delivered to {@link CameraView.Callback}.
+     */
+    PictureRequest() {
+        this(null, null, null, 1, 0);
+    }
+
+    PictureRequest(File file, FileDescriptor fileDescriptor,
+            CameraView.PictureSaveCallback saveCallback) {
+        this(file, fileDescriptor, saveCallback, 1, 0);
+    }
+
+    /**
+     * Creates a request for a burst of pictures delivered to {@link CameraView.Callback}.
+     */
+    PictureRequest(int burstCount, long burstInterval) {
+        this(null, null, null, burstCount, burstInterval);
+    }
+
+    private PictureRequest(File file, FileDescriptor fileDescriptor,
+            CameraView.PictureSaveCallback saveCallback, int burstCount, long burstInterval) {
+        if (burstCount < 1) {
+            throw new IllegalArgumentException("At least one picture must be taken.");
+        }
+        if (burstInterval < 0) {
+            throw new IllegalArgumentException("The interval must not be negative.");
+        }
+        mFile = file;
+        mFileDescriptor = fileDescriptor;
+        mSaveCallback = saveCallback;
+        mBurstCount = burstCount;
+        mBurstInterval = burstInterval;
+        mRemaining = burstCount;
+        Arrays.fill(mEventTimes, CaptureTiming.NOT_REACHED);
+        mEventTimes[CaptureTiming.EVENT_REQUEST] = mRequestTime;
+    }
+
+    boolean isBurst() {
+        return mBurstCount > 1;
+    }
+
+    /**
+     * Records that one of the pictures was delivered or could not be taken.
+     *
+     * @return {@code true} if this was the last picture of the request.
+     */
+    synchronized boolean onPictureDone(boolean delivered) {
+        if (delivered) {
+            mDelivered++;
+        }
+        return mRemaining > 0 && --mRemaining == 0;
+    }
+
+    /**
+     * Records that an event happened now, unless it already happened for an earlier picture of
+     * the request.
+     */
+    synchronized void mark(@CaptureTiming.Event int event) {
+        if (mEventTimes[event] == CaptureTiming.NOT_REACHED) {
+            mEventTimes[event] = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return The events recorded so far.
+     */
+    synchronized CaptureTiming getTiming() {
+        return new CaptureTiming(mEventTimes);
+    }
+
+    /**
+     * @return The number of pictures delivered so far.
+     */
+    synchronized int getDeliveredCount() {
+        return mDelivered;
+    }
+
+    /**
+     * @return {@code true} if the picture is written out instead of being delivered to
+     * {@link CameraView.Callback}.
+     */
+    boolean isSaveRequest() {
+        return mFile != null || mFileDescriptor != null;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.SortedSet;
+
+/**
+ * Decides how large the pictures are, within the sizes the camera supports for the current
+ * aspect ratio. The largest size that fits all the limits is used, or the smallest size if none
+ * does.
+ *
+ * <p>The memory of a picture is estimated as 1.5 bytes per pixel, the size of the YUV image it
+ * is encoded from, which also bounds its JPEG data. The camera holds several picture buffers at
+ * a time for bursts and zero shutter lag, and the byte budget covers all of them, so these may
+ * get smaller pictures than single shots.</p>
+ */
+public final class PictureSizePolicy {
+
+    /** Always uses the largest size; this is the default. */
+    public static final PictureSizePolicy LARGEST = new PictureSizePolicy(0, 0, 0);
+
+    private final long mMaxPixels;
+
+    private final long mMaxBytes;
+
+    private final float mHeapFraction;
+
+    private PictureSizePolicy(long maxPixels, long maxBytes, float heapFraction) {
+        mMaxPixels = maxPixels;
+        mMaxBytes = maxBytes;
+        mHeapFraction = heapFraction;
+    }
+
+    /**
+     * @param maxMegapixels The maximum number of megapixels of a picture, or 0 for no limit.
+     * @param maxBytes      The maximum memory for all the picture buffers of the camera, or 0
+     *                      for no limit.
+     * @return A new policy.
+     */
+    public static PictureSizePolicy of(float maxMegapixels, long maxBytes) {
+        if (maxMegapixels < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Negative limit: " + maxMegapixels + " MP, "
+                    + maxBytes + " bytes");
+        }
+        return new PictureSizePolicy((long) (maxMegapixels * 1000000), maxBytes, 0);
+    }
+
+    /**
+     * Also keeps a single picture within a fraction of the Java heap that is still available
+     * when the size is chosen, so that its JPEG data can be copied into an array.
+     *
+     * @param fraction The fraction of the available heap, between 0 and 1.
+     * @return A new policy with the limits of this one and the heap limit.
+     */
+    public PictureSizePolicy limitedToHeap(float fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("Invalid fraction: " + fraction);
+        }
+        return new PictureSizePolicy(mMaxPixels, mMaxBytes, fraction);
+    }
+
+    /**
+     * @param sizes       The supported sizes in the aspect ratio.
+     * @param bufferCount The number of picture buffers the camera holds.
+     * @return The picture size.
+     */
+    Size choose(SortedSet<Size> sizes, int bufferCount) {
+        long heapAvailable = 0;
+        if (mHeapFraction > 0) {
+            final Runtime runtime = Runtime.getRuntime();
+            heapAvailable = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        }
+        return choose(sizes, bufferCount, heapAvailable);
+    }
+
+    /**
+     * @param heapAvailable The available Java heap in bytes; only used with a heap limit.
+     */
+    Size choose(SortedSet<Size> sizes, int bufferCount, long heapAvailable) {
+        final long heapLimit = (long) (heapAvailable * mHeapFraction);
+        // Sorted by area, so the last size that fits is the largest
+        Size best = null;
+        for (Size size : sizes) {
+            final long pixels = (long) size.getWidth() * size.getHeight();
+            final long bytes = bufferBytes(size);
+            if ((mMaxPixels == 0 || pixels <= mMaxPixels)
+                    && (mMaxBytes == 0 || bytes * bufferCount <= mMaxBytes)
+                    && (mHeapFraction == 0 || bytes <= heapLimit)) {
+                best = size;
+            }
+        }
+        return best != null ? best : sizes.first();
+    }
+
+    /**
+     * @return The estimated memory of a picture buffer in bytes.
+     */
+    static long bufferBytes(Size size) {
+        return (long) size.getWidth() * size.getHeight() * 3 / 2;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PictureSizePolicy)) {
+            return false;
+        }
+        final PictureSizePolicy other = (PictureSizePolicy) o;
+        return mMaxPixels == other.mMaxPixels && mMaxBytes == other.mMaxBytes
+                && mHeapFraction == other.mHeapFraction;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mMaxPixels ^ (mMaxPixels >>> 32)) * 31
+                + (int) (mMaxBytes ^ (mMaxBytes >>> 32)) * 17
+                + Float.floatToIntBits(mHeapFraction);
+    }
+
+    @Override
+    public String toString() {
+        if (equals(LARGEST)) {
+            return "largest";
+        }
+        return "max " + (mMaxPixels == 0 ? "any" : mMaxPixels) + " pixels, "
+                + (mMaxBytes == 0 ? "any" : mMaxBytes) + " bytes"
+                + (mHeapFraction == 0 ? "" : ", " + mHeapFraction + " of the heap");
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * A snapshot of the counts of the picture requests handled since the camera was opened.
+ */
+public class PictureStats {
+
+    private final int mQueued;
+
+    private final int mServed;
+
+    private final int mDropped;
+
+    private final int mPending;
+
+    PictureStats(int queued, int served, int dropped, int pending) {
+        mQueued = queued;
+        mServed = served;
+        mDropped = dropped;
+        mPending = pending;
+    }
+
+    /**
+     * @return The number of requests accepted for capture.
+     */
+    public int getQueued() {
+        return mQueued;
+    }
+
+    /**
+     * @return The number of requests for which at least one picture was delivered.
+     */
+    public int getServed() {
+        return mServed;
+    }
+
+    /**
+     * @return The number of requests that were refused because too many were waiting, or that
+     * failed without delivering a picture.
+     */
+    public int getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return The number of requests waiting for their turn, not counting the one being
+     * captured.
+     */
+    public int getPending() {
+        return mPending;
+    }
+
+    @Override
+    public String toString() {
+        return "PictureStats{queued=" + mQueued + ", served=" + mServed + ", dropped=" + mDropped
+                + ", pending=" + mPending + "}";
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes pictures to files on a dedicated I/O thread, straight from their
+ * {@link PictureBuffer}s.
+ *
+ * <p>A picture saved to a {@link File} is written to a temporary file next to it, synced to
+ * the disk and then renamed, so the file either does not exist or has the whole picture. A
+ * picture written to a file descriptor is synced but the descriptor is left open.</p>
+ */
+class PictureWriter {
+
+    interface Listener {
+
+        /**
+         * Called on the I/O thread when a picture has been written.
+         *
+         * @param writeTime How long the writing took, in nanoseconds.
+         */
+        void onPictureWritten(PictureRequest request, long writeTime);
+
+        /**
+         * Called on the I/O thread when a picture could not be written.
+         */
+        void onPictureWriteFailed(PictureRequest request, IOException e);
+
+    }
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The I/O thread goes away after being idle for this long. */
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private final Listener mListener;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    PictureWriter(Listener listener) {
+        mListener = listener;
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "PictureWriter");
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Writes a picture in the background. This takes over the reference to the picture.
+     */
+    void write(final PictureBuffer picture, final PictureRequest request) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                IOException error = null;
+                try {
+                    if (request.mFile != null) {
+                        writeFile(picture.getBuffer(), request.mFile);
+                    } else {
+                        writeFileDescriptor(picture.getBuffer(), request);
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    picture.close();
+                }
+                if (error != null) {
+                    mListener.onPictureWriteFailed(request, error);
+                } else {
+                    mListener.onPictureWritten(request, System.nanoTime() - start);
+                }
+            }
+        });
+    }
+
+    static void writeFile(ByteBuffer data, File file) throws IOException {
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            writeFully(out.getChannel(), data);
+            out.getFD().sync();
+        } catch (IOException e) {
+            close(out);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+        out.close();
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+    }
+
+    private static void writeFileDescriptor(ByteBuffer data, PictureRequest request)
+            throws IOException {
+        // Not closed; closing the stream would close the caller's descriptor
+        final FileOutputStream out = new FileOutputStream(request.mFileDescriptor);
+        final FileChannel channel = out.getChannel();
+        writeFully(channel, data);
+        channel.force(false);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private static void close(FileOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Measures how long the preview freezes while a still picture is taken, from the sensor
+ * timestamps of the preview frames.
+ *
+ * <p>The stall of a capture is the longest gap between two preview frames from the start of the
+ * capture until the first preview frame after it is done. A capture that does not disturb the
+ * preview stalls for about one frame interval.</p>
+ */
+class PreviewStallMeter {
+
+    /** Weight of a new sample in the average frame interval, as a shift: 1/8. */
+    private static final int AVERAGE_SHIFT = 3;
+
+    private long mLastTimestamp = -1;
+
+    private long mFrameInterval;
+
+    private boolean mCapturing;
+
+    /** Whether the capture is done and the stall ends with the next frame. */
+    private boolean mEnding;
+
+    private long mLongestGap;
+
+    private long mLastStall = -1;
+
+    /**
+     * Called when a capture starts.
+     */
+    synchronized void start() {
+        mCapturing = true;
+        mEnding = false;
+        mLongestGap = 0;
+    }
+
+    /**
+     * Called when a capture is done; the stall is complete with the next preview frame.
+     */
+    synchronized void stop() {
+        if (mCapturing) {
+            mEnding = true;
+        }
+    }
+
+    /**
+     * @param timestamp The sensor timestamp of a preview frame in nanoseconds.
+     * @return The stall of the capture that this frame completes in nanoseconds, or -1.
+     */
+    synchronized long onPreviewFrame(long timestamp) {
+        final long gap = mLastTimestamp < 0 ? -1 : timestamp - mLastTimestamp;
+        if (gap <= 0 && mLastTimestamp >= 0) {
+            // Out of order, or the camera was restarted with another time base
+            mLastTimestamp = timestamp;
+            return -1;
+        }
+        mLastTimestamp = timestamp;
+        if (!mCapturing) {
+            if (gap > 0) {
+                mFrameInterval = mFrameInterval == 0 ? gap
+                        : mFrameInterval + ((gap - mFrameInterval) >> AVERAGE_SHIFT);
+            }
+            return -1;
+        }
+        mLongestGap = Math.max(mLongestGap, gap);
+        if (!mEnding) {
+            return -1;
+        }
+        mCapturing = false;
+        mEnding = false;
+        mLastStall = mLongestGap;
+        return mLastStall;
+    }
+
+    /**
+     * @return The stall of the last capture in nanoseconds, or -1 if none was measured.
+     */
+    synchronized long getLastStall() {
+        return mLastStall;
+    }
+
+    /**
+     * @return The average interval between preview frames outside of captures in nanoseconds, or
+     * 0 if it is not known yet.
+     */
+    synchronized long getFrameInterval() {
+        return mFrameInterval;
+    }
+
+    /**
+     * Forgets the history, e.g. when a new session is started.
+     */
+    synchronized void reset() {
+        mLastTimestamp = -1;
+        mFrameInterval = 0;
+        mCapturing = false;
+        mEnding = false;
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Converts YUV 4:2:0 images into ARGB_8888 pixels, as used by
+ * {@code Bitmap#setPixels(int[], int, int, int, int, int, int)}.
+ *
+ * <p>Both NV21 buffers (Camera1) and {@code YUV_420_888} planes with arbitrary row and pixel
+ * strides (Camera2) are supported. The conversion uses the full-range BT.601 (JFIF) matrix in
+ * fixed-point arithmetic and writes into a caller-supplied array, so it does not allocate
+ * anything per image.</p>
+ *
+ * <p>When created with an {@link Executor}, the image is split into horizontal stripes which
+ * are converted in parallel. An instance converts one image at a time.</p>
+ */
+public class YuvConverter {
+
+    // Fixed-point (16.16) coefficients of the JFIF YCbCr to RGB conversion
+    private static final int R_V = 91881; // 1.402
+    private static final int G_U = 22554; // 0.344136
+    private static final int G_V = 46802; // 0.714136
+    private static final int B_U = 116130; // 1.772
+    private static final int ROUND = 1 << 15;
+
+    private final Executor mExecutor;
+
+    private final Stripe[] mStripes;
+
+    /** Guards {@link #mPendingStripes} and {@link #mStripeError}. */
+    private final Object mStripeLock = new Object();
+
+    private int mPendingStripes;
+
+    private Throwable mStripeError;
+
+    // The image being converted; written before the stripes are submitted
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private byte[] mYArray;
+    private byte[] mUArray;
+    private byte[] mVArray;
+    private int mYOffset;
+    private int mUOffset;
+    private int mVOffset;
+    private int mYRowStride;
+    private int mUvRowStride;
+    private int mUvPixelStride;
+    private int mWidth;
+    private int[] mOut;
+
+    /**
+     * Creates a converter that runs on the calling thread.
+     */
+    public YuvConverter() {
+        this(null, 1);
+    }
+
+    /**
+     * Creates a converter that splits each image into {@code stripes} horizontal stripes. The
+     * calling thread converts one stripe and the others are submitted to {@code executor}.
+     *
+     * @param executor The executor for the stripes, or {@code null} to convert everything on
+     *                 the calling thread.
+     * @param stripes  The number of stripes, typically the number of CPU cores.
+     */
+    public YuvConverter(@Nullable Executor executor, int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("The number of stripes must be positive.");
+        }
+        mExecutor = executor;
+        mStripes = new Stripe[executor == null ? 1 : stripes];
+        for (int i = 0; i < mStripes.length; i++) {
+            mStripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Converts a preview frame.
+     *
+     * @param frame The frame to convert.
+     * @param argb  The output array of at least {@code width * height} pixels, row by row.
+     */
+    public void convert(@NonNull Frame frame, @NonNull int[] argb) {
+        convert(frame.getPlane(Frame.PLANE_Y), frame.getPlane(Frame.PLANE_U),
+                frame.getPlane(Frame.PLANE_V), frame.getRowStride(Frame.PLANE_Y),
+                frame.getRowStride(Frame.PLANE_U), frame.getPixelStride(Frame.PLANE_U),
+                frame.getWidth(), frame.getHeight(), argb);
+    }
+
+    /**
+     * Converts an NV21 image.
+     *
+     * @param nv21   The image data; a full-resolution Y plane followed by interleaved V and U.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param argb   The output array of at least {@code width * height} pixels, row by row.
+     */
+    public synchronized void convertNv21(@NonNull byte[] nv21, int width, int height,
+            @NonNull int[] argb) {
+        checkSize(width, height, argb);
+        if (nv21.length < Nv21Frame.bufferSize(width, height)) {
+            throw new IllegalArgumentException("The NV21 buffer is too small.");
+        }
+        mYArray = mUArray = mVArray = nv21;
+        mYOffset = 0;
+        mVOffset = width * height;
+        mUOffset = mVOffset + 1;
+        mYRowStride = width;
+        mUvRowStride = Nv21Frame.chromaRowStride(width);
+        mUvPixelStride = 2;
+        run(width, height, argb);
+    }
+
+    /**
+     * Converts a YUV 4:2:0 image given as three planes. The U and V planes must share the same
+     * row and pixel strides, as is guaranteed for {@code YUV_420_888}. The planes are read with
+     * absolute indices from their start, regardless of their positions.
+     *
+     * @param y             The luma plane.
+     * @param u             The Cb plane.
+     * @param v             The Cr plane.
+     * @param yRowStride    The row stride of the luma plane.
+     * @param uvRowStride   The row stride of the chroma planes.
+     * @param uvPixelStride The pixel stride of the chroma planes.
+     * @param width         The width of the image.
+     * @param height        The height of the image.
+     * @param argb          The output array of at least {@code width * height} pixels.
+     */
+    public synchronized void convert(@NonNull ByteBuffer y, @NonNull ByteBuffer u,
+            @NonNull ByteBuffer v, int yRowStride, int uvRowStride, int uvPixelStride,
+            int width, int height, @NonNull int[] argb) {
+        checkSize(width, height, argb);
+        if (y.hasArray() && u.hasArray() && v.hasArray()) {
+            // Heap buffers, such as the ones of Camera1; index the arrays directly
+            mYArray = y.array();
+            mUArray = u.array();
+            mVArray = v.array();
+            mYOffset = y.arrayOffset();
+            mUOffset = u.arrayOffset();
+            mVOffset = v.arrayOffset();
+        } else {
+            mY = y;
+            mU = u;
+            mV = v;
+        }
+        mYRowStride = yRowStride;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        run(width, height, argb);
+    }
+
+    private static void checkSize(int width, int height, int[] argb) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        if (argb.length < width * height) {
+            throw new IllegalArgumentException("The output array is too small.");
+        }
+    }
+
+    private void run(int width, int height, int[] argb) {
+        mWidth = width;
+        mOut = argb;
+        final Throwable stripeError;
+        try {
+            final int count = Math.min(mStripes.length, height);
+            // Keep the stripes on even rows so that no chroma row is shared between two stripes
+            final int rowsPerStripe = ((height + count - 1) / count + 1) & ~1;
+            synchronized (mStripeLock) {
+                mStripeError = null;
+            }
+            for (int i = 1; i < count; i++) {
+                final int start = i * rowsPerStripe;
+                if (start >= height) {
+                    break;
+                }
+                final Stripe stripe = mStripes[i];
+                stripe.mStart = start;
+                stripe.mEnd = Math.min(height, start + rowsPerStripe);
+                synchronized (mStripeLock) {
+                    mPendingStripes++;
+                }
+                try {
+                    mExecutor.execute(stripe);
+                } catch (RuntimeException e) {
+                    onStripeFinished(null);
+                    throw e;
+                }
+            }
+            convertRows(0, Math.min(height, rowsPerStripe));
+        } finally {
+            // The stripes already submitted read the fields, even when this thread failed
+            stripeError = awaitStripes();
+            mY = mU = mV = null;
+            mYArray = mUArray = mVArray = null;
+            mOut = null;
+        }
+        if (stripeError instanceof RuntimeException) {
+            throw (RuntimeException) stripeError;
+        } else if (stripeError instanceof Error) {
+            throw (Error) stripeError;
+        } else if (stripeError != null) {
+            throw new RuntimeException(stripeError);
+        }
+    }
+
+    /**
+     * Waits for all the submitted stripes.
+     *
+     * @return The first error thrown by a stripe, or {@code null}.
+     */
+    private Throwable awaitStripes() {
+        final Throwable error;
+        synchronized (mStripeLock) {
+            boolean interrupted = false;
+            while (mPendingStripes > 0) {
+                try {
+                    mStripeLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            error = mStripeError;
+            mStripeError = null;
+        }
+        return error;
+    }
+
+    private void onStripeFinished(Throwable error) {
+        synchronized (mStripeLock) {
+            if (error != null && mStripeError == null) {
+                mStripeError = error;
+            }
+            mPendingStripes--;
+            mStripeLock.notifyAll();
+        }
+    }
+
+    private void convertRows(int start, int end) {
+        if (mYArray != null) {
+            convertArrayRows(start, end);
+        } else {
+            convertBufferRows(start, end);
+        }
+    }
+
+    private void convertArrayRows(int start, int end) {
+        final byte[] yData = mYArray;
+        final byte[] uData = mUArray;
+        final byte[] vData = mVArray;
+        final int width = mWidth;
+        final int pixelStride = mUvPixelStride;
+        final int[] out = mOut;
+        for (int row = start; row < end; row++) {
+            final int yRow = mYOffset + row * mYRowStride;
+            final int uvRow = (row >> 1) * mUvRowStride;
+            int o = row * width;
+            for (int col = 0; col < width; col++) {
+                final int c = uvRow + (col >> 1) * pixelStride;
+                out[o++] = toArgb(yData[yRow + col] & 0xff, (uData[mUOffset + c] & 0xff) - 128,
+                        (vData[mVOffset + c] & 0xff) - 128);
+            }
+        }
+    }
+
+    private void convertBufferRows(int start, int end) {
+        final ByteBuffer yData = mY;
+        final ByteBuffer uData = mU;
+        final ByteBuffer vData = mV;
+        final int width = mWidth;
+        final int pixelStride = mUvPixelStride;
+        final int[] out = mOut;
+        for (int row = start; row < end; row++) {
+            final int yRow = row * mYRowStride;
+            final int uvRow = (row >> 1) * mUvRowStride;
+            int o = row * width;
+            for (int col = 0; col < width; col++) {
+                final int c = uvRow + (col >> 1) * pixelStride;
+                out[o++] = toArgb(yData.get(yRow + col) & 0xff, (uData.get(c) & 0xff) - 128,
+                        (vData.get(c) & 0xff) - 128);
+            }
+        }
+    }
+
+    /**
+     * @param y The luma, 0 to 255.
+     * @param u The Cb, centered on 0.
+     * @param v The Cr, centered on 0.
+     * @return The opaque ARGB_8888 color.
+     */
+    static int toArgb(int y, int u, int v) {
+        final int luma = (y << 16) + ROUND;
+        final int r = clamp((luma + R_V * v) >> 16);
+        final int g = clamp((luma - G_U * u - G_V * v) >> 16);
+        final int b = clamp((luma + B_U * u) >> 16);
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private class Stripe implements Runnable {
+
+        int mStart;
+
+        int mEnd;
+
+        @Override
+        public void run() {
+            Throwable error = null;
+            try {
+                convertRows(mStart, mEnd);
+            } catch (Throwable e) {
+                error = e;
+            }
+            onStripeFinished(error);
+        }
+
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+
+/**
+ * Crops and scales YUV 4:2:0 frames without converting them to RGB.
+ *
+ * <p>The luma plane and both chroma planes are resampled separately, reading only the pixels
+ * inside the crop rectangle, and the result is written as NV21 into a caller-supplied array.
+ * The sampling tables are kept between calls, so scaling frames of the same geometry does not
+ * allocate anything. An instance is not thread-safe.</p>
+ */
+public class YuvScaler {
+
+    /** Averages all the source pixels covered by a destination pixel. Best for downscaling. */
+    public static final int FILTER_BOX = 0;
+
+    /** Interpolates between the four nearest source pixels. */
+    public static final int FILTER_BILINEAR = 1;
+
+    /** The filter used for resampling. */
+    @IntDef({FILTER_BOX, FILTER_BILINEAR})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Filter {
+    }
+
+    private final int mFilter;
+
+    // Sampling tables for each axis, recomputed when the geometry changes. For the box filter,
+    // these are the start and end (exclusive) of the source span of each destination pixel; for
+    // the bilinear filter, the first source pixel and the 8-bit weight of the second one.
+    private final Axis mLumaX = new Axis();
+    private final Axis mLumaY = new Axis();
+    private final Axis mChromaX = new Axis();
+    private final Axis mChromaY = new Axis();
+
+    public YuvScaler(@Filter int filter) {
+        if (filter != FILTER_BOX && filter != FILTER_BILINEAR) {
+            throw new IllegalArgumentException("Unknown filter: " + filter);
+        }
+        mFilter = filter;
+    }
+
+    @Filter
+    public int getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Crops a frame and scales the result into an NV21 image.
+     *
+     * @param frame  The source frame.
+     * @param left   The left edge of the crop rectangle. Rounded down to an even number.
+     * @param top    The top edge of the crop rectangle. Rounded down to an even number.
+     * @param width  The width of the crop rectangle.
+     * @param height The height of the crop rectangle.
+     * @param nv21   The output array of at least {@code Nv21Frame.bufferSize(dstWidth,
+     *               dstHeight)} bytes.
+     * @param dstWidth  The width of the output image.
+     * @param dstHeight The height of the output image.
+     */
+    public void scale(@NonNull Frame frame, int left, int top, int width, int height,
+            @NonNull byte[] nv21, int dstWidth, int dstHeight) {
+        left &= ~1;
+        top &= ~1;
+        if (left < 0 || top < 0 || width <= 0 || height <= 0
+                || left + width > frame.getWidth() || top + height > frame.getHeight()) {
+            throw new IllegalArgumentException("The crop rectangle is outside of the frame.");
+        }
+        if (dstWidth <= 0 || dstHeight <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + dstWidth + "x" + dstHeight);
+        }
+        if (nv21.length < Nv21Frame.bufferSize(dstWidth, dstHeight)) {
+            throw new IllegalArgumentException("The output array is too small.");
+        }
+        mLumaX.update(mFilter, left, width, dstWidth);
+        mLumaY.update(mFilter, top, height, dstHeight);
+        final int chromaWidth = (dstWidth + 1) / 2;
+        final int chromaHeight = (dstHeight + 1) / 2;
+        mChromaX.update(mFilter, left / 2, (width + 1) / 2, chromaWidth);
+        mChromaY.update(mFilter, top / 2, (height + 1) / 2, chromaHeight);
+        final int lumaSize = dstWidth * dstHeight;
+        final int chromaRowStride = Nv21Frame.chromaRowStride(dstWidth);
+        scalePlane(frame.getPlane(Frame.PLANE_Y), frame.getRowStride(Frame.PLANE_Y),
+                frame.getPixelStride(Frame.PLANE_Y), mLumaX, mLumaY, nv21, 0, dstWidth, 1);
+        scalePlane(frame.getPlane(Frame.PLANE_V), frame.getRowStride(Frame.PLANE_V),
+                frame.getPixelStride(Frame.PLANE_V), mChromaX, mChromaY, nv21, lumaSize,
+                chromaRowStride, 2);
+        scalePlane(frame.getPlane(Frame.PLANE_U), frame.getRowStride(Frame.PLANE_U),
+                frame.getPixelStride(Frame.PLANE_U), mChromaX, mChromaY, nv21, lumaSize + 1,
+                chromaRowStride, 2);
+    }
+
+    private void scalePlane(ByteBuffer src, int rowStride, int pixelStride, Axis x, Axis y,
+            byte[] dst, int offset, int dstRowStride, int dstPixelStride) {
+        if (mFilter == FILTER_BOX) {
+            boxPlane(src, rowStride, pixelStride, x, y, dst, offset, dstRowStride,
+                    dstPixelStride);
+        } else {
+            bilinearPlane(src, rowStride, pixelStride, x, y, dst, offset, dstRowStride,
+                    dstPixelStride);
+        }
+    }
+
+    private static void boxPlane(ByteBuffer src, int rowStride, int pixelStride, Axis x, Axis y,
+            byte[] dst, int offset, int dstRowStride, int dstPixelStride) {
+        final int[] xStart = x.mFirst;
+        final int[] xEnd = x.mSecond;
+        for (int row = 0; row < y.mSize; row++) {
+            final int rowStart = y.mFirst[row];
+            final int rowEnd = y.mSecond[row];
+            int o = offset + row * dstRowStride;
+            for (int col = 0; col < x.mSize; col++) {
+                final int colStart = xStart[col];
+                final int colEnd = xEnd[col];
+                int sum = 0;
+                for (int r = rowStart; r < rowEnd; r++) {
+                    final int base = r * rowStride;
+                    for (int c = colStart; c < colEnd; c++) {
+                        sum += src.get(base + c * pixelStride) & 0xff;
+                    }
+                }
+                final int count = (rowEnd - rowStart) * (colEnd - colStart);
+                dst[o] = (byte) ((sum + count / 2) / count);
+                o += dstPixelStride;
+            }
+        }
+    }
+
+    private static void bilinearPlane(ByteBuffer src, int rowStride, int pixelStride, Axis x,
+            Axis y, byte[] dst, int offset, int dstRowStride, int dstPixelStride) {
+        final int[] xIndex = x.mFirst;
+        final int[] xWeight = x.mSecond;
+        final int lastCol = x.mLast;
+        final int lastRow = y.mLast;
+        for (int row = 0; row < y.mSize; row++) {
+            final int r0 = y.mFirst[row];
+            final int wy = y.mSecond[row];
+            final int base0 = r0 * rowStride;
+            final int base1 = Math.min(r0 + 1, lastRow) * rowStride;
+            int o = offset + row * dstRowStride;
+            for (int col = 0; col < x.mSize; col++) {
+                final int c0 = xIndex[col];
+                final int wx = xWeight[col];
+                final int i0 = c0 * pixelStride;
+                final int i1 = Math.min(c0 + 1, lastCol) * pixelStride;
+                final int top = (src.get(base0 + i0) & 0xff) * (256 - wx)
+                        + (src.get(base0 + i1) & 0xff) * wx;
+                final int bottom = (src.get(base1 + i0) & 0xff) * (256 - wx)
+                        + (src.get(base1 + i1) & 0xff) * wx;
+                dst[o] = (byte) ((top * (256 - wy) + bottom * wy + (1 << 15)) >> 16);
+                o += dstPixelStride;
+            }
+        }
+    }
+
+    /**
+     * The sampling table of one axis.
+     */
+    private static class Axis {
+
+        int[] mFirst = new int[0];
+
+        int[] mSecond = new int[0];
+
+        int mSize;
+
+        /** The last valid source index. */
+        int mLast;
+
+        private int mFilter = -1;
+
+        private int mStart;
+
+        private int mLength;
+
+        void update(int filter, int start, int length, int size) {
+            if (filter == mFilter && start == mStart && length == mLength && size == mSize) {
+                return;
+            }
+            mFilter = filter;
+            mStart = start;
+            mLength = length;
+            mSize = size;
+            mLast = start + length - 1;
+            if (mFirst.length < size) {
+                mFirst = new int[size];
+                mSecond = new int[size];
+            }
+            for (int i = 0; i < size; i++) {
+                if (filter == FILTER_BOX) {
+                    final int from = start + (int) ((long) i * length / size);
+                    final int to = start + (int) ((long) (i + 1) * length / size);
+                    mFirst[i] = from;
+                    // Upscaling: each destination pixel still needs one source pixel
+                    mSecond[i] = Math.max(to, from + 1);
+                } else {
+                    // Align the pixel centers, in 24.8 fixed point
+                    long position = ((2L * i + 1) * length * 256) / (2L * size) - 128;
+                    if (position < 0) {
+                        position = 0;
+                    }
+                    mFirst[i] = start + (int) (position >> 8);
+                    mSecond[i] = (int) (position & 0xff);
+                }
+            }
+        }
+
+    }
+
+}
@@ -19,7 +19,10 @@ package com.google.android.cameraview;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.IntDef;
@@ -32,10 +35,18 @@ import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.widget.FrameLayout;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class CameraView extends FrameLayout {
 
@@ -71,10 +82,78 @@ public class CameraView extends FrameLayout {
     public @interface Flash {
     }
 
+    /** Only the latest frame is kept while the frame processors are busy. */
+    public static final int FRAME_DELIVERY_LATEST = Constants.FRAME_DELIVERY_LATEST;
+
+    /** Frames are queued up to the capacity, dropping the oldest ones when full. */
+    public static final int FRAME_DELIVERY_DROP_OLDEST = Constants.FRAME_DELIVERY_DROP_OLDEST;
+
+    /** Frames are queued up to the capacity, blocking the camera thread when full. */
+    public static final int FRAME_DELIVERY_BLOCK = Constants.FRAME_DELIVERY_BLOCK;
+
+    /** Only every n-th frame is queued, dropping the oldest ones when full. */
+    public static final int FRAME_DELIVERY_EVERY_NTH = Constants.FRAME_DELIVERY_EVERY_NTH;
+
+    /** The policy for delivering preview frames when the frame processors fall behind. */
+    @IntDef({FRAME_DELIVERY_LATEST, FRAME_DELIVERY_DROP_OLDEST, FRAME_DELIVERY_BLOCK,
+            FRAME_DELIVERY_EVERY_NTH})
+    public @interface FrameDelivery {
+    }
+
+    /** Pictures are captured after the shutter is pressed. */
+    public static final int ZSL_OFF = Constants.ZSL_OFF;
+
+    /** Pictures are made of the recent frame closest to the time the shutter was pressed. */
+    public static final int ZSL_CLOSEST = Constants.ZSL_CLOSEST;
+
+    /** Pictures are made of the sharpest recent frame around the time the shutter was pressed. */
+    public static final int ZSL_SHARPEST = Constants.ZSL_SHARPEST;
+
+    /** The zero shutter lag mode. */
+    @IntDef({ZSL_OFF, ZSL_CLOSEST, ZSL_SHARPEST})
+    public @interface ZeroShutterLag {
+    }
+
+    /** Waiting for the auto-focus to lock before a picture is taken. */
+    public static final int CAPTURE_PHASE_FOCUS = Constants.CAPTURE_PHASE_FOCUS;
+
+    /** Waiting for the auto-exposure to start its precapture sequence. */
+    public static final int CAPTURE_PHASE_PRECAPTURE = Constants.CAPTURE_PHASE_PRECAPTURE;
+
+    /** Waiting for the auto-exposure to finish its precapture sequence. */
+    public static final int CAPTURE_PHASE_EXPOSURE = Constants.CAPTURE_PHASE_EXPOSURE;
+
+    /** The whole picture, from the shutter until it is delivered. */
+    public static final int CAPTURE_PHASE_PICTURE = Constants.CAPTURE_PHASE_PICTURE;
+
+    /** A phase of taking a picture that can be given a timeout. */
+    @IntDef({CAPTURE_PHASE_FOCUS, CAPTURE_PHASE_PRECAPTURE, CAPTURE_PHASE_EXPOSURE,
+            CAPTURE_PHASE_PICTURE})
+    public @interface CapturePhase {
+    }
+
     CameraViewImpl mImpl;
 
     private final CallbackBridge mCallbacks;
 
+    private final FrameDispatcher mFrameDispatcher = new FrameDispatcher();
+
+    /** The number of recent captures the latency percentiles are computed over. */
+    private static final int CAPTURE_TIMING_WINDOW = 64;
+
+    /** The thumbnail thread goes away after being idle for this long. */
+    private static final long THUMBNAIL_KEEP_ALIVE_SECONDS = 10;
+
+    private final CaptureTimingStats mCaptureTimingStats
+            = new CaptureTimingStats(CAPTURE_TIMING_WINDOW);
+
+    private volatile CaptureTiming mLastCaptureTiming;
+
+    /** The length of the longer side of the early thumbnails, or 0 if they are not delivered. */
+    private volatile int mThumbnailSize;
+
+    private PictureSizePolicy mPictureSizePolicy = PictureSizePolicy.LARGEST;
+
     private boolean mAdjustViewBounds;
 
     private String mSaveVideoPath;
@@ -100,18 +179,24 @@ public class CameraView extends FrameLayout {
         // Internal setup
         final PreviewImpl preview = createPreviewImpl(context);
         mCallbacks = new CallbackBridge();
-        if (Build.VERSION.SDK_INT < 21) {
+        final CapabilitySnapshot snapshot = CapabilitySnapshot.get(context);
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.CameraView, defStyleAttr,
+                R.style.Widget_CameraView);
+        final int facing = a.getInt(R.styleable.CameraView_facing, FACING_BACK);
+        if (Build.VERSION.SDK_INT < 21 || snapshot.isCamera2Legacy(facing)) {
+            // Camera2 only had a legacy camera for the facing on an earlier run; it would fall
+            // back anyway
             mImpl = new Camera1(mCallbacks, preview);
         } else if (Build.VERSION.SDK_INT < 23) {
             mImpl = new Camera2(mCallbacks, preview, context);
         } else {
             mImpl = new Camera2Api23(mCallbacks, preview, context);
         }
+        mImpl.setFrameDispatcher(mFrameDispatcher);
+        mImpl.setCapabilitySnapshot(snapshot);
         // Attributes
-        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.CameraView, defStyleAttr,
-                R.style.Widget_CameraView);
         mAdjustViewBounds = a.getBoolean(R.styleable.CameraView_android_adjustViewBounds, false);
-        setFacing(a.getInt(R.styleable.CameraView_facing, FACING_BACK));
+        setFacing(facing);
         String aspectRatio = a.getString(R.styleable.CameraView_aspectRatio);
         if (aspectRatio != null) {
             setAspectRatio(AspectRatio.parse(aspectRatio));
@@ -224,6 +309,7 @@ public class CameraView extends FrameLayout {
         state.ratio = getAspectRatio();
         state.autoFocus = getAutoFocus();
         state.flash = getFlash();
+        state.zeroShutterLag = getZeroShutterLag();
         return state;
     }
 
@@ -239,6 +325,43 @@ public class CameraView extends FrameLayout {
         setAspectRatio(ss.ratio);
         setAutoFocus(ss.autoFocus);
         setFlash(ss.flash);
+        setZeroShutterLag(ss.zeroShutterLag);
+    }
+
+    /**
+     * Starts opening a camera before there is a view for it, e.g. when the button that leads to
+     * the screen with the view is tapped. The camera, its sizes and the reader for the pictures
+     * are prepared in the background, and the next view that starts with the same camera takes
+     * them over instead of opening it again. If no view does so within a few seconds, the camera
+     * is closed again.
+     *
+     * <p>This needs the camera permission, and only opens the camera with Camera2; otherwise it
+     * does nothing. What is known about the cameras is loaded in the background as well.</p>
+     *
+     * @param context The context.
+     * @param facing  The facing of the camera the view is going to start with.
+     */
+    public static void prewarm(@NonNull Context context, @Facing int facing) {
+        prewarm(context, facing, Constants.DEFAULT_ASPECT_RATIO, PictureSizePolicy.LARGEST);
+    }
+
+    /**
+     * Starts opening a camera before there is a view for it, like
+     * {@link #prewarm(Context, int)}, for a view that is going to use another aspect ratio or
+     * picture size policy than the default ones. The reader for the pictures is only taken over
+     * if they match.
+     *
+     * @param context The context.
+     * @param facing  The facing of the camera the view is going to start with.
+     * @param ratio   The aspect ratio the view is going to start with.
+     * @param policy  The picture size policy the view is going to start with.
+     */
+    public static void prewarm(@NonNull Context context, @Facing int facing,
+            @NonNull AspectRatio ratio, @NonNull PictureSizePolicy policy) {
+        if (Build.VERSION.SDK_INT >= 21) {
+            // The snapshot is loaded on the thread of the camera, not here
+            Camera2Prewarm.start(context.getApplicationContext(), facing, ratio, policy);
+        }
     }
 
     /**
@@ -247,18 +370,55 @@ public class CameraView extends FrameLayout {
      */
     public void start() {
         if (!mImpl.start()) {
-            //store the state ,and restore this state after fall back o Camera1
-            Parcelable state=onSaveInstanceState();
-            // Camera2 uses legacy hardware layer; fall back to Camera1
-            mImpl = new Camera1(mCallbacks, createPreviewImpl(getContext()));
-            if (!TextUtils.isEmpty(mSaveVideoPath)) {
-                mImpl.setVideoSavePath(mSaveVideoPath);
-            }
-            onRestoreInstanceState(state);
+            fallBackToCamera1();
             mImpl.start();
         }
     }
 
+    /**
+     * Like {@link #start()}, but returns without waiting for the camera device where the
+     * implementation allows it. Camera1 is opened on a background thread; with Camera2, only
+     * the camera device is opened in the background. Calls to other methods in the meantime are
+     * queued behind the opening.
+     *
+     * @param callback The callback to report the outcome to, on the main thread, or
+     *                 {@code null}.
+     */
+    public void startAsync(@Nullable final StartCallback callback) {
+        final CameraViewImpl.StartCallback bridge = new CameraViewImpl.StartCallback() {
+            @Override
+            public void onStartFinished(RuntimeException error) {
+                if (callback != null) {
+                    mCallbacks.dispatchStartFinished(callback, error);
+                }
+            }
+        };
+        if (!mImpl.startAsync(bridge)) {
+            fallBackToCamera1();
+            mImpl.startAsync(bridge);
+        }
+    }
+
+    /**
+     * Replaces the Camera2 implementation, which found only legacy cameras, with Camera1.
+     */
+    private void fallBackToCamera1() {
+        //store the state ,and restore this state after fall back o Camera1
+        Parcelable state=onSaveInstanceState();
+        // Camera2 uses legacy hardware layer; fall back to Camera1. The snapshot remembers
+        // this for the facing, so that later views with it start with Camera1. The preview is
+        // reused.
+        mImpl = new Camera1(mCallbacks, mImpl.mPreview);
+        mImpl.setFrameDispatcher(mFrameDispatcher);
+        mImpl.setCapabilitySnapshot(CapabilitySnapshot.get(getContext()));
+        if (!TextUtils.isEmpty(mSaveVideoPath)) {
+            mImpl.setVideoSavePath(mSaveVideoPath);
+        }
+        mImpl.setThumbnailSize(mThumbnailSize);
+        mImpl.setPictureSizePolicy(mPictureSizePolicy);
+        onRestoreInstanceState(state);
+    }
+
     /**
      * should be called before start()
      * */
@@ -308,6 +468,169 @@ public class CameraView extends FrameLayout {
         mCallbacks.remove(callback);
     }
 
+    /**
+     * Add a processor for camera preview frames. Frames are only produced while at least one
+     * processor is registered. The processors are called on a dedicated thread, one frame at a
+     * time; see {@link #setFrameDeliveryPolicy(int)} for what happens when they fall behind.
+     *
+     * @param processor The {@link FrameProcessor} to add.
+     * @see #removeFrameProcessor(FrameProcessor)
+     */
+    public void addFrameProcessor(@NonNull FrameProcessor processor) {
+        addFrameProcessor(processor, null);
+    }
+
+    /**
+     * Add a processor for camera preview frames that runs on the specified executor. All the
+     * processors share the same frame buffers, so adding a processor does not add a copy of each
+     * frame. If the processor is still busy when a newer frame arrives, it only gets the latest
+     * one.
+     *
+     * @param processor The {@link FrameProcessor} to add.
+     * @param executor  The {@link Executor} to run the processor on, or {@code null} to run it on
+     *                  the frame dispatcher thread.
+     * @see #removeFrameProcessor(FrameProcessor)
+     */
+    public void addFrameProcessor(@NonNull FrameProcessor processor,
+            @Nullable Executor executor) {
+        final boolean enabled = mFrameDispatcher.hasProcessors();
+        if (mFrameDispatcher.add(processor, executor) && !enabled) {
+            mImpl.updateFrameStream();
+        }
+    }
+
+    /**
+     * Remove a processor for camera preview frames.
+     *
+     * @param processor The {@link FrameProcessor} to remove.
+     * @see #addFrameProcessor(FrameProcessor)
+     */
+    public void removeFrameProcessor(@NonNull FrameProcessor processor) {
+        if (mFrameDispatcher.remove(processor) && !mFrameDispatcher.hasProcessors()) {
+            mImpl.updateFrameStream();
+        }
+    }
+
+    /**
+     * Add a processor that only receives the luma plane of camera preview frames. It is called
+     * on the frame dispatcher thread like {@link #addFrameProcessor(FrameProcessor)}.
+     *
+     * @param processor The {@link LumaProcessor} to add.
+     * @see #removeLumaProcessor(LumaProcessor)
+     */
+    public void addLumaProcessor(@NonNull LumaProcessor processor) {
+        addLumaProcessor(processor, null);
+    }
+
+    /**
+     * Add a processor that only receives the luma plane of camera preview frames, and runs on
+     * the specified executor. The luma plane is a read-only view of the shared frame buffer.
+     *
+     * @param processor The {@link LumaProcessor} to add.
+     * @param executor  The {@link Executor} to run the processor on, or {@code null} to run it on
+     *                  the frame dispatcher thread.
+     * @see #removeLumaProcessor(LumaProcessor)
+     */
+    public void addLumaProcessor(@NonNull LumaProcessor processor, @Nullable Executor executor) {
+        addFrameProcessor(new LumaFrameProcessor(processor), executor);
+    }
+
+    /**
+     * Remove a processor for the luma plane of camera preview frames.
+     *
+     * @param processor The {@link LumaProcessor} to remove.
+     * @see #addLumaProcessor(LumaProcessor)
+     */
+    public void removeLumaProcessor(@NonNull LumaProcessor processor) {
+        removeFrameProcessor(new LumaFrameProcessor(processor));
+    }
+
+    /**
+     * Sets how preview frames are delivered when the frame processors are slower than the
+     * camera. The default is {@link #FRAME_DELIVERY_LATEST}.
+     *
+     * @param policy The frame delivery policy.
+     * @see #setFrameQueueCapacity(int)
+     * @see #setFrameInterval(int)
+     */
+    public void setFrameDeliveryPolicy(@FrameDelivery int policy) {
+        mFrameDispatcher.getQueue().setPolicy(policy);
+    }
+
+    /**
+     * Gets the current frame delivery policy.
+     *
+     * @return The current frame delivery policy.
+     */
+    @FrameDelivery
+    public int getFrameDeliveryPolicy() {
+        //noinspection WrongConstant
+        return mFrameDispatcher.getQueue().getPolicy();
+    }
+
+    /**
+     * Sets the maximum number of frames waiting for the frame processors with
+     * {@link #FRAME_DELIVERY_DROP_OLDEST}, {@link #FRAME_DELIVERY_BLOCK} and
+     * {@link #FRAME_DELIVERY_EVERY_NTH}. Note that the camera only has a few frame buffers, so
+     * a large capacity makes the camera drop frames instead.
+     *
+     * @param capacity The capacity of the frame queue.
+     */
+    public void setFrameQueueCapacity(int capacity) {
+        mFrameDispatcher.getQueue().setCapacity(capacity);
+    }
+
+    /**
+     * Sets n for {@link #FRAME_DELIVERY_EVERY_NTH}.
+     *
+     * @param interval Only every {@code interval}-th frame is delivered.
+     */
+    public void setFrameInterval(int interval) {
+        mFrameDispatcher.getQueue().setInterval(interval);
+    }
+
+    /**
+     * Limits the rate at which preview frames are handed to the frame processors, without
+     * changing the preview frame rate. Frames are picked by their sensor timestamps. When the
+     * processors take longer than the interval between frames, the rate is lowered further
+     * until they keep up; see {@link #getEffectiveFrameRate()}.
+     *
+     * @param fps The maximum number of frames per second to process, or 0 for no limit.
+     */
+    public void setAnalysisFrameRate(float fps) {
+        mFrameDispatcher.getGovernor().setTargetRate(fps);
+    }
+
+    /**
+     * @return The maximum number of frames per second to process, or 0 for no limit.
+     * @see #setAnalysisFrameRate(float)
+     */
+    public float getAnalysisFrameRate() {
+        return mFrameDispatcher.getGovernor().getTargetRate();
+    }
+
+    /**
+     * @return The rate at which preview frames are currently handed to the frame processors, in
+     * frames per second.
+     */
+    public float getEffectiveFrameRate() {
+        return mFrameDispatcher.getGovernor().getEffectiveRate();
+    }
+
+    /**
+     * @return The number of preview frames that have been processed by the frame processors.
+     */
+    public long getDeliveredFrameCount() {
+        return mFrameDispatcher.getQueue().getDeliveredCount();
+    }
+
+    /**
+     * @return The number of preview frames that have been dropped by the frame delivery policy.
+     */
+    public long getDroppedFrameCount() {
+        return mFrameDispatcher.getQueue().getDroppedCount();
+    }
+
     /**
      * @param adjustViewBounds {@code true} if you want the CameraView to adjust its bounds to
      *                         preserve the aspect ratio of camera.
@@ -419,18 +742,210 @@ public class CameraView extends FrameLayout {
         return mImpl.getFlash();
     }
 
+    /**
+     * Sets the zero shutter lag mode. When it is on, the camera keeps its most recent
+     * full-resolution frames, and {@link #takePicture()} turns the one matching the moment the
+     * shutter was pressed into a JPEG instead of starting a new capture, so the picture shows
+     * what was on the screen at that moment. Focus and exposure are not locked for the picture,
+     * and the flash is not fired.
+     *
+     * <p>This is only supported with Camera2; elsewhere the mode stays {@link #ZSL_OFF}. Bursts
+     * cannot be taken while it is on.</p>
+     *
+     * @param mode The desired zero shutter lag mode.
+     */
+    public void setZeroShutterLag(@ZeroShutterLag int mode) {
+        mImpl.setZeroShutterLag(mode);
+    }
+
+    /**
+     * Gets the current zero shutter lag mode.
+     *
+     * @return The current zero shutter lag mode.
+     */
+    @ZeroShutterLag
+    public int getZeroShutterLag() {
+        //noinspection WrongConstant
+        return mImpl.getZeroShutterLag();
+    }
+
+    /**
+     * Sets how long a phase of taking a picture may take. When the focus, precapture or
+     * exposure phase runs out of time, the picture is taken anyway; when the whole picture runs
+     * out of time, it fails. For a burst, the picture timeout is extended for each further
+     * picture.
+     *
+     * <p>This is only supported with Camera2. By default, the focus and exposure phases may
+     * take 1 second, the precapture phase half a second, and the whole picture 4 seconds.</p>
+     *
+     * @param phase   The phase.
+     * @param timeout The timeout in milliseconds, or 0 to wait as long as it takes.
+     */
+    public void setCaptureTimeout(@CapturePhase int phase, long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeout);
+        }
+        mImpl.setCaptureTimeout(phase, timeout);
+    }
+
+    /**
+     * @param phase The phase.
+     * @return The timeout of the phase in milliseconds, or 0 if there is none.
+     */
+    public long getCaptureTimeout(@CapturePhase int phase) {
+        return mImpl.getCaptureTimeout(phase);
+    }
+
+    /**
+     * Sets how the size of the pictures is chosen among the sizes the camera supports for the
+     * current aspect ratio. By default, the largest size is used; on cameras with very high
+     * resolutions, a limit saves a lot of memory. The pictures are resized right away if the
+     * camera is open.
+     *
+     * @param policy The policy, e.g. {@code PictureSizePolicy.of(12, 0)} for at most 12
+     *               megapixels.
+     */
+    public void setPictureSizePolicy(@NonNull PictureSizePolicy policy) {
+        mPictureSizePolicy = policy;
+        mImpl.setPictureSizePolicy(policy);
+    }
+
+    /**
+     * @return The current picture size policy.
+     */
+    @NonNull
+    public PictureSizePolicy getPictureSizePolicy() {
+        return mPictureSizePolicy;
+    }
+
+    /**
+     * Delivers a thumbnail of each picture on the main thread, to
+     * {@link Callback#onThumbnail(CameraView, Bitmap)} or
+     * {@link PictureSaveCallback#onThumbnail(CameraView, File, Bitmap)}, e.g. for a gallery
+     * strip. The camera is asked to embed a thumbnail of this size in its pictures, so that it
+     * does not have to be decoded from the full picture.
+     *
+     * @param maxSize The desired length of the longer side in pixels, or 0 to not deliver
+     *                thumbnails.
+     */
+    public void setThumbnailSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid thumbnail size: " + maxSize);
+        }
+        mThumbnailSize = maxSize;
+        mImpl.setThumbnailSize(maxSize);
+    }
+
+    /**
+     * @return The desired length of the longer side of the thumbnails, or 0 if they are not
+     * delivered.
+     */
+    public int getThumbnailSize() {
+        return mThumbnailSize;
+    }
+
     /**
      * Take a picture. The result will be returned to
-     * {@link Callback#onPictureTaken(CameraView, byte[])}.
+     * {@link Callback#onPictureTaken(CameraView, PictureBuffer)}.
      */
     public void takePicture() {
-        mImpl.takePicture();
+        mImpl.takePicture(new PictureRequest());
+    }
+
+    /**
+     * Take a burst of pictures. The focus and the exposure are locked once for the whole burst,
+     * and each picture is returned to
+     * {@link Callback#onPictureTaken(CameraView, PictureBuffer)} as soon as it is available.
+     *
+     * @param count    The number of pictures to take.
+     * @param interval The minimum time between the starts of two pictures, in milliseconds, or 0
+     *                 to take them as fast as the camera can.
+     */
+    public void takeBurst(int count, long interval) {
+        mImpl.takePicture(new PictureRequest(count, interval));
+    }
+
+    /**
+     * Take a picture and save it to a file. The JPEG data is written straight from the memory of
+     * the camera on a background thread; it is not delivered to {@link Callback}. The file is
+     * written under a temporary name and renamed once it is complete.
+     *
+     * @param file     The file to save the picture to.
+     * @param callback The callback to report to, on the main thread.
+     */
+    public void takePicture(@NonNull File file, @NonNull PictureSaveCallback callback) {
+        mImpl.takePicture(new PictureRequest(file, null, callback));
+    }
+
+    /**
+     * Take a picture and write it to a file descriptor, for example one from a
+     * {@link android.content.ContentResolver}. The JPEG data is written straight from the memory
+     * of the camera on a background thread; it is not delivered to {@link Callback}. The file
+     * descriptor is not closed.
+     *
+     * @param fd       The file descriptor to write the picture to.
+     * @param callback The callback to report to, on the main thread.
+     */
+    public void takePicture(@NonNull FileDescriptor fd, @NonNull PictureSaveCallback callback) {
+        mImpl.takePicture(new PictureRequest(null, fd, callback));
+    }
+
+    /**
+     * Returns how many picture requests were queued, served and dropped since the camera was
+     * first opened. With Camera1, pictures requested while one is being taken wait for their
+     * turn, up to a limit; Camera2 takes one picture at a time and does not queue them.
+     *
+     * @return The counts, or {@code null} if the camera implementation does not queue pictures.
+     */
+    @Nullable
+    public PictureStats getPictureStats() {
+        return mImpl.getPictureStats();
+    }
+
+    /**
+     * @return The latency breakdown of the last picture delivered, or {@code null} if none was
+     * taken yet. For a burst, this is the first picture.
+     */
+    @Nullable
+    public CaptureTiming getLastCaptureTiming() {
+        return mLastCaptureTiming;
+    }
+
+    /**
+     * Returns how long the preview froze while the last picture was taken: the longest gap
+     * between two preview frames during the capture. A capture that does not disturb the preview
+     * stalls for about one frame interval. This is only measured with Camera2.
+     *
+     * @return The stall in nanoseconds, or -1 if it was not measured.
+     */
+    public long getLastPreviewStall() {
+        return mImpl.getLastPreviewStall();
+    }
+
+    /**
+     * Returns a percentile of the time from the request to an event, over the last 64 pictures
+     * that reached the event.
+     *
+     * @param event      The event.
+     * @param percentile The percentile, from 0 to 100; e.g. 50 for the median.
+     * @return The time in nanoseconds, or {@link CaptureTiming#NOT_REACHED} if no picture
+     * reached the event yet.
+     */
+    public long getCaptureLatencyPercentile(@CaptureTiming.Event int event, int percentile) {
+        return mCaptureTimingStats.getPercentile(event, percentile);
     }
 
-    private class CallbackBridge implements CameraViewImpl.Callback {
+    private class CallbackBridge implements CameraViewImpl.Callback, PictureWriter.Listener {
 
         private final ArrayList<Callback> mCallbacks = new ArrayList<>();
 
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        private PictureWriter mPictureWriter;
+
+        /** Decodes the thumbnails that are not embedded in the pictures. */
+        private ThreadPoolExecutor mThumbnailExecutor;
+
         private boolean mRequestLayoutOnOpen;
 
         CallbackBridge() {
@@ -444,6 +959,19 @@ public class CameraView extends FrameLayout {
             mCallbacks.remove(callback);
         }
 
+        void dispatchStartFinished(final StartCallback callback, final RuntimeException error) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (error == null) {
+                        callback.onStarted(CameraView.this);
+                    } else {
+                        callback.onStartFailed(CameraView.this, error);
+                    }
+                }
+            });
+        }
+
         @Override
         public void onCameraOpened() {
             if (mRequestLayoutOnOpen) {
@@ -463,10 +991,132 @@ public class CameraView extends FrameLayout {
         }
 
         @Override
-        public void onPictureTaken(byte[] data) {
-            for (Callback callback : mCallbacks) {
-                callback.onPictureTaken(CameraView.this, data);
+        public void onPictureTaken(PictureBuffer picture, PictureRequest request) {
+            request.mark(CaptureTiming.EVENT_DISPATCHED);
+            CaptureTiming timing = null;
+            if (request.getDeliveredCount() == 1) { // The first picture of the request
+                timing = request.getTiming();
+                mLastCaptureTiming = timing;
+                mCaptureTimingStats.add(timing);
+            }
+            final int thumbnailSize = mThumbnailSize;
+            if (thumbnailSize > 0) {
+                dispatchThumbnail(picture, request, thumbnailSize);
+            }
+            if (request.isSaveRequest()) {
+                request.mTakenTime = System.nanoTime();
+                getPictureWriter().write(picture, request);
+            } else {
+                try {
+                    for (Callback callback : mCallbacks) {
+                        callback.onPictureTaken(CameraView.this, picture);
+                    }
+                } finally {
+                    picture.close();
+                }
             }
+            if (timing != null) {
+                for (Callback callback : mCallbacks) {
+                    callback.onCaptureTiming(CameraView.this, timing);
+                }
+            }
+        }
+
+        /**
+         * Delivers a thumbnail of the picture on the main thread. The embedded thumbnail is
+         * decoded right away; otherwise, the picture is decoded on the thumbnail thread, so
+         * that handing it off is not held up.
+         */
+        private void dispatchThumbnail(final PictureBuffer picture,
+                final PictureRequest request, final int maxSize) {
+            final Bitmap embedded = picture.decodeEmbeddedThumbnail(maxSize);
+            if (embedded != null) {
+                postThumbnail(embedded, request);
+                return;
+            }
+            picture.retain();
+            getThumbnailExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Bitmap thumbnail;
+                    try {
+                        thumbnail = picture.decodeThumbnail(maxSize);
+                    } finally {
+                        picture.close();
+                    }
+                    if (thumbnail != null) {
+                        postThumbnail(thumbnail, request);
+                    }
+                }
+            });
+        }
+
+        private void postThumbnail(final Bitmap thumbnail, final PictureRequest request) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (request.isSaveRequest()) {
+                        request.mSaveCallback.onThumbnail(CameraView.this, request.mFile,
+                                thumbnail);
+                    } else {
+                        for (Callback callback : mCallbacks) {
+                            callback.onThumbnail(CameraView.this, thumbnail);
+                        }
+                    }
+                }
+            });
+        }
+
+        private synchronized Executor getThumbnailExecutor() {
+            if (mThumbnailExecutor == null) {
+                mThumbnailExecutor = new ThreadPoolExecutor(1, 1, THUMBNAIL_KEEP_ALIVE_SECONDS,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                return new Thread(r, "CameraThumbnail");
+                            }
+                        });
+                mThumbnailExecutor.allowCoreThreadTimeOut(true);
+            }
+            return mThumbnailExecutor;
+        }
+
+        @Override
+        public void onPictureFailed(final PictureRequest request) {
+            if (request.isSaveRequest()) {
+                onPictureWriteFailed(request, new IOException("The picture could not be taken."));
+            }
+        }
+
+        @Override
+        public void onPictureWritten(final PictureRequest request, final long writeTime) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final long captureTime = request.mTakenTime - request.mRequestTime;
+                    request.mSaveCallback.onPictureSaved(CameraView.this, request.mFile,
+                            TimeUnit.NANOSECONDS.toMillis(captureTime),
+                            TimeUnit.NANOSECONDS.toMillis(writeTime));
+                }
+            });
+        }
+
+        @Override
+        public void onPictureWriteFailed(final PictureRequest request, final IOException e) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    request.mSaveCallback.onPictureSaveFailed(CameraView.this, request.mFile, e);
+                }
+            });
+        }
+
+        private synchronized PictureWriter getPictureWriter() {
+            if (mPictureWriter == null) {
+                mPictureWriter = new PictureWriter(this);
+            }
+            return mPictureWriter;
         }
 
         @Override
@@ -483,6 +1133,13 @@ public class CameraView extends FrameLayout {
             }
         }
 
+        @Override
+        public void onFrameStreamFailed() {
+            for (Callback callback : mCallbacks) {
+                callback.onFrameStreamFailed(CameraView.this);
+            }
+        }
+
         public void reserveRequestLayoutOnOpen() {
             mRequestLayoutOnOpen = true;
         }
@@ -500,6 +1157,9 @@ public class CameraView extends FrameLayout {
         @Flash
         int flash;
 
+        @ZeroShutterLag
+        int zeroShutterLag;
+
         @SuppressWarnings("WrongConstant")
         public SavedState(Parcel source, ClassLoader loader) {
             super(source);
@@ -507,6 +1167,7 @@ public class CameraView extends FrameLayout {
             ratio = source.readParcelable(loader);
             autoFocus = source.readByte() != 0;
             flash = source.readInt();
+            zeroShutterLag = source.readInt();
         }
 
         public SavedState(Parcelable superState) {
@@ -520,6 +1181,7 @@ public class CameraView extends FrameLayout {
             out.writeParcelable(ratio, 0);
             out.writeByte((byte) (autoFocus ? 1 : 0));
             out.writeInt(flash);
+            out.writeInt(zeroShutterLag);
         }
 
         public static final Parcelable.Creator<SavedState> CREATOR
@@ -562,7 +1224,9 @@ public class CameraView extends FrameLayout {
         }
 
         /**
-         * Called when a picture is taken.
+         * Called when a picture is taken, on a background thread of the camera implementation
+         * rather than on the main thread; post to the main thread to update the views. Earlier
+         * versions called this on the main thread with Camera1.
          *
          * @param cameraView The associated {@link CameraView}.
          * @param data       JPEG data.
@@ -570,12 +1234,134 @@ public class CameraView extends FrameLayout {
         public void onPictureTaken(CameraView cameraView, byte[] data) {
         }
 
+        /**
+         * Called when a picture is taken, with the JPEG data still in the memory of the camera.
+         * Like {@link #onPictureTaken(CameraView, byte[])}, this is called on a background thread
+         * of the camera implementation, so that the data does not wait for the main thread.
+         * The default implementation copies the data into an array (only once for all the
+         * callbacks) and calls {@link #onPictureTaken(CameraView, byte[])}; override this to
+         * avoid the copy.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param picture    JPEG data. It is closed when this method returns, unless it is kept
+         *                   with {@link PictureBuffer#retain()}.
+         */
+        public void onPictureTaken(CameraView cameraView, PictureBuffer picture) {
+            onPictureTaken(cameraView, picture.toByteArray());
+        }
+
+        /**
+         * Called on the main thread with a small, upright version of a picture, if a thumbnail
+         * size was set with {@link CameraView#setThumbnailSize(int)}. It is posted before
+         * {@link #onPictureTaken(CameraView, PictureBuffer)} is called, so it usually arrives
+         * around the same time; a thumbnail that has to be decoded from the full picture
+         * arrives later.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param thumbnail  The thumbnail.
+         */
+        public void onThumbnail(CameraView cameraView, Bitmap thumbnail) {
+        }
+
+        /**
+         * Called after a picture is delivered, with the latency breakdown of taking it. For a
+         * burst, this is only called for the first picture. It is called on the same thread as
+         * {@link #onPictureTaken(CameraView, PictureBuffer)}, also for pictures saved to a file.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param timing     The timing of the picture.
+         */
+        public void onCaptureTiming(CameraView cameraView, CaptureTiming timing) {
+        }
+
         public void onRecordFinished(CameraView cameraView, String videoPath) {
 
         }
         public void onRecordError(CameraView cameraView, String error) {
 
         }
+
+        /**
+         * Called when the camera cannot stream preview frames along with its other outputs, so
+         * that the frame processors get no frames until the camera is started again. The preview
+         * keeps running without them.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         */
+        public void onFrameStreamFailed(CameraView cameraView) {
+        }
+    }
+
+    /**
+     * Callback for {@link #startAsync(StartCallback)}. Methods are called on the main thread.
+     */
+    @SuppressWarnings("UnusedParameters")
+    public abstract static class StartCallback {
+
+        /**
+         * Called when the camera is started. {@link Callback#onCameraOpened(CameraView)} may be
+         * called before or after this.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         */
+        public abstract void onStarted(CameraView cameraView);
+
+        /**
+         * Called when the camera could not be started, for example because it is used by
+         * another app.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param e          The cause of the failure.
+         */
+        public void onStartFailed(CameraView cameraView, RuntimeException e) {
+        }
+
+    }
+
+    /**
+     * Callback for {@link #takePicture(File, PictureSaveCallback)} and
+     * {@link #takePicture(FileDescriptor, PictureSaveCallback)}. Methods are called on the main
+     * thread.
+     */
+    @SuppressWarnings("UnusedParameters")
+    public abstract static class PictureSaveCallback {
+
+        /**
+         * Called when the picture has been saved.
+         *
+         * @param cameraView  The associated {@link CameraView}.
+         * @param file        The file the picture was saved to, or {@code null} if it was written
+         *                    to a file descriptor.
+         * @param captureTime The time from the call to {@code takePicture} until the JPEG data
+         *                    was available, in milliseconds.
+         * @param saveTime    The time it took to write and sync the file, in milliseconds.
+         */
+        public abstract void onPictureSaved(CameraView cameraView, @Nullable File file,
+                long captureTime, long saveTime);
+
+        /**
+         * Called with a small, upright version of the picture while it is being written, if a
+         * thumbnail size was set with {@link CameraView#setThumbnailSize(int)}. It is usually
+         * called before {@link #onPictureSaved}, on the main thread.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param file       The file the picture is being saved to, or {@code null}.
+         * @param thumbnail  The thumbnail.
+         */
+        public void onThumbnail(CameraView cameraView, @Nullable File file, Bitmap thumbnail) {
+        }
+
+        /**
+         * Called when the picture could not be taken or saved.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param file       The file the picture was to be saved to, or {@code null}.
+         * @param e          The cause of the failure.
+         */
+        public void onPictureSaveFailed(CameraView cameraView, @Nullable File file,
+                IOException e) {
+        }
+
     }
 
 }
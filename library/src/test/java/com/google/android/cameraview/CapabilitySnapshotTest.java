@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class CapabilitySnapshotTest {
+
+    private static final String FINGERPRINT = "google/device/device:7.0/NRD90M/1:user/release-keys";
+
+    private static final CapabilitySnapshot.Camera BACK = new CapabilitySnapshot.Camera(
+            CapabilitySnapshot.API_CAMERA2, "0", Constants.FACING_BACK, 90, false,
+            new Size[]{new Size(1920, 1080), new Size(1280, 720), new Size(640, 480)},
+            new Size[]{new Size(4000, 3000), new Size(3840, 2160)},
+            new Size[]{new Size(1920, 1080)});
+
+    private static final CapabilitySnapshot.Camera FRONT = new CapabilitySnapshot.Camera(
+            CapabilitySnapshot.API_CAMERA1, "1", Constants.FACING_FRONT, 270, false,
+            new Size[]{new Size(640, 480)}, new Size[]{new Size(2592, 1944)}, new Size[0]);
+
+    @Test
+    public void testRoundTrip() {
+        CapabilitySnapshot snapshot = new CapabilitySnapshot(FINGERPRINT, null);
+        snapshot.put(BACK);
+        snapshot.put(FRONT);
+        snapshot.setCamera2Legacy(Constants.FACING_BACK, true);
+        CapabilitySnapshot read = new CapabilitySnapshot(FINGERPRINT, null);
+        assertThat(read.parse(ByteBuffer.wrap(snapshot.toByteArray())), is(true));
+        assertThat(read.find(CapabilitySnapshot.API_CAMERA2, Constants.FACING_BACK), is(BACK));
+        assertThat(read.find(CapabilitySnapshot.API_CAMERA1, Constants.FACING_FRONT), is(FRONT));
+        assertThat(read.isCamera2Legacy(Constants.FACING_BACK), is(true));
+        // Only the facing that fell back is recorded
+        assertThat(read.isCamera2Legacy(Constants.FACING_FRONT), is(false));
+        CapabilitySnapshot.Camera back = read.find(CapabilitySnapshot.API_CAMERA2,
+                Constants.FACING_BACK);
+        assertTrue(Arrays.equals(back.mPreviewSizes, BACK.mPreviewSizes));
+        assertThat(back.mOrientation, is(90));
+    }
+
+    @Test
+    public void testCamera2LegacyPerFacing() {
+        CapabilitySnapshot snapshot = new CapabilitySnapshot(FINGERPRINT, null);
+        snapshot.setCamera2Legacy(Constants.FACING_FRONT, true);
+        assertThat(snapshot.isCamera2Legacy(Constants.FACING_FRONT), is(true));
+        assertThat(snapshot.isCamera2Legacy(Constants.FACING_BACK), is(false));
+        snapshot.setCamera2Legacy(Constants.FACING_BACK, true);
+        snapshot.setCamera2Legacy(Constants.FACING_FRONT, false);
+        CapabilitySnapshot read = new CapabilitySnapshot(FINGERPRINT, null);
+        assertThat(read.parse(ByteBuffer.wrap(snapshot.toByteArray())), is(true));
+        assertThat(read.isCamera2Legacy(Constants.FACING_BACK), is(true));
+        assertThat(read.isCamera2Legacy(Constants.FACING_FRONT), is(false));
+    }
+
+    @Test
+    public void testOtherBuild() {
+        CapabilitySnapshot snapshot = new CapabilitySnapshot(FINGERPRINT, null);
+        snapshot.put(BACK);
+        CapabilitySnapshot read = new CapabilitySnapshot(FINGERPRINT + "2", null);
+        assertThat(read.parse(ByteBuffer.wrap(snapshot.toByteArray())), is(false));
+        assertThat(read.find(CapabilitySnapshot.API_CAMERA2, Constants.FACING_BACK), nullValue());
+    }
+
+    @Test
+    public void testDamaged() {
+        CapabilitySnapshot snapshot = new CapabilitySnapshot(FINGERPRINT, null);
+        snapshot.put(BACK);
+        snapshot.put(FRONT);
+        byte[] data = snapshot.toByteArray();
+        for (int i = 0; i < data.length; i++) {
+            byte[] damaged = data.clone();
+            damaged[i] ^= 0x10;
+            CapabilitySnapshot read = new CapabilitySnapshot(FINGERPRINT, null);
+            assertThat(read.parse(ByteBuffer.wrap(damaged)), is(false));
+            assertThat(read.find(CapabilitySnapshot.API_CAMERA2, Constants.FACING_BACK),
+                    nullValue());
+        }
+        for (int length = 0; length < data.length; length++) {
+            CapabilitySnapshot read = new CapabilitySnapshot(FINGERPRINT, null);
+            assertThat(read.parse(ByteBuffer.wrap(Arrays.copyOf(data, length))), is(false));
+        }
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        CapabilitySnapshot snapshot = new CapabilitySnapshot(FINGERPRINT, null);
+        snapshot.put(BACK);
+        byte[] data = snapshot.toByteArray();
+        // The same camera with the sizes in another order does not change anything
+        snapshot.put(new CapabilitySnapshot.Camera(BACK.mApi, BACK.mId, BACK.mFacing,
+                BACK.mOrientation, false, new Size[]{new Size(640, 480), new Size(1280, 720),
+                new Size(1920, 1080)}, BACK.mPictureSizes, BACK.mVideoSizes));
+        assertTrue(Arrays.equals(snapshot.toByteArray(), data));
+        // A camera with the same ID replaces the old one
+        CapabilitySnapshot.Camera changed = new CapabilitySnapshot.Camera(BACK.mApi, BACK.mId,
+                BACK.mFacing, 0, false, BACK.mPreviewSizes, BACK.mPictureSizes,
+                BACK.mVideoSizes);
+        snapshot.put(changed);
+        assertThat(snapshot.find(CapabilitySnapshot.API_CAMERA2, Constants.FACING_BACK),
+                is(changed));
+        // Legacy cameras are never found
+        snapshot.put(new CapabilitySnapshot.Camera(CapabilitySnapshot.API_CAMERA2, "1",
+                Constants.FACING_FRONT, 270, true, FRONT.mPreviewSizes, FRONT.mPictureSizes,
+                FRONT.mVideoSizes));
+        assertThat(snapshot.find(CapabilitySnapshot.API_CAMERA2, Constants.FACING_FRONT),
+                nullValue());
+        snapshot.remove(CapabilitySnapshot.API_CAMERA2, BACK.mId);
+        assertThat(snapshot.find(CapabilitySnapshot.API_CAMERA2, Constants.FACING_BACK),
+                nullValue());
+    }
+
+    @Test
+    public void testLoadAndSave() throws IOException {
+        File file = File.createTempFile("capabilities", null);
+        try {
+            assertTrue(file.delete());
+            CapabilitySnapshot snapshot = CapabilitySnapshot.load(file, FINGERPRINT);
+            assertThat(snapshot.find(CapabilitySnapshot.API_CAMERA2, Constants.FACING_BACK),
+                    nullValue());
+            snapshot.put(BACK);
+            snapshot.save();
+            assertTrue(file.exists());
+            CapabilitySnapshot loaded = CapabilitySnapshot.load(file, FINGERPRINT);
+            assertThat(loaded.find(CapabilitySnapshot.API_CAMERA2, Constants.FACING_BACK),
+                    is(BACK));
+            // Another build ignores the file
+            assertThat(CapabilitySnapshot.load(file, "other").find(
+                    CapabilitySnapshot.API_CAMERA2, Constants.FACING_BACK), nullValue());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFillAndFlatten() {
+        SizeMap map = new SizeMap();
+        CapabilitySnapshot.fill(map, BACK.mPreviewSizes);
+        assertThat(map.ratios().size(), is(2));
+        assertThat(new CapabilitySnapshot.Camera(BACK.mApi, BACK.mId, BACK.mFacing,
+                        BACK.mOrientation, false, CapabilitySnapshot.flatten(map),
+                        BACK.mPictureSizes, BACK.mVideoSizes),
+                is(BACK));
+    }
+
+}
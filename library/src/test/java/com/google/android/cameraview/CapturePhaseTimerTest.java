@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class CapturePhaseTimerTest {
+
+    @Test
+    public void testPhases() {
+        CapturePhaseTimer timer = new CapturePhaseTimer();
+        timer.start(1000);
+        timer.enter(CapturePhaseTimer.PHASE_FOCUS, 1100);
+        timer.enter(CapturePhaseTimer.PHASE_FOCUS, 1150); // Still focusing
+        timer.enter(CapturePhaseTimer.PHASE_PRECAPTURE, 1400);
+        timer.onTimedOut(CapturePhaseTimer.PHASE_PRECAPTURE);
+        timer.enter(CapturePhaseTimer.PHASE_CAPTURE, 1500);
+        assertThat(timer.finish(2000), is(1000L));
+        assertThat(timer.getDuration(CapturePhaseTimer.PHASE_FOCUS), is(300L));
+        assertThat(timer.getDuration(CapturePhaseTimer.PHASE_PRECAPTURE), is(100L));
+        assertThat(timer.getDuration(CapturePhaseTimer.PHASE_EXPOSURE), is(0L));
+        assertThat(timer.getDuration(CapturePhaseTimer.PHASE_CAPTURE), is(500L));
+        assertThat(timer.hasTimedOut(CapturePhaseTimer.PHASE_PRECAPTURE), is(true));
+        assertThat(timer.hasTimedOut(CapturePhaseTimer.PHASE_FOCUS), is(false));
+    }
+
+    @Test
+    public void testRestart() {
+        CapturePhaseTimer timer = new CapturePhaseTimer();
+        assertThat(timer.finish(10), is(-1L));
+        timer.start(0);
+        timer.enter(CapturePhaseTimer.PHASE_FOCUS, 0);
+        timer.onTimedOut(CapturePhaseTimer.PHASE_FOCUS);
+        timer.finish(100);
+        timer.start(200);
+        timer.enter(CapturePhaseTimer.PHASE_CAPTURE, 200);
+        timer.finish(250);
+        assertThat(timer.getDuration(CapturePhaseTimer.PHASE_FOCUS), is(0L));
+        assertThat(timer.hasTimedOut(CapturePhaseTimer.PHASE_FOCUS), is(false));
+        // Not timing anything
+        timer.enter(CapturePhaseTimer.PHASE_FOCUS, 300);
+        assertThat(timer.finish(400), is(-1L));
+    }
+
+    @Test
+    public void testTimeouts() {
+        CapturePhaseTimer timer = new CapturePhaseTimer();
+        assertThat(timer.getTimeout(CapturePhaseTimer.PHASE_CAPTURE), is(0L));
+        timer.setTimeout(CapturePhaseTimer.PHASE_FOCUS, 300);
+        assertThat(timer.getTimeout(CapturePhaseTimer.PHASE_FOCUS), is(300L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTimeout() {
+        new CapturePhaseTimer().setTimeout(CapturePhaseTimer.PHASE_FOCUS, -1);
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class CaptureResultHistoryTest {
+
+    @Test
+    public void testFind() {
+        CaptureResultHistory history = new CaptureResultHistory();
+        history.record(100, 10);
+        history.record(200, 20);
+        assertThat(history.findExposureTime(200), is(20L));
+        assertThat(history.findExposureTime(100), is(10L));
+        assertThat(history.findExposureTime(300), is(FrameMetadata.EXPOSURE_TIME_UNKNOWN));
+    }
+
+    @Test
+    public void testOldestForgotten() {
+        CaptureResultHistory history = new CaptureResultHistory();
+        for (int i = 0; i < 9; i++) {
+            history.record(i, i * 10);
+        }
+        assertThat(history.findExposureTime(0), is(FrameMetadata.EXPOSURE_TIME_UNKNOWN));
+        assertThat(history.findExposureTime(8), is(80L));
+        history.clear();
+        assertThat(history.findExposureTime(8), is(FrameMetadata.EXPOSURE_TIME_UNKNOWN));
+    }
+
+}
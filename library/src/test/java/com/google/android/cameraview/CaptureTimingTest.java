@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class CaptureTimingTest {
+
+    @Test
+    public void testRequestEvents() {
+        PictureRequest request = new PictureRequest();
+        request.mark(CaptureTiming.EVENT_CAPTURE_COMPLETED);
+        final long completed = request.getTiming().getTime(CaptureTiming.EVENT_CAPTURE_COMPLETED);
+        // Only the first time counts, e.g. for the first picture of a burst
+        request.mark(CaptureTiming.EVENT_CAPTURE_COMPLETED);
+        CaptureTiming timing = request.getTiming();
+        assertThat(timing.getTime(CaptureTiming.EVENT_REQUEST), is(request.mRequestTime));
+        assertThat(timing.getTime(CaptureTiming.EVENT_CAPTURE_COMPLETED), is(completed));
+        assertThat(timing.getElapsed(CaptureTiming.EVENT_CAPTURE_COMPLETED),
+                is(completed - request.mRequestTime));
+        assertThat(timing.getElapsed(CaptureTiming.EVENT_FOCUS_LOCKED),
+                is(CaptureTiming.NOT_REACHED));
+        assertThat(timing.getTotal(), is(CaptureTiming.NOT_REACHED));
+    }
+
+    @Test
+    public void testPercentiles() {
+        CaptureTimingStats stats = new CaptureTimingStats(10);
+        assertThat(stats.getPercentile(CaptureTiming.EVENT_DISPATCHED, 50),
+                is(CaptureTiming.NOT_REACHED));
+        // 1 to 20; only the last 10 are kept
+        for (int i = 1; i <= 20; i++) {
+            stats.add(timing(i));
+        }
+        assertThat(stats.getSampleCount(CaptureTiming.EVENT_DISPATCHED), is(10));
+        assertThat(stats.getPercentile(CaptureTiming.EVENT_DISPATCHED, 0), is(11L));
+        assertThat(stats.getPercentile(CaptureTiming.EVENT_DISPATCHED, 50), is(15L));
+        assertThat(stats.getPercentile(CaptureTiming.EVENT_DISPATCHED, 90), is(19L));
+        assertThat(stats.getPercentile(CaptureTiming.EVENT_DISPATCHED, 100), is(20L));
+        // Not reached by any of them
+        assertThat(stats.getSampleCount(CaptureTiming.EVENT_FOCUS_LOCKED), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new CaptureTimingStats(1).getPercentile(CaptureTiming.EVENT_DISPATCHED, 101);
+    }
+
+    private static CaptureTiming timing(long total) {
+        long[] times = new long[CaptureTiming.EVENT_COUNT];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = CaptureTiming.NOT_REACHED;
+        }
+        times[CaptureTiming.EVENT_REQUEST] = 1000;
+        times[CaptureTiming.EVENT_DISPATCHED] = 1000 + total;
+        return new CaptureTiming(times);
+    }
+
+}
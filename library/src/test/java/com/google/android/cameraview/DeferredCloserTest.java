@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeferredCloserTest {
+
+    @Test
+    public void testCloseWithoutItems() {
+        CountingClose close = new CountingClose();
+        DeferredCloser closer = new DeferredCloser(close);
+        closer.close();
+        assertThat(close.count.get(), is(1));
+        assertThat(closer.isClosed(), is(true));
+        closer.close();
+        assertThat(close.count.get(), is(1));
+    }
+
+    @Test
+    public void testCloseWaitsForItems() {
+        CountingClose close = new CountingClose();
+        DeferredCloser closer = new DeferredCloser(close);
+        assertThat(closer.acquire(), is(true));
+        assertThat(closer.acquire(), is(true));
+        closer.close();
+        assertThat(close.count.get(), is(0));
+        // Nothing more is handed out while closing
+        assertThat(closer.acquire(), is(false));
+        closer.release();
+        assertThat(close.count.get(), is(0));
+        closer.release();
+        assertThat(close.count.get(), is(1));
+        assertThat(closer.getOutstandingCount(), is(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseWithoutAcquire() {
+        new DeferredCloser(new CountingClose()).release();
+    }
+
+    @Test
+    public void testFrameRetainedAcrossStop() throws Exception {
+        CountingClose close = new CountingClose();
+        DeferredCloser closer = new DeferredCloser(close);
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        final Frame[] kept = new Frame[1];
+        final CountDownLatch processed = new CountDownLatch(1);
+        FrameProcessor processor = new FrameProcessor() {
+            @Override
+            public void process(Frame frame) {
+                kept[0] = frame.retain();
+                processed.countDown();
+            }
+        };
+        dispatcher.add(processor, null);
+        ReaderFrame frame = new ReaderFrame(closer);
+        dispatcher.dispatch(frame);
+        assertThat(processed.await(1, TimeUnit.SECONDS), is(true));
+        // What Camera2 does when it stops
+        dispatcher.flush();
+        closer.close();
+        assertThat(close.count.get(), is(0));
+        assertThat(frame.recycled.getCount(), is(1L));
+        kept[0].release();
+        assertThat(frame.recycled.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(close.count.get(), is(1));
+        dispatcher.remove(processor);
+    }
+
+    static class CountingClose implements Runnable {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void run() {
+            count.incrementAndGet();
+        }
+
+    }
+
+    /**
+     * Counted out of a reader like {@link ImageFrame}.
+     */
+    static class ReaderFrame extends Frame {
+
+        final CountDownLatch recycled = new CountDownLatch(1);
+
+        private final DeferredCloser mCloser;
+
+        ReaderFrame(DeferredCloser closer) {
+            mCloser = closer;
+            assertThat(closer.acquire(), is(true));
+        }
+
+        @Override
+        void recycle() {
+            mCloser.release();
+            recycled.countDown();
+        }
+
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+public class ExifOrientationTest {
+
+    /** Start of image, a JFIF segment and the start of scan; enough for the parser. */
+    private static final byte[] JPEG = {
+            (byte) 0xff, (byte) 0xd8,
+            (byte) 0xff, (byte) 0xe0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0,
+            (byte) 0xff, (byte) 0xda, 0, 2, 1, 2, 3,
+            (byte) 0xff, (byte) 0xd9,
+    };
+
+    @Test
+    public void testReadWriteBigEndian() {
+        byte[] jpeg = exif(true, ExifOrientation.ROTATE_90);
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+        assertThat(ExifOrientation.read(buffer), is(ExifOrientation.ROTATE_90));
+        assertTrue(ExifOrientation.write(buffer, ExifOrientation.ROTATE_180));
+        assertThat(ExifOrientation.read(buffer), is(ExifOrientation.ROTATE_180));
+        // Only the value changed
+        byte[] expected = exif(true, ExifOrientation.ROTATE_180);
+        assertTrue(Arrays.equals(jpeg, expected));
+    }
+
+    @Test
+    public void testReadWriteLittleEndian() {
+        byte[] jpeg = exif(false, ExifOrientation.ROTATE_270);
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+        assertThat(ExifOrientation.read(buffer), is(ExifOrientation.ROTATE_270));
+        assertTrue(ExifOrientation.write(buffer, ExifOrientation.NORMAL));
+        assertTrue(Arrays.equals(jpeg, exif(false, ExifOrientation.NORMAL)));
+    }
+
+    @Test
+    public void testReadFromPosition() {
+        byte[] jpeg = exif(true, ExifOrientation.ROTATE_90);
+        byte[] padded = new byte[jpeg.length + 5];
+        System.arraycopy(jpeg, 0, padded, 5, jpeg.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        buffer.position(5);
+        assertThat(ExifOrientation.read(buffer), is(ExifOrientation.ROTATE_90));
+        assertThat(buffer.position(), is(5));
+    }
+
+    @Test
+    public void testNoTag() {
+        ByteBuffer buffer = ByteBuffer.wrap(JPEG.clone());
+        assertThat(ExifOrientation.read(buffer), is(ExifOrientation.UNDEFINED));
+        assertThat(ExifOrientation.write(buffer, ExifOrientation.ROTATE_90), is(false));
+        assertTrue(Arrays.equals(buffer.array(), JPEG));
+        // Not a JPEG image at all
+        ByteBuffer garbage = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6});
+        assertThat(ExifOrientation.read(garbage), is(ExifOrientation.UNDEFINED));
+        assertThat(ExifOrientation.read(ByteBuffer.allocate(0)), is(ExifOrientation.UNDEFINED));
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] jpeg = exif(true, ExifOrientation.ROTATE_90);
+        for (int length = 0; length < jpeg.length; length++) {
+            ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(jpeg, length));
+            // Must not throw
+            ExifOrientation.read(buffer);
+        }
+    }
+
+    @Test
+    public void testApplyPatches() {
+        byte[] jpeg = exif(false, ExifOrientation.NORMAL);
+        byte[] result = ExifOrientation.apply(jpeg, ExifOrientation.ROTATE_270);
+        assertThat(result, sameInstance(jpeg));
+        assertThat(ExifOrientation.read(ByteBuffer.wrap(result)),
+                is(ExifOrientation.ROTATE_270));
+    }
+
+    @Test
+    public void testApplyInserts() {
+        byte[] result = ExifOrientation.apply(JPEG.clone(), ExifOrientation.ROTATE_90);
+        assertThat(ExifOrientation.read(ByteBuffer.wrap(result)), is(ExifOrientation.ROTATE_90));
+        // The original segments follow the new one untouched
+        byte[] tail = Arrays.copyOfRange(result, result.length - JPEG.length + 2, result.length);
+        assertTrue(Arrays.equals(tail, Arrays.copyOfRange(JPEG, 2, JPEG.length)));
+        assertThat(result[0], is((byte) 0xff));
+        assertThat(result[1], is((byte) 0xd8));
+    }
+
+    @Test
+    public void testApplyExifWithoutTag() {
+        byte[] jpeg = exifWithout();
+        assertThat(ExifOrientation.read(ByteBuffer.wrap(jpeg)), is(ExifOrientation.UNDEFINED));
+        assertThat(ExifOrientation.apply(jpeg, ExifOrientation.ROTATE_90), nullValue());
+        assertThat(ExifOrientation.apply(new byte[]{1, 2, 3}, ExifOrientation.ROTATE_90),
+                nullValue());
+    }
+
+    @Test
+    public void testCopyOf() {
+        // Only the given length of the buffer is the image
+        byte[] buffer = Arrays.copyOf(JPEG, JPEG.length + 10);
+        byte[] inserted = ExifOrientation.copyOf(buffer, JPEG.length, ExifOrientation.ROTATE_90);
+        assertThat(Arrays.equals(inserted,
+                ExifOrientation.apply(JPEG.clone(), ExifOrientation.ROTATE_90)), is(true));
+        assertTrue(Arrays.equals(Arrays.copyOf(buffer, JPEG.length), JPEG));
+        // A tag that is there is patched in the copy only
+        byte[] jpeg = exif(true, ExifOrientation.NORMAL);
+        byte[] patched = ExifOrientation.copyOf(jpeg, jpeg.length, ExifOrientation.ROTATE_180);
+        assertThat(ExifOrientation.read(ByteBuffer.wrap(patched)),
+                is(ExifOrientation.ROTATE_180));
+        assertThat(ExifOrientation.read(ByteBuffer.wrap(jpeg)), is(ExifOrientation.NORMAL));
+        assertThat(ExifOrientation.copyOf(exifWithout(), exifWithout().length,
+                ExifOrientation.ROTATE_90), nullValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOrientation() {
+        ExifOrientation.write(ByteBuffer.wrap(exif(true, 1)), 9);
+    }
+
+    @Test
+    public void testDegrees() {
+        assertThat(ExifOrientation.toDegrees(ExifOrientation.UNDEFINED), is(0));
+        assertThat(ExifOrientation.toDegrees(ExifOrientation.NORMAL), is(0));
+        assertThat(ExifOrientation.toDegrees(ExifOrientation.ROTATE_90), is(90));
+        assertThat(ExifOrientation.toDegrees(ExifOrientation.ROTATE_180), is(180));
+        assertThat(ExifOrientation.toDegrees(ExifOrientation.ROTATE_270), is(270));
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            assertThat(ExifOrientation.toDegrees(ExifOrientation.fromDegrees(degrees)),
+                    is(degrees));
+        }
+        assertThat(ExifOrientation.fromDegrees(-90), is(ExifOrientation.ROTATE_270));
+        assertThat(ExifOrientation.fromDegrees(450), is(ExifOrientation.ROTATE_90));
+    }
+
+    @Test
+    public void testRealImage() throws IOException {
+        byte[] jpeg = encode(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB));
+        byte[] oriented = ExifOrientation.apply(jpeg, ExifOrientation.ROTATE_90);
+        assertThat(ExifOrientation.read(ByteBuffer.wrap(oriented)),
+                is(ExifOrientation.ROTATE_90));
+        // Still a valid image
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(oriented));
+        assertThat(decoded.getWidth(), is(64));
+        assertThat(decoded.getHeight(), is(48));
+    }
+
+    /**
+     * Patching the tag again and again, as the pictures of a session are, only ever touches the
+     * tag; the pixels are never decoded or changed.
+     */
+    @Test
+    public void testRepeatedPatching() throws IOException {
+        BufferedImage image = new BufferedImage(256, 192, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 7) ^ (y * 13));
+            }
+        }
+        byte[] jpeg = ExifOrientation.apply(encode(image), ExifOrientation.NORMAL);
+        byte[] original = jpeg.clone();
+        for (int i = 0; i < 100; i++) {
+            int orientation = i % 2 == 0 ? ExifOrientation.ROTATE_90 : ExifOrientation.NORMAL;
+            assertThat(ExifOrientation.apply(jpeg, orientation), sameInstance(jpeg));
+            assertThat(ExifOrientation.read(ByteBuffer.wrap(jpeg)), is(orientation));
+        }
+        // Back at the original orientation, nothing else in the data changed
+        assertTrue(Arrays.equals(jpeg, original));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertThat(decoded.getWidth(), is(256));
+        assertThat(decoded.getHeight(), is(192));
+    }
+
+    /**
+     * Compares patching the tag with decoding, rotating and encoding the pixels, which is what
+     * an app has to do without the tag. The timings depend on the machine, so they are only
+     * reported, not asserted.
+     */
+    @Test
+    public void testComparedWithRotating() throws IOException {
+        BufferedImage image = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 7) ^ (y * 13));
+            }
+        }
+        byte[] jpeg = encode(image);
+        // Warm up both paths
+        for (int i = 0; i < 3; i++) {
+            rotate(jpeg);
+            ExifOrientation.apply(jpeg.clone(), ExifOrientation.ROTATE_90);
+        }
+        long start = System.nanoTime();
+        byte[] rotated = rotate(jpeg);
+        long rotating = System.nanoTime() - start;
+        start = System.nanoTime();
+        int iterations = 100;
+        for (int i = 0; i < iterations; i++) {
+            ExifOrientation.apply(jpeg, i % 2 == 0 ? ExifOrientation.ROTATE_90
+                    : ExifOrientation.NORMAL);
+        }
+        long patching = (System.nanoTime() - start) / iterations;
+        System.out.println("ExifOrientation on 1024x768: patching " + patching
+                + " ns, decoding, rotating and encoding " + rotating + " ns");
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(rotated));
+        assertThat(decoded.getWidth(), is(768));
+        assertThat(decoded.getHeight(), is(1024));
+    }
+
+    private static byte[] rotate(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        int[] rotated = new int[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rotated[x * height + (height - 1 - y)] = pixels[y * width + x];
+            }
+        }
+        BufferedImage result = new BufferedImage(height, width, BufferedImage.TYPE_INT_RGB);
+        result.setRGB(0, 0, height, width, rotated, 0, height);
+        return encode(result);
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpg", out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds {@link #JPEG} with an EXIF segment whose first directory has another tag in front
+     * of the orientation.
+     */
+    private static byte[] exif(boolean bigEndian, int orientation) {
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 2 * 12 + 4);
+        tiff.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) (bigEndian ? 'M' : 'I')).put((byte) (bigEndian ? 'M' : 'I'));
+        tiff.putShort((short) 42).putInt(8);
+        tiff.putShort((short) 2);
+        // ImageWidth, a LONG
+        tiff.putShort((short) 0x0100).putShort((short) 4).putInt(1).putInt(640);
+        // Orientation, a SHORT
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1)
+                .putShort((short) orientation).putShort((short) 0);
+        tiff.putInt(0);
+        return withApp1(tiff.array());
+    }
+
+    private static byte[] exifWithout() {
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 12 + 4);
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0100).putShort((short) 4).putInt(1).putInt(640);
+        tiff.putInt(0);
+        return withApp1(tiff.array());
+    }
+
+    private static byte[] withApp1(byte[] tiff) {
+        int length = 2 + 6 + tiff.length;
+        ByteBuffer jpeg = ByteBuffer.allocate(JPEG.length + 2 + length);
+        jpeg.put(JPEG, 0, 2);
+        jpeg.put((byte) 0xff).put((byte) 0xe1).putShort((short) length);
+        jpeg.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        jpeg.put(tiff);
+        jpeg.put(JPEG, 2, JPEG.length - 2);
+        return jpeg.array();
+    }
+
+}
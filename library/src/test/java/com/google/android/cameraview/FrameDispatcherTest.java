@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class FrameDispatcherTest {
+
+    @Test
+    public void testFanOut() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        ManualExecutor executor1 = new ManualExecutor();
+        ManualExecutor executor2 = new ManualExecutor();
+        RecordingProcessor processor1 = new RecordingProcessor();
+        RecordingProcessor processor2 = new RecordingProcessor();
+        dispatcher.add(processor1, executor1);
+        dispatcher.add(processor2, executor2);
+        CountingFrame frame = new CountingFrame();
+        dispatcher.dispatch(frame);
+        executor1.awaitTask();
+        executor2.awaitTask();
+        // Both processors share the frame; it is not recycled until both are done
+        assertThat(frame.recycled.getCount(), is(1L));
+        executor1.runAll();
+        assertThat(frame.recycled.getCount(), is(1L));
+        executor2.runAll();
+        assertThat(frame.recycled.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(processor1.frames.get(0), sameInstance((Frame) frame));
+        assertThat(processor2.frames.get(0), sameInstance((Frame) frame));
+        dispatcher.remove(processor1);
+        dispatcher.remove(processor2);
+    }
+
+    @Test
+    public void testRetain() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        final Frame[] kept = new Frame[1];
+        final CountDownLatch processed = new CountDownLatch(1);
+        FrameProcessor processor = new FrameProcessor() {
+            @Override
+            public void process(Frame frame) {
+                kept[0] = frame.retain();
+                processed.countDown();
+            }
+        };
+        dispatcher.add(processor, null);
+        CountingFrame frame = new CountingFrame();
+        dispatcher.dispatch(frame);
+        assertThat(processed.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(frame.recycled.await(100, TimeUnit.MILLISECONDS), is(false));
+        kept[0].release();
+        assertThat(frame.recycled.await(1, TimeUnit.SECONDS), is(true));
+        dispatcher.remove(processor);
+    }
+
+    @Test
+    public void testSlowProcessorOnlyGetsLatest() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        ManualExecutor executor = new ManualExecutor();
+        RecordingProcessor processor = new RecordingProcessor();
+        dispatcher.add(processor, executor);
+        CountingFrame a = new CountingFrame();
+        CountingFrame b = new CountingFrame();
+        dispatcher.dispatch(a);
+        executor.awaitTask();
+        dispatcher.dispatch(b);
+        // The older frame waiting for the processor is replaced
+        assertThat(a.recycled.await(1, TimeUnit.SECONDS), is(true));
+        executor.runAll();
+        assertThat(b.recycled.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(processor.frames.size(), is(1));
+        assertThat(processor.frames.get(0), sameInstance((Frame) b));
+        dispatcher.remove(processor);
+    }
+
+    @Test
+    public void testSequenceAndDrops() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        final List<Long> sequences = new ArrayList<>();
+        final List<Long> dropped = new ArrayList<>();
+        final CountDownLatch processed = new CountDownLatch(2);
+        FrameProcessor processor = new FrameProcessor() {
+            @Override
+            public void process(Frame frame) {
+                sequences.add(frame.getMetadata().getSequence());
+                dropped.add(frame.getMetadata().getDroppedBefore());
+                processed.countDown();
+            }
+        };
+        dispatcher.add(processor, null);
+        dispatcher.dispatch(new CountingFrame());
+        assertThat(awaitDelivered(dispatcher, 1), is(true));
+        dispatcher.onFrameDropped();
+        dispatcher.onFrameDropped();
+        dispatcher.dispatch(new CountingFrame());
+        assertThat(processed.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(sequences.get(0), is(0L));
+        assertThat(dropped.get(0), is(0L));
+        assertThat(sequences.get(1), is(3L));
+        assertThat(dropped.get(1), is(2L));
+        dispatcher.remove(processor);
+    }
+
+    @Test
+    public void testFailingProcessor() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        ManualExecutor executor = new ManualExecutor();
+        final CountDownLatch failed = new CountDownLatch(2);
+        FrameProcessor failing = new FrameProcessor() {
+            @Override
+            public void process(Frame frame) {
+                failed.countDown();
+                throw new IllegalStateException();
+            }
+        };
+        RecordingProcessor processor = new RecordingProcessor();
+        dispatcher.add(failing, null);
+        dispatcher.add(processor, executor);
+        CountingFrame a = new CountingFrame();
+        dispatcher.dispatch(a);
+        executor.awaitTask();
+        executor.runAll();
+        assertThat(a.recycled.await(1, TimeUnit.SECONDS), is(true));
+        // The dispatcher thread survives, and the frames keep coming to the other processor
+        CountingFrame b = new CountingFrame();
+        dispatcher.dispatch(b);
+        assertThat(failed.await(1, TimeUnit.SECONDS), is(true));
+        executor.awaitTask();
+        executor.runAll();
+        assertThat(b.recycled.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(processor.frames.size(), is(2));
+        dispatcher.remove(failing);
+        dispatcher.remove(processor);
+    }
+
+    @Test
+    public void testFailingProcessorOnExecutor() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        ManualExecutor executor = new ManualExecutor();
+        FrameProcessor failing = new FrameProcessor() {
+            @Override
+            public void process(Frame frame) {
+                throw new IllegalStateException();
+            }
+        };
+        dispatcher.add(failing, executor);
+        CountingFrame a = new CountingFrame();
+        dispatcher.dispatch(a);
+        executor.awaitTask();
+        executor.runAll();
+        assertThat(a.recycled.await(1, TimeUnit.SECONDS), is(true));
+        // Scheduled again for the next frame
+        CountingFrame b = new CountingFrame();
+        dispatcher.dispatch(b);
+        executor.awaitTask();
+        executor.runAll();
+        assertThat(b.recycled.await(1, TimeUnit.SECONDS), is(true));
+        dispatcher.remove(failing);
+    }
+
+    @Test
+    public void testRejectingExecutor() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher();
+        final AtomicBoolean reject = new AtomicBoolean(true);
+        final ManualExecutor executor = new ManualExecutor();
+        RecordingProcessor processor = new RecordingProcessor();
+        dispatcher.add(processor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (reject.get()) {
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(command);
+            }
+        });
+        CountingFrame a = new CountingFrame();
+        dispatcher.dispatch(a);
+        // The rejected frame is not pinned
+        assertThat(a.recycled.await(1, TimeUnit.SECONDS), is(true));
+        reject.set(false);
+        CountingFrame b = new CountingFrame();
+        dispatcher.dispatch(b);
+        executor.awaitTask();
+        executor.runAll();
+        assertThat(b.recycled.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(processor.frames.size(), is(1));
+        assertThat(processor.frames.get(0), sameInstance((Frame) b));
+        dispatcher.remove(processor);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetainReleased() {
+        CountingFrame frame = new CountingFrame();
+        frame.acquire();
+        frame.release();
+        frame.retain();
+    }
+
+    private static boolean awaitDelivered(FrameDispatcher dispatcher, long count)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (dispatcher.getQueue().getDeliveredCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    static class CountingFrame extends Frame {
+
+        final CountDownLatch recycled = new CountDownLatch(1);
+
+        @Override
+        void recycle() {
+            recycled.countDown();
+        }
+
+    }
+
+    static class RecordingProcessor implements FrameProcessor {
+
+        final List<Frame> frames = new ArrayList<>();
+
+        @Override
+        public void process(Frame frame) {
+            frames.add(frame);
+        }
+
+    }
+
+    /**
+     * Runs the submitted tasks only when asked to.
+     */
+    static class ManualExecutor implements Executor {
+
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            mTasks.add(command);
+            notifyAll();
+        }
+
+        synchronized void awaitTask() throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 1000;
+            while (mTasks.isEmpty() && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+        }
+
+        void runAll() {
+            final List<Runnable> tasks;
+            synchronized (this) {
+                tasks = new ArrayList<>(mTasks);
+                mTasks.clear();
+            }
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class FrameQueueTest {
+
+    @Test
+    public void testLatest() throws Exception {
+        FrameQueue queue = new FrameQueue();
+        queue.open();
+        TestFrame a = new TestFrame();
+        TestFrame b = new TestFrame();
+        queue.offer(a);
+        queue.offer(b);
+        assertThat(a.recycled, is(1));
+        assertThat(queue.size(), is(1));
+        assertThat(queue.take(), sameInstance((Frame) b));
+        assertThat(queue.getDroppedCount(), is(1L));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        FrameQueue queue = new FrameQueue();
+        queue.setPolicy(Constants.FRAME_DELIVERY_DROP_OLDEST);
+        queue.setCapacity(2);
+        queue.open();
+        TestFrame a = new TestFrame();
+        TestFrame b = new TestFrame();
+        TestFrame c = new TestFrame();
+        queue.offer(a);
+        queue.offer(b);
+        queue.offer(c);
+        assertThat(a.recycled, is(1));
+        assertThat(queue.take(), sameInstance((Frame) b));
+        assertThat(queue.take(), sameInstance((Frame) c));
+    }
+
+    @Test
+    public void testEveryNth() throws Exception {
+        FrameQueue queue = new FrameQueue();
+        queue.setPolicy(Constants.FRAME_DELIVERY_EVERY_NTH);
+        queue.setInterval(3);
+        queue.setCapacity(10);
+        queue.open();
+        for (int i = 0; i < 9; i++) {
+            queue.offer(new TestFrame());
+        }
+        assertThat(queue.size(), is(3));
+        assertThat(queue.getDroppedCount(), is(6L));
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final FrameQueue queue = new FrameQueue();
+        queue.setPolicy(Constants.FRAME_DELIVERY_BLOCK);
+        queue.setCapacity(1);
+        queue.open();
+        final TestFrame a = new TestFrame();
+        final TestFrame b = new TestFrame();
+        queue.offer(a);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.offer(b);
+            }
+        });
+        producer.start();
+        producer.join(100);
+        // The producer is blocked until there is room
+        assertThat(producer.isAlive(), is(true));
+        assertThat(queue.take(), sameInstance((Frame) a));
+        producer.join(1000);
+        assertThat(producer.isAlive(), is(false));
+        assertThat(queue.take(), sameInstance((Frame) b));
+        assertThat(queue.getDroppedCount(), is(0L));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        FrameQueue queue = new FrameQueue();
+        queue.open();
+        TestFrame a = new TestFrame();
+        queue.offer(a);
+        queue.close();
+        assertThat(a.recycled, is(1));
+        assertThat(queue.take(), nullValue());
+        TestFrame b = new TestFrame();
+        queue.offer(b);
+        assertThat(b.recycled, is(1));
+    }
+
+    static class TestFrame extends Frame {
+
+        int recycled;
+
+        TestFrame() {
+            acquire();
+        }
+
+        @Override
+        void recycle() {
+            recycled++;
+        }
+
+    }
+
+}
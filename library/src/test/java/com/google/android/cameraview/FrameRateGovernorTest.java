@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrameRateGovernorTest {
+
+    private static final long FRAME = 33333333L; // 30 fps
+
+    @Test
+    public void testUnlimited() {
+        FrameRateGovernor governor = new FrameRateGovernor();
+        for (int i = 0; i < 10; i++) {
+            assertThat(governor.admit(i * FRAME), is(true));
+        }
+        assertTrue(Math.abs(governor.getEffectiveRate() - 30) < 0.1);
+    }
+
+    @Test
+    public void testTargetRate() {
+        FrameRateGovernor governor = new FrameRateGovernor();
+        governor.setTargetRate(10);
+        int admitted = 0;
+        for (int i = 0; i < 30; i++) {
+            if (governor.admit(i * FRAME)) {
+                admitted++;
+            }
+        }
+        // Every third frame of a 30 fps preview
+        assertThat(admitted, is(10));
+        assertTrue(Math.abs(governor.getEffectiveRate() - 10) < 0.1);
+    }
+
+    @Test
+    public void testBackOffAndRecover() {
+        FrameRateGovernor governor = new FrameRateGovernor();
+        governor.setTargetRate(10);
+        final long target = governor.getInterval();
+        for (int i = 0; i < 20; i++) {
+            governor.reportProcessingTime(250000000L);
+        }
+        // Never admits faster than the processors can go
+        assertTrue(governor.getInterval() >= 250000000L);
+        for (int i = 0; i < 100; i++) {
+            governor.reportProcessingTime(1000000L);
+        }
+        assertThat(governor.getInterval(), is(target));
+    }
+
+    @Test
+    public void testTimeBaseChange() {
+        FrameRateGovernor governor = new FrameRateGovernor();
+        governor.setTargetRate(5);
+        assertThat(governor.admit(10 * FRAME), is(true));
+        assertThat(governor.admit(FRAME), is(true));
+        assertThat(governor.admit(2 * FRAME), is(false));
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class FrameSelectorTest {
+
+    private static final long[] TIMESTAMPS = {100, 133, 166, 200};
+
+    @Test
+    public void testClosest() {
+        assertThat(FrameSelector.selectClosest(TIMESTAMPS, 4, 140), is(1));
+        assertThat(FrameSelector.selectClosest(TIMESTAMPS, 4, 0), is(0));
+        assertThat(FrameSelector.selectClosest(TIMESTAMPS, 4, 1000), is(3));
+        // Only the first frames are candidates
+        assertThat(FrameSelector.selectClosest(TIMESTAMPS, 2, 1000), is(1));
+        assertThat(FrameSelector.selectClosest(TIMESTAMPS, 0, 100), is(-1));
+    }
+
+    @Test
+    public void testSharpest() {
+        long[] scores = {500, 10, 20, 15};
+        // The sharp first frame is outside of the window
+        assertThat(FrameSelector.selectSharpest(TIMESTAMPS, scores, 4, 166, 40), is(2));
+        assertThat(FrameSelector.selectSharpest(TIMESTAMPS, scores, 4, 166, 70), is(0));
+        // Nothing was scored
+        long[] none = {-1, -1, -1, -1};
+        assertThat(FrameSelector.selectSharpest(TIMESTAMPS, none, 4, 140, 70), is(1));
+    }
+
+    @Test
+    public void testSharpness() {
+        // A flat image has no gradients
+        ByteBuffer flat = ByteBuffer.allocate(8 * 8);
+        for (int i = 0; i < 64; i++) {
+            flat.put(i, (byte) 128);
+        }
+        assertThat(FrameSelector.sharpness(flat, 8, 8, 8, 1), is(0L));
+        // A checkerboard with a padded row stride
+        ByteBuffer checker = ByteBuffer.allocate(10 * 8);
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                checker.put(row * 10 + col, (byte) (((row + col) & 1) == 0 ? 0 : 100));
+            }
+        }
+        assertThat(FrameSelector.sharpness(checker, 8, 8, 10, 1), is(20000L));
+        assertThat(FrameSelector.sharpness(checker, 8, 8, 10, 2), is(20000L));
+    }
+
+}
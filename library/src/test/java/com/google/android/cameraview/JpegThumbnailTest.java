@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class JpegThumbnailTest {
+
+    private static final byte[] THUMBNAIL = {
+            (byte) 0xff, (byte) 0xd8, 1, 2, 3, 4, 5, 6, (byte) 0xff, (byte) 0xd9,
+    };
+
+    @Test
+    public void testFindEmbedded() {
+        for (boolean bigEndian : new boolean[]{true, false}) {
+            byte[] jpeg = withThumbnail(bigEndian, THUMBNAIL.length);
+            ByteBuffer thumbnail = JpegThumbnail.findEmbedded(ByteBuffer.wrap(jpeg));
+            byte[] data = new byte[thumbnail.remaining()];
+            thumbnail.get(data);
+            assertTrue(Arrays.equals(data, THUMBNAIL));
+            // The orientation in the first directory is still found
+            assertThat(ExifOrientation.read(ByteBuffer.wrap(jpeg)),
+                    is(ExifOrientation.ROTATE_90));
+        }
+    }
+
+    @Test
+    public void testNoThumbnail() {
+        // No EXIF data
+        byte[] plain = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xd9};
+        assertThat(JpegThumbnail.findEmbedded(ByteBuffer.wrap(plain)), nullValue());
+        // The length points past the end of the segment
+        byte[] jpeg = withThumbnail(true, 1000);
+        assertThat(JpegThumbnail.findEmbedded(ByteBuffer.wrap(jpeg)), nullValue());
+        // Truncated data must not throw
+        byte[] valid = withThumbnail(true, THUMBNAIL.length);
+        for (int length = 0; length < valid.length; length++) {
+            JpegThumbnail.findEmbedded(ByteBuffer.wrap(Arrays.copyOf(valid, length)));
+        }
+    }
+
+    @Test
+    public void testSampleSize() {
+        assertThat(JpegThumbnail.sampleSize(4000, 3000, 256), is(8));
+        assertThat(JpegThumbnail.sampleSize(3000, 4000, 500), is(8));
+        assertThat(JpegThumbnail.sampleSize(4000, 3000, 501), is(4));
+        assertThat(JpegThumbnail.sampleSize(200, 100, 256), is(1));
+        assertThat(JpegThumbnail.sampleSize(200, 100, 0), is(1));
+    }
+
+    @Test
+    public void testChooseSize() {
+        AspectRatio ratio = AspectRatio.of(4, 3);
+        List<Size> sizes = Arrays.asList(new Size(0, 0), new Size(160, 120), new Size(320, 240),
+                new Size(512, 384), new Size(320, 180));
+        assertThat(JpegThumbnail.chooseSize(sizes, ratio, 200), is(new Size(320, 240)));
+        assertThat(JpegThumbnail.chooseSize(sizes, ratio, 320), is(new Size(320, 240)));
+        assertThat(JpegThumbnail.chooseSize(sizes, ratio, 100), is(new Size(160, 120)));
+        // None is big enough
+        assertThat(JpegThumbnail.chooseSize(sizes, ratio, 1000), is(new Size(512, 384)));
+        // No size in the aspect ratio
+        assertThat(JpegThumbnail.chooseSize(sizes, AspectRatio.of(1, 1), 200),
+                is(new Size(320, 240)));
+        // Only (0, 0): the camera cannot embed thumbnails
+        assertThat(JpegThumbnail.chooseSize(Collections.singletonList(new Size(0, 0)), ratio, 200),
+                nullValue());
+    }
+
+    /**
+     * Builds a JPEG image with an orientation in the first directory and {@link #THUMBNAIL}
+     * described by the second one.
+     */
+    private static byte[] withThumbnail(boolean bigEndian, int declaredLength) {
+        int ifd0 = 8;
+        int ifd1 = ifd0 + 2 + 12 + 4;
+        int data = ifd1 + 2 + 2 * 12 + 4;
+        ByteBuffer tiff = ByteBuffer.allocate(data + THUMBNAIL.length);
+        tiff.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) (bigEndian ? 'M' : 'I')).put((byte) (bigEndian ? 'M' : 'I'));
+        tiff.putShort((short) 42).putInt(ifd0);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1)
+                .putShort((short) ExifOrientation.ROTATE_90).putShort((short) 0);
+        tiff.putInt(ifd1);
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(data);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(declaredLength);
+        tiff.putInt(0);
+        tiff.put(THUMBNAIL);
+        int length = 2 + 6 + tiff.capacity();
+        ByteBuffer jpeg = ByteBuffer.allocate(2 + 2 + length + 2);
+        jpeg.put((byte) 0xff).put((byte) 0xd8);
+        jpeg.put((byte) 0xff).put((byte) 0xe1).putShort((short) length);
+        jpeg.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        jpeg.put(tiff.array());
+        jpeg.put((byte) 0xff).put((byte) 0xd9);
+        return jpeg.array();
+    }
+
+}
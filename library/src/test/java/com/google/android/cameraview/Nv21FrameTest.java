@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class Nv21FrameTest {
+
+    @Test
+    public void testBufferSize() {
+        assertThat(Nv21Frame.bufferSize(4, 2), is(12));
+        assertThat(Nv21Frame.bufferSize(640, 480), is(640 * 480 * 3 / 2));
+    }
+
+    @Test
+    public void testPlanes() {
+        Nv21Frame frame = new Nv21Frame(4, 2, null);
+        byte[] data = frame.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        assertThat(frame.getPlane(Frame.PLANE_Y).get(5), is((byte) 5));
+        assertThat(frame.getRowStride(Frame.PLANE_Y), is(4));
+        assertThat(frame.getPixelStride(Frame.PLANE_Y), is(1));
+        // V comes first in NV21
+        assertThat(frame.getPlane(Frame.PLANE_V).get(0), is((byte) 8));
+        assertThat(frame.getPlane(Frame.PLANE_U).get(0), is((byte) 9));
+        assertThat(frame.getPlane(Frame.PLANE_U).get(2), is((byte) 11));
+        assertThat(frame.getPixelStride(Frame.PLANE_U), is(2));
+        assertThat(frame.getRowStride(Frame.PLANE_V), is(4));
+    }
+
+    @Test
+    public void testLumaPlane() {
+        Nv21Frame frame = new Nv21Frame(4, 2, null);
+        ByteBuffer luma = frame.getLumaPlane();
+        assertThat(luma.isReadOnly(), is(true));
+        assertThat(luma.remaining(), is(8));
+        // A view of the pooled array, not a copy
+        frame.getData()[3] = 42;
+        assertThat(luma.get(3), is((byte) 42));
+        assertThat(frame.getLumaPlane(), sameInstance(luma));
+    }
+
+    @Test
+    public void testCopy() {
+        // A 4x2 frame with padded rows and separate chroma planes, as Camera2 may deliver
+        Frame frame = new Frame() {
+            @Override
+            void recycle() {
+            }
+        };
+        frame.setFormat(0, 4, 2);
+        frame.setPlane(Frame.PLANE_Y, ByteBuffer.wrap(new byte[]{
+                0, 1, 2, 3, -1, -1,
+                4, 5, 6, 7}), 6, 1);
+        frame.setPlane(Frame.PLANE_U, ByteBuffer.wrap(new byte[]{10, -1, 11}), 3, 2);
+        frame.setPlane(Frame.PLANE_V, ByteBuffer.wrap(new byte[]{20, 21}), 2, 1);
+        byte[] out = new byte[Nv21Frame.bufferSize(4, 2)];
+        Nv21Frame.copy(frame, out);
+        assertThat(Arrays.equals(out, new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 20, 10, 21, 11}),
+                is(true));
+        // An NV21 frame is copied as it is
+        Nv21Frame nv21 = new Nv21Frame(4, 2, null);
+        for (int i = 0; i < nv21.getData().length; i++) {
+            nv21.getData()[i] = (byte) i;
+        }
+        Nv21Frame.copy(nv21, out);
+        assertThat(Arrays.equals(out, nv21.getData()), is(true));
+    }
+
+    @Test
+    public void testRecycle() {
+        final Nv21Frame[] recycled = new Nv21Frame[1];
+        Nv21Frame frame = new Nv21Frame(2, 2, new Nv21Frame.Recycler() {
+            @Override
+            public void recycle(Nv21Frame f) {
+                recycled[0] = f;
+            }
+        });
+        frame.recycle();
+        assertThat(recycled[0], sameInstance(frame));
+    }
+
+}
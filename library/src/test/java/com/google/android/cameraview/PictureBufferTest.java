@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class PictureBufferTest {
+
+    @Test
+    public void testByteArrayIsNotCopied() {
+        byte[] data = {1, 2, 3};
+        PictureBuffer picture = new PictureBuffer.ByteArray(data);
+        assertThat(picture.size(), is(3));
+        assertThat(picture.toByteArray(), sameInstance(data));
+        assertThat(picture.getBuffer().isReadOnly(), is(true));
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.put(new byte[]{0, 5, 6, 7});
+        direct.position(1);
+        TestPictureBuffer picture = new TestPictureBuffer(direct);
+        assertThat(picture.size(), is(3));
+        assertThat(picture.getBuffer().get(0), is((byte) 5));
+        byte[] bytes = picture.toByteArray();
+        assertThat(bytes.length, is(3));
+        assertThat(bytes[2], is((byte) 7));
+        // Copied only once
+        assertThat(picture.toByteArray(), sameInstance(bytes));
+    }
+
+    @Test
+    public void testRetainAndClose() {
+        TestPictureBuffer picture = new TestPictureBuffer(ByteBuffer.allocateDirect(1));
+        picture.retain();
+        picture.close();
+        assertThat(picture.recycled, is(0));
+        picture.close();
+        assertThat(picture.recycled, is(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() {
+        TestPictureBuffer picture = new TestPictureBuffer(ByteBuffer.allocateDirect(1));
+        picture.close();
+        picture.getBuffer();
+    }
+
+    static class TestPictureBuffer extends PictureBuffer {
+
+        int recycled;
+
+        TestPictureBuffer(ByteBuffer buffer) {
+            super(buffer);
+        }
+
+        @Override
+        void recycle() {
+            recycled++;
+        }
+
+    }
+
+}
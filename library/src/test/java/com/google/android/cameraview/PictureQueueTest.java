@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class PictureQueueTest {
+
+    @Test
+    public void testOrderAndCapacity() {
+        PictureQueue queue = new PictureQueue(2);
+        PictureRequest first = new PictureRequest();
+        PictureRequest second = new PictureRequest();
+        assertThat(queue.offer(first), is(true));
+        assertThat(queue.offer(second), is(true));
+        assertThat(queue.offer(new PictureRequest()), is(false));
+        assertThat(queue.poll(), sameInstance(first));
+        assertThat(queue.poll(), sameInstance(second));
+        assertThat(queue.poll(), nullValue());
+        PictureStats stats = queue.getStats();
+        assertThat(stats.getQueued(), is(2));
+        assertThat(stats.getDropped(), is(1));
+        assertThat(stats.getPending(), is(0));
+    }
+
+    @Test
+    public void testOutcomes() {
+        PictureQueue queue = new PictureQueue(4);
+        PictureRequest served = new PictureRequest();
+        PictureRequest failed = new PictureRequest();
+        queue.offer(served);
+        queue.offer(failed);
+        queue.offer(new PictureRequest());
+        queue.poll();
+        served.onPictureDone(true);
+        queue.onDone(served);
+        queue.poll();
+        failed.onPictureDone(false);
+        queue.onDone(failed);
+        assertThat(queue.getStats().getPending(), is(1));
+        List<PictureRequest> left = queue.clear();
+        assertThat(left.size(), is(1));
+        assertThat(queue.isEmpty(), is(true));
+        PictureStats stats = queue.getStats();
+        assertThat(stats.getQueued(), is(3));
+        assertThat(stats.getServed(), is(1));
+        assertThat(stats.getDropped(), is(2));
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class PictureRequestTest {
+
+    @Test
+    public void testSingle() {
+        PictureRequest request = new PictureRequest();
+        assertThat(request.isBurst(), is(false));
+        assertThat(request.isSaveRequest(), is(false));
+        assertThat(request.onPictureDone(true), is(true));
+        // Late results do not complete it again
+        assertThat(request.onPictureDone(true), is(false));
+    }
+
+    @Test
+    public void testBurst() {
+        PictureRequest request = new PictureRequest(3, 100);
+        assertThat(request.isBurst(), is(true));
+        assertThat(request.onPictureDone(true), is(false));
+        assertThat(request.onPictureDone(false), is(false));
+        assertThat(request.onPictureDone(true), is(true));
+        assertThat(request.getDeliveredCount(), is(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyBurst() {
+        new PictureRequest(0, 0);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+public class PictureSizePolicyTest {
+
+    private static final Size SIZE_48MP = new Size(8000, 6000);
+    private static final Size SIZE_12MP = new Size(4000, 3000);
+    private static final Size SIZE_8MP = new Size(3264, 2448);
+    private static final Size SIZE_2MP = new Size(1600, 1200);
+
+    private static final SortedSet<Size> SIZES = new TreeSet<>(
+            Arrays.asList(SIZE_2MP, SIZE_48MP, SIZE_8MP, SIZE_12MP));
+
+    @Test
+    public void testLargest() {
+        assertThat(PictureSizePolicy.LARGEST.choose(SIZES, 2), is(SIZE_48MP));
+        assertThat(PictureSizePolicy.of(0, 0).choose(SIZES, 2), is(SIZE_48MP));
+    }
+
+    @Test
+    public void testMegapixels() {
+        assertThat(PictureSizePolicy.of(12, 0).choose(SIZES, 2), is(SIZE_12MP));
+        assertThat(PictureSizePolicy.of(11.9f, 0).choose(SIZES, 2), is(SIZE_8MP));
+        // Nothing fits; the smallest is the closest
+        assertThat(PictureSizePolicy.of(1, 0).choose(SIZES, 2), is(SIZE_2MP));
+    }
+
+    @Test
+    public void testBytes() {
+        long twelve = PictureSizePolicy.bufferBytes(SIZE_12MP);
+        assertThat(twelve, is(18000000L));
+        assertThat(PictureSizePolicy.of(0, twelve).choose(SIZES, 1), is(SIZE_12MP));
+        // The budget covers all the buffers
+        assertThat(PictureSizePolicy.of(0, twelve).choose(SIZES, 2), is(SIZE_2MP));
+        // Both limits apply
+        assertThat(PictureSizePolicy.of(7, twelve).choose(SIZES, 1), is(SIZE_2MP));
+        long eight = PictureSizePolicy.bufferBytes(SIZE_8MP);
+        assertThat(PictureSizePolicy.of(12, eight).choose(SIZES, 1), is(SIZE_8MP));
+    }
+
+    @Test
+    public void testHeap() {
+        PictureSizePolicy policy = PictureSizePolicy.LARGEST.limitedToHeap(0.25f);
+        assertThat(policy.choose(SIZES, 2, 80000000L), is(SIZE_12MP));
+        assertThat(policy.choose(SIZES, 2, 1000000000L), is(SIZE_48MP));
+        assertThat(policy.choose(SIZES, 2, 0), is(SIZE_2MP));
+    }
+
+    @Test
+    public void testEquals() {
+        assertThat(PictureSizePolicy.of(0, 0).equals(PictureSizePolicy.LARGEST), is(true));
+        assertThat(PictureSizePolicy.of(12, 0).equals(PictureSizePolicy.of(12, 0)), is(true));
+        assertThat(PictureSizePolicy.of(12, 0).equals(PictureSizePolicy.of(12, 0)
+                .limitedToHeap(0.5f)), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFraction() {
+        PictureSizePolicy.LARGEST.limitedToHeap(1.5f);
+    }
+
+}
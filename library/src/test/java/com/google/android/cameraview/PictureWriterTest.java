@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PictureWriterTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("PictureWriterTest", "");
+        assertThat(mDir.delete(), is(true));
+        assertThat(mDir.mkdir(), is(true));
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDir.delete();
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        PictureWriter writer = new PictureWriter(listener);
+        File file = new File(mDir, "picture.jpg");
+        ByteBuffer data = ByteBuffer.allocateDirect(3);
+        data.put(new byte[]{1, 2, 3});
+        data.flip();
+        PictureBufferTest.TestPictureBuffer picture =
+                new PictureBufferTest.TestPictureBuffer(data);
+        PictureRequest request = new PictureRequest(file, null, null);
+        writer.write(picture, request);
+        assertThat(listener.done.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(listener.written, sameInstance(request));
+        assertThat(picture.recycled, is(1));
+        byte[] bytes = new byte[4];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            assertThat(in.read(bytes), is(3));
+        } finally {
+            in.close();
+        }
+        assertThat(bytes[2], is((byte) 3));
+        // Only the final file is left
+        assertThat(mDir.list().length, is(1));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        PictureWriter writer = new PictureWriter(listener);
+        File file = new File(new File(mDir, "missing"), "picture.jpg");
+        PictureBufferTest.TestPictureBuffer picture =
+                new PictureBufferTest.TestPictureBuffer(ByteBuffer.allocateDirect(1));
+        writer.write(picture, new PictureRequest(file, null, null));
+        assertThat(listener.done.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(listener.error, notNullValue());
+        assertThat(picture.recycled, is(1));
+    }
+
+    static class RecordingListener implements PictureWriter.Listener {
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        PictureRequest written;
+
+        IOException error;
+
+        @Override
+        public void onPictureWritten(PictureRequest request, long writeTime) {
+            written = request;
+            done.countDown();
+        }
+
+        @Override
+        public void onPictureWriteFailed(PictureRequest request, IOException e) {
+            error = e;
+            done.countDown();
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class PreviewStallMeterTest {
+
+    private static final long FRAME = 33333333L; // 30 fps
+
+    @Test
+    public void testStall() {
+        PreviewStallMeter meter = new PreviewStallMeter();
+        for (int i = 0; i < 10; i++) {
+            assertThat(meter.onPreviewFrame(i * FRAME), is(-1L));
+        }
+        assertThat(meter.getFrameInterval(), is(FRAME));
+        meter.start();
+        assertThat(meter.onPreviewFrame(10 * FRAME), is(-1L));
+        // The preview is stopped for the capture
+        assertThat(meter.onPreviewFrame(25 * FRAME), is(-1L));
+        meter.stop();
+        assertThat(meter.onPreviewFrame(26 * FRAME), is(15 * FRAME));
+        assertThat(meter.getLastStall(), is(15 * FRAME));
+        // The interval outside of captures is not affected
+        assertThat(meter.getFrameInterval(), is(FRAME));
+    }
+
+    @Test
+    public void testNoStall() {
+        PreviewStallMeter meter = new PreviewStallMeter();
+        assertThat(meter.getLastStall(), is(-1L));
+        meter.onPreviewFrame(0);
+        meter.start();
+        meter.onPreviewFrame(FRAME);
+        meter.stop();
+        assertThat(meter.onPreviewFrame(2 * FRAME), is(FRAME));
+    }
+
+    @Test
+    public void testStopWithoutStart() {
+        PreviewStallMeter meter = new PreviewStallMeter();
+        meter.stop();
+        meter.onPreviewFrame(0);
+        assertThat(meter.onPreviewFrame(FRAME), is(-1L));
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class YuvConverterTest {
+
+    @Test
+    public void testToArgb() {
+        assertThat(YuvConverter.toArgb(0, 0, 0), is(0xff000000));
+        assertThat(YuvConverter.toArgb(255, 0, 0), is(0xffffffff));
+        assertThat(YuvConverter.toArgb(128, 0, 0), is(0xff808080));
+        // Saturated red
+        assertThat(YuvConverter.toArgb(76, -43, 127), is(reference(76, 85, 255)));
+    }
+
+    @Test
+    public void testNv21() {
+        final int width = 32;
+        final int height = 18;
+        byte[] nv21 = random(Nv21Frame.bufferSize(width, height), 1);
+        int[] argb = new int[width * height];
+        new YuvConverter().convertNv21(nv21, width, height, argb);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int c = width * height + (row / 2) * width + (col / 2) * 2;
+                assertClose(argb[row * width + col],
+                        reference(nv21[row * width + col] & 0xff, nv21[c + 1] & 0xff,
+                                nv21[c] & 0xff));
+            }
+        }
+    }
+
+    @Test
+    public void testNv21Frame() {
+        final int width = 16;
+        final int height = 8;
+        Nv21Frame frame = new Nv21Frame(width, height, null);
+        byte[] nv21 = frame.getData();
+        System.arraycopy(random(nv21.length, 2), 0, nv21, 0, nv21.length);
+        int[] expected = new int[width * height];
+        int[] actual = new int[width * height];
+        YuvConverter converter = new YuvConverter();
+        converter.convertNv21(nv21, width, height, expected);
+        converter.convert(frame, actual);
+        assertThat(java.util.Arrays.equals(expected, actual), is(true));
+    }
+
+    @Test
+    public void testPlanarWithPadding() {
+        // I420 planes with row padding, as direct buffers like the ones of Image planes
+        final int width = 20;
+        final int height = 10;
+        final int yRowStride = 24;
+        final int uvRowStride = 16;
+        ByteBuffer y = direct(random(yRowStride * height, 3));
+        ByteBuffer u = direct(random(uvRowStride * height / 2, 4));
+        ByteBuffer v = direct(random(uvRowStride * height / 2, 5));
+        int[] argb = new int[width * height];
+        new YuvConverter().convert(y, u, v, yRowStride, uvRowStride, 1, width, height, argb);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int c = (row / 2) * uvRowStride + col / 2;
+                assertClose(argb[row * width + col],
+                        reference(y.get(row * yRowStride + col) & 0xff, u.get(c) & 0xff,
+                                v.get(c) & 0xff));
+            }
+        }
+    }
+
+    @Test
+    public void testSemiPlanar() {
+        // NV12-like layout with pixel stride 2 and odd dimensions
+        final int width = 15;
+        final int height = 9;
+        final int rowStride = 16;
+        byte[] chroma = random(rowStride * 5, 6);
+        ByteBuffer y = direct(random(rowStride * height, 7));
+        ByteBuffer u = direct(chroma);
+        ByteBuffer v = ((ByteBuffer) direct(chroma).position(1)).slice();
+        int[] argb = new int[width * height];
+        new YuvConverter().convert(y, u, v, rowStride, rowStride, 2, width, height, argb);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int c = (row / 2) * rowStride + (col / 2) * 2;
+                assertClose(argb[row * width + col],
+                        reference(y.get(row * rowStride + col) & 0xff, chroma[c] & 0xff,
+                                chroma[c + 1] & 0xff));
+            }
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        final int width = 64;
+        final int height = 47;
+        byte[] nv21 = random(Nv21Frame.bufferSize(width, height), 8);
+        int[] expected = new int[width * height];
+        new YuvConverter().convertNv21(nv21, width, height, expected);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            YuvConverter converter = new YuvConverter(executor, 4);
+            for (int i = 0; i < 10; i++) {
+                int[] actual = new int[width * height];
+                converter.convertNv21(nv21, width, height, actual);
+                assertThat(java.util.Arrays.equals(expected, actual), is(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testRejectedStripe() {
+        final int width = 64;
+        final int height = 48;
+        byte[] nv21 = random(Nv21Frame.bufferSize(width, height), 9);
+        int[] expected = new int[width * height];
+        new YuvConverter().convertNv21(nv21, width, height, expected);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        final AtomicInteger accepted = new AtomicInteger(1);
+        try {
+            YuvConverter converter = new YuvConverter(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    if (accepted.getAndDecrement() <= 0) {
+                        throw new RejectedExecutionException();
+                    }
+                    executor.execute(command);
+                }
+            }, 4);
+            try {
+                converter.convertNv21(nv21, width, height, new int[width * height]);
+                fail();
+            } catch (RejectedExecutionException e) {
+                // Expected
+            }
+            // The stripe that was rejected is not waited for
+            accepted.set(Integer.MAX_VALUE);
+            int[] actual = new int[width * height];
+            converter.convertNv21(nv21, width, height, actual);
+            assertThat(java.util.Arrays.equals(expected, actual), is(true));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutputTooSmall() {
+        new YuvConverter().convertNv21(new byte[24], 4, 4, new int[15]);
+    }
+
+    /**
+     * The JFIF conversion in floating point.
+     */
+    private static int reference(int y, int u, int v) {
+        int r = clamp(Math.round(y + 1.402 * (v - 128)));
+        int g = clamp(Math.round(y - 0.344136 * (u - 128) - 0.714136 * (v - 128)));
+        int b = clamp(Math.round(y + 1.772 * (u - 128)));
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.max(0, Math.min(255, value));
+    }
+
+    private static void assertClose(int actual, int expected) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (actual >> shift) & 0xff;
+            int e = (expected >> shift) & 0xff;
+            assertTrue(Integer.toHexString(actual) + " vs " + Integer.toHexString(expected),
+                    Math.abs(a - e) <= 1);
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static ByteBuffer direct(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.clear();
+        return buffer;
+    }
+
+}
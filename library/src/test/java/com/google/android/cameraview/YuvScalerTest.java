@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class YuvScalerTest {
+
+    @Test
+    public void testIdentity() {
+        Nv21Frame frame = randomFrame(8, 6);
+        for (int filter : new int[]{YuvScaler.FILTER_BOX, YuvScaler.FILTER_BILINEAR}) {
+            byte[] out = new byte[Nv21Frame.bufferSize(8, 6)];
+            new YuvScaler(filter).scale(frame, 0, 0, 8, 6, out, 8, 6);
+            assertThat(Arrays.equals(out, frame.getData()), is(true));
+        }
+    }
+
+    @Test
+    public void testCrop() {
+        Nv21Frame frame = randomFrame(8, 6);
+        byte[] data = frame.getData();
+        byte[] out = new byte[Nv21Frame.bufferSize(4, 2)];
+        new YuvScaler(YuvScaler.FILTER_BOX).scale(frame, 2, 4, 4, 2, out, 4, 2);
+        for (int row = 0; row < 2; row++) {
+            for (int col = 0; col < 4; col++) {
+                assertThat(out[row * 4 + col], is(data[(row + 4) * 8 + col + 2]));
+            }
+        }
+        // The single chroma row, starting from the second VU pair of the third chroma row
+        for (int i = 0; i < 4; i++) {
+            assertThat(out[8 + i], is(data[48 + 2 * 8 + 2 + i]));
+        }
+    }
+
+    @Test
+    public void testBoxAverages() {
+        Nv21Frame frame = new Nv21Frame(4, 4, null);
+        byte[] data = frame.getData();
+        for (int i = 0; i < 16; i++) {
+            data[i] = (byte) (i * 10);
+        }
+        // V then U
+        Arrays.fill(data, 16, 24, (byte) 0);
+        data[16] = 40;
+        data[18] = 80;
+        data[20] = 120;
+        data[22] = (byte) 200;
+        byte[] out = new byte[Nv21Frame.bufferSize(2, 2)];
+        new YuvScaler(YuvScaler.FILTER_BOX).scale(frame, 0, 0, 4, 4, out, 2, 2);
+        assertThat(out[0] & 0xff, is(25)); // 0, 10, 40, 50
+        assertThat(out[1] & 0xff, is(45));
+        assertThat(out[2] & 0xff, is(105));
+        assertThat(out[3] & 0xff, is(125));
+        assertThat(out[4] & 0xff, is(110)); // V: 40, 80, 120, 200
+        assertThat(out[5] & 0xff, is(0));
+    }
+
+    @Test
+    public void testBilinearMidpoints() {
+        Nv21Frame frame = new Nv21Frame(2, 2, null);
+        byte[] data = frame.getData();
+        data[0] = 0;
+        data[1] = 100;
+        data[2] = 100;
+        data[3] = (byte) 200;
+        byte[] out = new byte[Nv21Frame.bufferSize(4, 4)];
+        new YuvScaler(YuvScaler.FILTER_BILINEAR).scale(frame, 0, 0, 2, 2, out, 4, 4);
+        assertThat(out[0] & 0xff, is(0));
+        assertThat(out[1] & 0xff, is(25));
+        assertThat(out[5] & 0xff, is(50));
+        assertThat(out[15] & 0xff, is(200));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCropOutside() {
+        new YuvScaler(YuvScaler.FILTER_BOX).scale(randomFrame(8, 6), 4, 0, 6, 6,
+                new byte[Nv21Frame.bufferSize(2, 2)], 2, 2);
+    }
+
+    @Test
+    public void testCropScaleProcessor() {
+        final Frame[] received = new Frame[1];
+        CropScaleProcessor processor = new CropScaleProcessor(4, 2, new FrameProcessor() {
+            @Override
+            public void process(Frame frame) {
+                received[0] = frame;
+            }
+        });
+        Nv21Frame frame = randomFrame(16, 12);
+        processor.process(frame);
+        assertThat(received[0].getWidth(), is(4));
+        assertThat(received[0].getHeight(), is(2));
+        // Displayed in portrait; the output keeps the sensor orientation
+        frame.setRotation(90);
+        processor.process(frame);
+        assertThat(received[0].getWidth(), is(2));
+        assertThat(received[0].getHeight(), is(4));
+        assertThat(received[0].getRotation(), is(90));
+    }
+
+    private static Nv21Frame randomFrame(int width, int height) {
+        Nv21Frame frame = new Nv21Frame(width, height, null);
+        new Random(width * 31 + height).nextBytes(frame.getData());
+        return frame;
+    }
+
+}